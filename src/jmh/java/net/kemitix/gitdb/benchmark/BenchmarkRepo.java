@@ -0,0 +1,146 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.benchmark;
+
+import net.kemitix.gitdb.GitDB;
+import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GitDBOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Creates and removes the temporary repositories the benchmarks run against.
+ *
+ * <p>The keys and values are generated from a fixed seed, so every run benchmarks the same data. Each benchmark
+ * thread draws from its own {@link #random(int)}, seeded from the same seed.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class BenchmarkRepo {
+
+    static final String USER_NAME = "benchmark";
+    static final String USER_EMAIL = "benchmark@example.com";
+    static final String BRANCH = "master";
+
+    private static final long SEED = 42L;
+    private static final int BATCH_SIZE = 10_000;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    private BenchmarkRepo() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Creates a repository on local disk, with the keys {@link #key(int)} for 0 to keyCount.
+     *
+     * @param keyCount  the number of keys to add
+     * @param valueSize the length of each value
+     * @return the location of the repository
+     * @throws IOException if the repository could not be created
+     */
+    static Path create(final int keyCount, final int valueSize) throws IOException {
+        final Path dbDir = Files.createTempDirectory("gitdb-benchmark");
+        Files.delete(dbDir);
+        try (GitDB gitDB = GitDB.initLocal(dbDir, USER_NAME, USER_EMAIL,
+                GitDBOptions.defaults().withPackedWrites(true))
+                .orElseThrowUnchecked()) {
+            GitDBBranch branch = branch(gitDB);
+            final Random random = new Random(SEED);
+            final Map<String, String> batch = new HashMap<>();
+            for (int i = 0; i < keyCount; i++) {
+                batch.put(key(i), value(random, valueSize));
+                if (batch.size() == BATCH_SIZE || i == keyCount - 1) {
+                    branch = branch.putAll(batch).orElseThrowUnchecked();
+                    batch.clear();
+                }
+            }
+        }
+        return dbDir;
+    }
+
+    /**
+     * The source of the keys and values a benchmark thread uses, the same for the thread in every run.
+     *
+     * @param threadIndex the index of the benchmark thread
+     * @return the source
+     */
+    static Random random(final int threadIndex) {
+        return new Random(SEED + 1 + threadIndex);
+    }
+
+    /**
+     * Selects the branch the benchmarks use.
+     *
+     * @param gitDB the GitDB
+     * @return the branch
+     */
+    static GitDBBranch branch(final GitDB gitDB) {
+        return gitDB.branch(BRANCH).orElseThrowUnchecked()
+                .orElseThrow(() -> new IllegalStateException("No branch " + BRANCH));
+    }
+
+    /**
+     * The name of the key with the index.
+     *
+     * @param index the index of the key
+     * @return the key
+     */
+    static String key(final int index) {
+        return String.format("key-%08d", index);
+    }
+
+    /**
+     * Generates a value.
+     *
+     * @param random the source of the characters of the value
+     * @param size   the length of the value
+     * @return the value
+     */
+    static String value(final Random random, final int size) {
+        final StringBuilder value = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return value.toString();
+    }
+
+    /**
+     * Removes the repository.
+     *
+     * @param dbDir the location of the repository
+     * @throws IOException if the repository could not be removed
+     */
+    static void delete(final Path dbDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dbDir)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.benchmark;
+
+import com.github.zafarkhaja.semver.Version;
+import net.kemitix.gitdb.GitDB;
+import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for reading from, and writing to, a branch.
+ *
+ * <p>Run with a thread count, e.g. {@code -Djmh.threads=4}, to benchmark concurrent readers and writers. Each thread
+ * chooses its keys and values from its own fixed seed, so every run makes the same calls.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BranchBenchmark {
+
+    private static final int SCAN_LENGTH = 100;
+
+    @Param({"1", "1000", "100000"})
+    private int keyCount;
+
+    @Param({"16", "1024"})
+    private int valueSize;
+
+    private Path dbDir;
+    private GitDB gitDB;
+
+    /**
+     * Creates the repository.
+     *
+     * @throws IOException if the repository could not be created
+     */
+    @Setup(Level.Trial)
+    public void createRepo() throws IOException {
+        dbDir = BenchmarkRepo.create(keyCount, valueSize);
+        gitDB = GitDB.openLocal(dbDir, BenchmarkRepo.USER_NAME, BenchmarkRepo.USER_EMAIL)
+                .orElseThrowUnchecked();
+    }
+
+    /**
+     * Closes and removes the repository.
+     *
+     * @throws IOException if the repository could not be removed
+     */
+    @TearDown(Level.Trial)
+    public void deleteRepo() throws IOException {
+        gitDB.close();
+        BenchmarkRepo.delete(dbDir);
+    }
+
+    /**
+     * Gets the value of a random existing key.
+     *
+     * @param writer the state of the calling thread
+     * @return the value
+     */
+    @Benchmark
+    public Result<Maybe<String>> get(final BranchState writer) {
+        return writer.branch.get(writer.randomKey(keyCount));
+    }
+
+    /**
+     * Gets the format version of the branch.
+     *
+     * @param writer the state of the calling thread
+     * @return the format version
+     */
+    @Benchmark
+    public Result<Maybe<Version>> getFormatVersion(final BranchState writer) {
+        return writer.branch.getFormatVersion();
+    }
+
+    /**
+     * Puts a new value for a random existing key, so the number of keys stays the same.
+     *
+     * @param writer the state of the calling thread
+     * @return the updated branch
+     */
+    @Benchmark
+    public GitDBBranch put(final BranchState writer) {
+        writer.branch = writer.branch.put(writer.randomKey(keyCount), writer.value).orElseThrowUnchecked();
+        return writer.branch;
+    }
+
+    /**
+     * Scans the keys sharing a prefix with a random existing key, up to {@value #SCAN_LENGTH} of them.
+     *
+     * @param reader the state of the calling thread
+     * @return the keys and values found
+     */
+    @Benchmark
+    public List<Map.Entry<String, String>> scan(final BranchState reader) {
+        final String key = reader.randomKey(keyCount);
+        final String prefix = key.substring(0, key.length() - 2);
+        return collect(reader.branch.scan(prefix, SCAN_LENGTH));
+    }
+
+    /**
+     * Reads the range of {@value #SCAN_LENGTH} keys starting from a random existing key.
+     *
+     * @param reader the state of the calling thread
+     * @return the keys and values found
+     */
+    @Benchmark
+    public List<Map.Entry<String, String>> range(final BranchState reader) {
+        final int from = reader.random.nextInt(keyCount);
+        return collect(reader.branch.range(BenchmarkRepo.key(from), BenchmarkRepo.key(from + SCAN_LENGTH)));
+    }
+
+    private static List<Map.Entry<String, String>> collect(final Result<Stream<Map.Entry<String, String>>> entries) {
+        try (Stream<Map.Entry<String, String>> stream = entries.orElseThrowUnchecked()) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Removes an existing key, which is restored before the next invocation.
+     *
+     * @param writer the state of the calling thread
+     * @return the updated branch
+     */
+    @Benchmark
+    public GitDBBranch remove(final RemoveState writer) {
+        writer.branch = writer.branch.remove(writer.key).orElseThrowUnchecked();
+        return writer.branch;
+    }
+
+    /**
+     * The branch as seen by a single thread.
+     */
+    @State(Scope.Thread)
+    public static class BranchState {
+
+        GitDBBranch branch;
+        String value;
+        Random random;
+
+        /**
+         * Seeds the thread's choice of keys and values from its index, so each thread makes the same calls every run.
+         *
+         * @param threadParams the parameters of the calling thread
+         */
+        @Setup(Level.Trial)
+        public void seed(final ThreadParams threadParams) {
+            random = BenchmarkRepo.random(threadParams.getThreadIndex());
+        }
+
+        /**
+         * Selects the branch.
+         *
+         * @param benchmark the shared benchmark state
+         */
+        @Setup(Level.Iteration)
+        public void selectBranch(final BranchBenchmark benchmark) {
+            branch = BenchmarkRepo.branch(benchmark.gitDB);
+            value = BenchmarkRepo.value(random, benchmark.valueSize);
+        }
+
+        String randomKey(final int keyCount) {
+            return BenchmarkRepo.key(random.nextInt(keyCount));
+        }
+    }
+
+    /**
+     * The branch as seen by a single thread, with a key ready to be removed.
+     */
+    @State(Scope.Thread)
+    public static class RemoveState extends BranchState {
+
+        String key;
+
+        /**
+         * Puts the key that is to be removed.
+         *
+         * @param benchmark the shared benchmark state
+         */
+        @Setup(Level.Invocation)
+        public void restoreKey(final BranchBenchmark benchmark) {
+            key = randomKey(benchmark.keyCount);
+            branch = branch.put(key, value).orElseThrowUnchecked();
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import net.kemitix.mon.maybe.Maybe;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An asynchronous view of a branch in the GitDB.
+ *
+ * <p>Operations are run on the executor the view was created with. Reads may run concurrently with each other, but
+ * only begin once all previously requested updates have completed. Updates are applied one at a time, in the order
+ * they were requested, each to the branch as left by the previous update. This holds across every asynchronous view
+ * of the same branch from the same GitDB.</p>
+ *
+ * <p>A failed update completes its future exceptionally and leaves the branch as it was before that update.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public interface AsyncGitDBBranch {
+
+    /**
+     * The branch, as left by all the updates requested so far, through any view of the branch.
+     *
+     * @return the branch
+     */
+    CompletableFuture<GitDBBranch> branch();
+
+    /**
+     * Lookup a value for the key.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    CompletableFuture<Maybe<String>> get(String key);
+
+    /**
+     * Lookup a value for the key, as bytes.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    CompletableFuture<Maybe<byte[]>> getBytes(String key);
+
+    /**
+     * Put a value into the store for the key.
+     *
+     * @param key   the key to place the value under
+     * @param value the value
+     * @return the updated branch containing the new key/value
+     */
+    CompletableFuture<GitDBBranch> put(String key, String value);
+
+    /**
+     * Put a value into the store for the key.
+     *
+     * @param key   the key to place the value under
+     * @param value the value
+     * @return the updated branch containing the new key/value
+     */
+    CompletableFuture<GitDBBranch> put(String key, byte[] value);
+
+    /**
+     * Removes a key and its value from the store.
+     *
+     * @param key the key to remove
+     * @return the updated branch without the key
+     */
+    CompletableFuture<GitDBBranch> remove(String key);
+
+    /**
+     * Applies all the updates in the batch as a single commit.
+     *
+     * @param batch the keys to put and remove
+     * @return the updated branch containing all the updates
+     */
+    CompletableFuture<GitDBBranch> write(WriteBatch batch);
+
+}
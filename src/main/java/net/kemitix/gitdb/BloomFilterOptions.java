@@ -0,0 +1,89 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+
+/**
+ * The Bloom filters that let lookups of absent keys return without reading the trees they would be in.
+ *
+ * <p>A filter is built for each tree as it is read, from the names of its entries. As a tree never changes, its filter
+ * never needs to be rebuilt, and is kept until evicted to stay within the memory budget. A filter is much smaller than
+ * the cached entries of its tree, so filters remain for many trees whose entries have been evicted.</p>
+ *
+ * <p>Start from {@link #defaults()}, where the filters are disabled, and override individual options with the
+ * {@code with} methods.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class BloomFilterOptions {
+
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * The total size, in bytes, of the filters to retain. Zero disables the filters.
+     */
+    private final long maxBytes;
+
+    /**
+     * The proportion of lookups for absent names that each filter lets through to the tree. Greater than zero and
+     * less than one.
+     */
+    private final double falsePositiveRate;
+
+    /**
+     * Whether the filters are saved when the GitDB is closed, alongside the object database, and loaded when it is
+     * next opened.
+     */
+    private final boolean persisted;
+
+    /**
+     * The default options, with the filters disabled.
+     *
+     * @return the default options
+     */
+    public static BloomFilterOptions defaults() {
+        return new BloomFilterOptions(0, DEFAULT_FALSE_POSITIVE_RATE, false);
+    }
+
+    /**
+     * The options with the false positive rate.
+     *
+     * @param falsePositiveRate the proportion of lookups for absent names to let through to the tree
+     * @return the options
+     * @throws IllegalArgumentException if the rate is not greater than zero and less than one
+     */
+    public BloomFilterOptions withFalsePositiveRate(final double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid false positive rate [%s]", falsePositiveRate));
+        }
+        return new BloomFilterOptions(maxBytes, falsePositiveRate, persisted);
+    }
+
+}
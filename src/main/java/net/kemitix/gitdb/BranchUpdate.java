@@ -0,0 +1,74 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The head of a branch has advanced.
+ *
+ * <p>The update covers every commit between the two heads, so updates that arrive while a subscriber is busy are
+ * merged into one. The changed keys are only found when asked for.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor
+public final class BranchUpdate {
+
+    /**
+     * The name of the branch.
+     */
+    private final String branchName;
+
+    /**
+     * The commit the branch was at when last seen, or empty if the branch didn't exist.
+     */
+    private final Maybe<String> fromCommitId;
+
+    /**
+     * The commit the branch is now at.
+     */
+    private final String toCommitId;
+
+    @Getter(AccessLevel.NONE)
+    private final Supplier<Result<Stream<KeyChange>>> changes;
+
+    /**
+     * Streams the keys that have been added, modified or removed by the update.
+     *
+     * <p>The stream should be closed if it is not consumed in full.</p>
+     *
+     * @return the changed keys
+     */
+    public Result<Stream<KeyChange>> changes() {
+        return changes.get();
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A snapshot of the counters of a cache.
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor
+public final class CacheStats {
+
+    /**
+     * The number of lookups that found their value in the cache.
+     */
+    private final long hits;
+
+    /**
+     * The number of lookups that had to load their value.
+     */
+    private final long misses;
+
+    /**
+     * The current total weight of the values in the cache.
+     */
+    private final long weight;
+
+    /**
+     * The weight the cache is bounded by.
+     */
+    private final long maxWeight;
+
+    /**
+     * The proportion of lookups that found their value in the cache.
+     *
+     * @return the hit rate, between 0 and 1, or 0 if there have been no lookups
+     */
+    public double hitRate() {
+        final long lookups = hits + misses;
+        if (lookups == 0) {
+            return 0;
+        }
+        return (double) hits / lookups;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.Getter;
+import lombok.With;
+
+/**
+ * How large values are split into chunks, so that an update to part of a value only writes the chunks it changes.
+ *
+ * <p>Chunk boundaries are chosen by a rolling hash of the content, rather than at fixed offsets, so an insertion or
+ * deletion only moves the boundaries near it. The chunks of a value are stored as the blobs of a tree in place of a
+ * single blob, and a chunk found in more than one value, or version of a value, is stored once.</p>
+ *
+ * <p>Start from {@link #defaults()}, where chunking is disabled, and override individual options with the
+ * {@code with} methods. Each option is checked as it is set, so where the chunk sizes are changed together, such as
+ * to larger chunks, use {@link #withChunkSizes(int, int, int)}.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+public final class ChunkingOptions {
+
+    private static final int DEFAULT_MIN_CHUNK_BYTES = 16 * 1024;
+    private static final int DEFAULT_AVERAGE_CHUNK_BYTES = 64 * 1024;
+    private static final int DEFAULT_MAX_CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * The size, in bytes, from which values are chunked. Zero disables chunking, and it may not be negative.
+     */
+    private final long thresholdBytes;
+
+    /**
+     * The smallest chunk, other than the last of a value. Greater than zero.
+     */
+    private final int minChunkBytes;
+
+    /**
+     * The size of chunk aimed for, rounded down to a power of two. Between the smallest and the largest chunk.
+     */
+    private final int averageChunkBytes;
+
+    /**
+     * The largest chunk. No smaller than the smallest chunk.
+     */
+    private final int maxChunkBytes;
+
+    private ChunkingOptions(
+            final long thresholdBytes,
+            final int minChunkBytes,
+            final int averageChunkBytes,
+            final int maxChunkBytes
+    ) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException(String.format("Invalid chunking threshold [%d]", thresholdBytes));
+        }
+        if (minChunkBytes <= 0 || maxChunkBytes < minChunkBytes
+                || averageChunkBytes < minChunkBytes || averageChunkBytes > maxChunkBytes) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid chunk sizes: min [%d], average [%d], max [%d]",
+                    minChunkBytes, averageChunkBytes, maxChunkBytes));
+        }
+        this.thresholdBytes = thresholdBytes;
+        this.minChunkBytes = minChunkBytes;
+        this.averageChunkBytes = averageChunkBytes;
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    /**
+     * The default options, with chunking disabled.
+     *
+     * @return the default options
+     */
+    public static ChunkingOptions defaults() {
+        return new ChunkingOptions(0, DEFAULT_MIN_CHUNK_BYTES, DEFAULT_AVERAGE_CHUNK_BYTES, DEFAULT_MAX_CHUNK_BYTES);
+    }
+
+    /**
+     * The options with the sizes of the chunks.
+     *
+     * @param minChunkBytes     the smallest chunk, other than the last of a value
+     * @param averageChunkBytes the size of chunk aimed for
+     * @param maxChunkBytes     the largest chunk
+     * @return the options
+     * @throws IllegalArgumentException if the smallest chunk is not greater than zero, the largest is smaller than it,
+     *                                  or the average is not between them
+     */
+    public ChunkingOptions withChunkSizes(
+            final int minChunkBytes,
+            final int averageChunkBytes,
+            final int maxChunkBytes
+    ) {
+        return new ChunkingOptions(thresholdBytes, minChunkBytes, averageChunkBytes, maxChunkBytes);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.With;
+
+/**
+ * How values are compressed when they are written.
+ *
+ * <p>Values that are already compressed, such as images or gzip payloads, gain little from being compressed again, so
+ * storing them with a lower level, or none, saves the time spent compressing them on write and inflating them on
+ * read, at the cost of space.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@EqualsAndHashCode
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Compression {
+
+    private static final int REPOSITORY_DEFAULT = -1;
+    private static final int MAX_LEVEL = 9;
+
+    /**
+     * The zlib compression level, from 0 for none to 9 for the most, or -1 for the level configured for the
+     * repository.
+     */
+    private final int level;
+
+    /**
+     * Whether values that barely compress, judged from a sample of their start, are stored without compression
+     * instead.
+     */
+    @With
+    private final boolean detectIncompressible;
+
+    /**
+     * Compression at the level configured for the repository.
+     *
+     * @return the compression
+     */
+    public static Compression defaults() {
+        return new Compression(REPOSITORY_DEFAULT, false);
+    }
+
+    /**
+     * Compression at the level.
+     *
+     * @param level the zlib compression level, from 0 for none to 9 for the most
+     * @return the compression
+     * @throws IllegalArgumentException if the level is not from 0 to 9
+     */
+    public static Compression level(final int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException(String.format("Invalid compression level [%d]", level));
+        }
+        return new Compression(level, false);
+    }
+
+    /**
+     * No compression, with values stored as they are.
+     *
+     * @return the compression
+     */
+    public static Compression stored() {
+        return level(0);
+    }
+
+    /**
+     * Whether the level configured for the repository is used.
+     *
+     * @return true if the repository's level is used
+     */
+    public boolean isRepositoryDefault() {
+        return level == REPOSITORY_DEFAULT;
+    }
+
+}
@@ -32,7 +32,7 @@ import java.nio.charset.StandardCharsets;
  */
 public final class FormatVersion {
 
-    private static final int MAJOR = 1;
+    private static final int MAJOR = 2;
     private static final int MINOR = 0;
     private static final int PATCH = 0;
 
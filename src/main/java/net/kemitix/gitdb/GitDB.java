@@ -26,13 +26,17 @@ import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Main API for connecting to a Git repo as a database.
  *
  * @author Paul Campbell (pcampbell@kemitix.net)
  */
-public interface GitDB {
+public interface GitDB extends AutoCloseable {
 
     /**
      * Initialise a new local gitdb.
@@ -50,6 +54,24 @@ public interface GitDB {
         return LocalGitDB.init(dbDir, userName, userEmailAddress);
     }
 
+    /**
+     * Initialise a new local gitdb.
+     *
+     * @param dbDir            the path to initialise the local repo in
+     * @param userName         the user name
+     * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
+     * @return a GitDB instance for the created local gitdb
+     */
+    static Result<GitDB> initLocal(
+            final Path dbDir,
+            final String userName,
+            final String userEmailAddress,
+            final GitDBOptions options
+    ) {
+        return LocalGitDB.init(dbDir, userName, userEmailAddress, options);
+    }
+
     /**
      * Open an existing local gitdb.
      *
@@ -62,6 +84,24 @@ public interface GitDB {
         return LocalGitDB.open(dbDir, userName, userEmailAddress);
     }
 
+    /**
+     * Open an existing local gitdb.
+     *
+     * @param dbDir            the path to open as a local repo
+     * @param userName         the user name
+     * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
+     * @return a GitDB instance for the local gitdb
+     */
+    static Result<GitDB> openLocal(
+            final Path dbDir,
+            final String userName,
+            final String userEmailAddress,
+            final GitDBOptions options
+    ) {
+        return LocalGitDB.open(dbDir, userName, userEmailAddress, options);
+    }
+
     /**
      * Select the named branch.
      *
@@ -70,4 +110,82 @@ public interface GitDB {
      */
     Result<Maybe<GitDBBranch>> branch(String name);
 
+    /**
+     * Select the named branch, as an asynchronous view.
+     *
+     * <p>Updates requested through every asynchronous view of a branch from this GitDB, however the view was created,
+     * are applied one at a time, in the order they were requested.</p>
+     *
+     * @param name     the branch to select
+     * @param executor the executor to run operations on
+     * @return an Result Maybe containing the view of the branch if it exists
+     */
+    Result<Maybe<AsyncGitDBBranch>> asyncBranch(String name, Executor executor);
+
+    /**
+     * Streams the keys that differ between two states of the GitDB.
+     *
+     * <p>Each revision may be a branch name or the id of a commit, such as from {@link GitDBBranch#commitId()}.
+     * Subtrees that are unchanged between the two states are skipped without being read, so the work done grows with
+     * the number of changes rather than the number of keys. The values are only read when asked for from each
+     * {@link KeyChange}.</p>
+     *
+     * <p>The stream is lazy and holds resources open until it is exhausted or closed, so should be closed if it is
+     * not consumed in full.</p>
+     *
+     * @param fromRevision the earlier state
+     * @param toRevision   the later state
+     * @return the keys that have been added, modified or removed
+     */
+    Result<Stream<KeyChange>> diff(String fromRevision, String toRevision);
+
+    /**
+     * Subscribes to the updates of a branch, from its current head.
+     *
+     * <p>Updates made within this process are delivered as soon as the branch is written. Updates made by other
+     * processes are found by checking the branch every poll interval. The listener is called on a background thread,
+     * one update at a time. Writers are never held up by a slow listener: updates made while it is busy are merged
+     * into a single update covering all of them.</p>
+     *
+     * @param branchName   the branch to follow, which need not exist yet
+     * @param pollInterval how often to check for updates made by other processes
+     * @param listener     receives each update, or the error if the branch can't be read
+     * @return the handle to stop the updates
+     */
+    Result<Subscription> subscribe(String branchName, Duration pollInterval, Consumer<Result<BranchUpdate>> listener);
+
+    /**
+     * The counters of the cache of values, shared by all branches.
+     *
+     * @return a snapshot of the cache counters
+     */
+    CacheStats valueCacheStats();
+
+    /**
+     * The counters of the cache of tree entries used to resolve keys, shared by all branches.
+     *
+     * @return a snapshot of the cache counters
+     */
+    CacheStats treeCacheStats();
+
+    /**
+     * Starts background maintenance that periodically repacks the objects and prunes those that are unreachable.
+     *
+     * <p>Maintenance only runs when one of the thresholds of the policy has been reached.</p>
+     *
+     * @param policy   the thresholds and limits for maintenance
+     * @param listener receives the report, or the error, from each scheduled run that repacks
+     * @return the handle to stop the maintenance, or run it on demand
+     */
+    Result<Maintenance> scheduleMaintenance(MaintenancePolicy policy, Consumer<Result<MaintenanceReport>> listener);
+
+    /**
+     * Releases the inserters and readers held by the GitDB, and closes the repository.
+     *
+     * <p>Any subscriptions and scheduled maintenance still open are closed first. Branches selected from the GitDB
+     * can't be written to once it is closed.</p>
+     */
+    @Override
+    void close();
+
 }
@@ -25,9 +25,20 @@ import com.github.zafarkhaja.semver.Version;
 import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
 /**
  * API for interacting with a branch in a GirDB.
  *
+ * <p>Keys, and the names of indexes, may not contain a '/' or a NUL character. Each is stored as the name of a single
+ * tree entry, so an operation given such a key, or index name, is an error.</p>
+ *
  * @author Paul Campbell (pcampbell@kemitix.net)
  */
 public interface GitDBBranch {
@@ -47,6 +58,198 @@ public interface GitDBBranch {
      */
     Result<Maybe<String>> get(String key);
 
+    /**
+     * Lookup the values for many keys.
+     *
+     * <p>Faster than a get for each key, as the values are read from the repository together.</p>
+     *
+     * @param keys the keys to lookup
+     * @return the value of each key that exists, by key, without the keys that don't exist
+     */
+    Result<Map<String, String>> getAll(Collection<String> keys);
+
+    /**
+     * Lookup a value for the key, as bytes.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    Result<Maybe<byte[]>> getBytes(String key);
+
+    /**
+     * Lookup a value for the key, as a read-only buffer.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    Result<Maybe<ByteBuffer>> getByteBuffer(String key);
+
+    /**
+     * Lookup a value for the key, as a stream.
+     *
+     * <p>Values larger than {@link GitDBOptions#getStreamThresholdBytes()} are streamed from the repository without
+     * being cached, and the largest without being held in memory in full. The caller must close the stream.</p>
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    Result<Maybe<InputStream>> getStream(String key);
+
+    /**
+     * The id of the commit this branch is at.
+     *
+     * <p>The id can be used with {@link GitDB#diff(String, String)} to find the changes made since.</p>
+     *
+     * @return the commit id
+     */
+    Result<String> commitId();
+
+    /**
+     * A read-only view of the branch as it was at a commit.
+     *
+     * <p>Any attempt to write to the view is an error.</p>
+     *
+     * @param commitId the id of the commit, such as from {@link #commitId()} of an earlier state of the branch
+     * @return the view of the branch
+     */
+    Result<GitDBBranch> at(String commitId);
+
+    /**
+     * A read-only view of the branch as it was at a time.
+     *
+     * <p>The commit is found from an index of the commit times along the history of the branch, which is kept up to
+     * date as the branch advances, so the history is not walked on each lookup. Any attempt to write to the view is an
+     * error.</p>
+     *
+     * @param instant the time
+     * @return a Maybe containing the view of the branch, or empty if the branch had no commits by then
+     */
+    Result<Maybe<GitDBBranch>> asOf(Instant instant);
+
+    /**
+     * Lookup a value for the key as it was at a commit.
+     *
+     * @param key      the key to lookup
+     * @param commitId the id of the commit
+     * @return a Maybe containing the value, if it existed then, or empty if not
+     */
+    Result<Maybe<String>> getAt(String key, String commitId);
+
+    /**
+     * Lookup a value for the key as it was at a time.
+     *
+     * @param key     the key to lookup
+     * @param instant the time
+     * @return a Maybe containing the value, if it existed then, or empty if not
+     */
+    Result<Maybe<String>> getAsOf(String key, Instant instant);
+
+    /**
+     * Opens a pinned, read-only snapshot of the branch, for serving many reads from this state.
+     *
+     * @return the snapshot, which should be closed when no longer needed
+     */
+    Result<GitDBSnapshot> snapshot();
+
+    /**
+     * Streams all the keys and their values.
+     *
+     * <p>The stream is lazy, reading the trees and values only as it is consumed, so its memory use does not grow
+     * with the size of the branch. The keys are in no particular order. The stream holds resources open until it is
+     * exhausted or closed, so should be closed, e.g. with try-with-resources, if it is not consumed in full.</p>
+     *
+     * @return the keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> entries();
+
+    /**
+     * Finds the keys that start with the prefix, and their values, in order of key.
+     *
+     * <p>Only the values of the matching keys are read, as the stream is consumed. The keys of a branch are spread
+     * across its trees by the hash of the key, so the entries of every tree are checked, though within each tree only
+     * the names from the prefix onwards are visited.</p>
+     *
+     * @param prefix the prefix of the keys to find
+     * @return the matching keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> scan(String prefix);
+
+    /**
+     * Finds the first keys, up to the limit, that start with the prefix, and their values, in order of key.
+     *
+     * <p>Only the values of the keys returned are read, as the stream is consumed.</p>
+     *
+     * @param prefix the prefix of the keys to find
+     * @param limit  the most keys to return
+     * @return the matching keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> scan(String prefix, int limit);
+
+    /**
+     * Finds the keys within the range, and their values, in order of key.
+     *
+     * <p>Only the values of the matching keys are read, as the stream is consumed.</p>
+     *
+     * @param fromInclusive the lowest key to find
+     * @param toExclusive   the key after the highest key to find
+     * @return the matching keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> range(String fromInclusive, String toExclusive);
+
+    /**
+     * Finds the first keys, up to the limit, within the range, and their values, in order of key.
+     *
+     * <p>Only the values of the keys returned are read, as the stream is consumed. To page through a range, start the
+     * next page from the key after the last key of the previous page.</p>
+     *
+     * @param fromInclusive the lowest key to find
+     * @param toExclusive   the key after the highest key to find
+     * @param limit         the most keys to return
+     * @return the matching keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> range(String fromInclusive, String toExclusive, int limit);
+
+    /**
+     * The branch, with values put through it, and the branches it leads to, compressed as given.
+     *
+     * <p>Other branches, and other writers to this branch, continue to use the compression of the GitDB.</p>
+     *
+     * <p>Values compressed at other than the level of the GitDB are written to a pack file with each commit, even where
+     * the GitDB writes loose objects, so should be consolidated by scheduled maintenance.</p>
+     *
+     * @param compression how to compress values
+     * @return the branch, with the compression
+     */
+    GitDBBranch withCompression(Compression compression);
+
+    /**
+     * Declares a secondary index on the branch, which is maintained by every update made through the returned branch
+     * and those it leads to.
+     *
+     * <p>Where the index has not yet been built on the branch, it is built from the existing values in a single
+     * commit. An index with the same name as one already declared replaces it.</p>
+     *
+     * <p>The branch records which indexes have been built on it, but not how to extract their terms. Once an index has
+     * been built, every branch handle that writes to the branch, including those selected later and asynchronous
+     * views, must declare it first, or its writes fail rather than leave the index out of date.</p>
+     *
+     * @param index the index
+     * @return the branch, with the index declared
+     */
+    Result<GitDBBranch> withIndex(SecondaryIndex index);
+
+    /**
+     * Finds the keys whose values have the term in the index, and their values, in order of key.
+     *
+     * <p>Only the subtree of the index for the term is read, not the keys of the branch. The index need not be
+     * declared on this branch handle, only built on the branch.</p>
+     *
+     * @param indexName the name of the index
+     * @param term      the term
+     * @return the matching keys and their values, or an error if no index with the name has been declared or built
+     */
+    Result<Stream<Map.Entry<String, String>>> findByIndex(String indexName, String term);
+
     /**
      * Put a value into the store for the key.
      *
@@ -56,6 +259,49 @@ public interface GitDBBranch {
      */
     Result<GitDBBranch> put(String key, String value);
 
+    /**
+     * Put a value into the store for the key.
+     *
+     * @param key   the key to place the value under
+     * @param value the value
+     * @return an updated branch containing the new key/value
+     */
+    Result<GitDBBranch> put(String key, byte[] value);
+
+    /**
+     * Put the remaining bytes of the buffer into the store for the key.
+     *
+     * @param key   the key to place the value under
+     * @param value the value
+     * @return an updated branch containing the new key/value
+     */
+    Result<GitDBBranch> put(String key, ByteBuffer value);
+
+    /**
+     * Put a value into the store for the key, streaming it from the input stream.
+     *
+     * <p>The value is streamed into the repository without being held in memory in full. The stream is not
+     * closed.</p>
+     *
+     * @param key    the key to place the value under
+     * @param value  the stream to read the value from
+     * @param length the exact number of bytes to read from the stream
+     * @return an updated branch containing the new key/value
+     */
+    Result<GitDBBranch> put(String key, InputStream value, long length);
+
+    /**
+     * Put a value into the store for the key, written by the writer.
+     *
+     * <p>For values whose length is not known in advance. Large values are spooled to a temporary file, rather than
+     * held in memory, before being streamed into the repository.</p>
+     *
+     * @param key    the key to place the value under
+     * @param writer writes the value
+     * @return an updated branch containing the new key/value
+     */
+    Result<GitDBBranch> put(String key, ValueStreamWriter writer);
+
     /**
      * Removes a key and its value from the store.
      *
@@ -64,6 +310,24 @@ public interface GitDBBranch {
      */
     Result<GitDBBranch> remove(String key);
 
+    /**
+     * Put all the key/value pairs into the store as a single commit.
+     *
+     * @param entries the key/value pairs
+     * @return an updated branch containing the new key/values, or the original if nothing changed
+     */
+    Result<GitDBBranch> putAll(Map<String, String> entries);
+
+    /**
+     * Writes all the updates in the batch into the store as a single commit.
+     *
+     * <p>The tree of the branch is read once, and each tree affected by the updates is written once.</p>
+     *
+     * @param batch the updates to write
+     * @return an updated branch containing the updates, or the original if nothing changed
+     */
+    Result<GitDBBranch> write(WriteBatch batch);
+
     /**
      * Returns the GitDB format for the current branch.
      *
@@ -73,4 +337,32 @@ public interface GitDBBranch {
      */
     Result<Maybe<Version>> getFormatVersion();
 
+    /**
+     * An asynchronous view of this branch.
+     *
+     * <p>Operations are run on the executor, which may be any {@link Executor}, including one that starts a virtual
+     * thread for each task, where the JVM supports them.</p>
+     *
+     * <p>Updates made through the view are not visible to this branch, which remains unchanged. They are applied one
+     * at a time, in the order they were requested, with those made through every other asynchronous view of the branch
+     * from the same GitDB, each to the branch as left by the previous update.</p>
+     *
+     * @param executor the executor to run operations on
+     * @return the asynchronous view
+     */
+    AsyncGitDBBranch async(Executor executor);
+
+    /**
+     * An asynchronous view of this branch that groups concurrent updates into a single commit.
+     *
+     * <p>Puts and removes of string values, and write batches, requested while an earlier commit is being made are
+     * combined into a single commit, within the limits of the policy. The future for each update completes once the
+     * commit that includes it has been made.</p>
+     *
+     * @param executor the executor to run operations on
+     * @param policy   the limits for grouping updates
+     * @return the asynchronous view
+     */
+    AsyncGitDBBranch async(Executor executor, GroupCommitPolicy policy);
+
 }
@@ -0,0 +1,123 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+/**
+ * Listens for the operations of a GitDB, to measure them.
+ *
+ * <p>Every method does nothing by default, so implementations need only override those they record. Methods are
+ * called on the thread performing the operation, so should be fast and thread-safe.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public interface GitDBMetrics {
+
+    /**
+     * Records nothing.
+     */
+    GitDBMetrics NONE = new GitDBMetrics() {
+    };
+
+    /**
+     * Called when an operation completes.
+     *
+     * @param operation the operation
+     * @param nanos     how long the operation took, in nanoseconds
+     * @param success   whether the operation succeeded
+     */
+    default void operation(final Operation operation, final long nanos, final boolean success) {
+    }
+
+    /**
+     * Called when a phase of writing an update completes.
+     *
+     * @param phase the phase
+     * @param nanos how long the phase took, in nanoseconds
+     */
+    default void phase(final Phase phase, final long nanos) {
+    }
+
+    /**
+     * Called when an object is inserted into the repository.
+     *
+     * @param type  the type of object, i.e. "blob", "tree" or "commit"
+     * @param bytes the size of the object, before compression
+     */
+    default void objectInserted(final String type, final long bytes) {
+    }
+
+    /**
+     * Called when a tree on the path to an updated key is rewritten.
+     *
+     * <p>Every entry of the tree is written again, not only those that changed, so the entries rewritten per update
+     * grow with the size of the trees on the paths to its keys.</p>
+     *
+     * @param entries the number of entries in the tree
+     */
+    default void treeRewritten(final int entries) {
+    }
+
+    /**
+     * Called when a branch could not be updated because another writer updated it first.
+     *
+     * @param branchName the name of the branch
+     */
+    default void refUpdateConflict(final String branchName) {
+    }
+
+    /**
+     * The operations that are measured.
+     */
+    enum Operation {
+        /** Selecting a branch. */
+        BRANCH,
+        /** Getting a single value. */
+        GET,
+        /** Getting many values. */
+        GET_ALL,
+        /** Putting a single value. */
+        PUT,
+        /** Removing a single key. */
+        REMOVE,
+        /** Writing a batch of updates. */
+        WRITE,
+        /** Scanning a prefix or range of keys. */
+        SCAN
+    }
+
+    /**
+     * The phases of writing an update.
+     */
+    enum Phase {
+        /** Writing the value blobs. */
+        VALUE_WRITER,
+        /** Rewriting the trees on the path to each key. */
+        KEY_WRITER,
+        /** Writing the commit. */
+        COMMIT_WRITER,
+        /** Flushing the inserted objects to the repository. */
+        FLUSH,
+        /** Updating the branch to the new commit. */
+        HEAD_WRITER
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+
+/**
+ * Options for tuning a GitDB when it is opened.
+ *
+ * <p>Start from {@link #defaults()} and override individual options with the {@code with} methods.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class GitDBOptions {
+
+    private static final long DEFAULT_VALUE_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_STREAM_THRESHOLD_BYTES = 1024L * 1024;
+    private static final long DEFAULT_TREE_CACHE_ENTRIES = 100_000L;
+    private static final int DEFAULT_COMMIT_RETRIES = 10;
+
+    /**
+     * The total size in bytes of the values to keep in memory, shared by all branches.
+     */
+    private final long valueCacheBytes;
+
+    /**
+     * Values larger than this many bytes are streamed by {@link GitDBBranch#getStream(String)}, without being added
+     * to the cache of values.
+     */
+    private final long streamThresholdBytes;
+
+    /**
+     * The total number of tree entries to keep in memory for resolving keys, shared by all branches.
+     */
+    private final long treeCacheEntries;
+
+    /**
+     * Whether the objects added by each commit are written as a single pack file, rather than a loose file each.
+     *
+     * <p>Packed writes cost a handful of file operations per commit regardless of how many objects it adds. Each
+     * commit adds a pack file, so the number of packs grows until they are repacked by maintenance, which checks its
+     * pack file threshold as soon as that many packs have been written. Packed writes use an inserter internal to
+     * JGit, which may change between JGit versions.</p>
+     */
+    private final boolean packedWrites;
+
+    /**
+     * The number of times an update is reapplied to the latest head of its branch, when another writer updates the
+     * branch first, before failing with a {@link BranchConflictException}.
+     */
+    private final int commitRetries;
+
+    /**
+     * The listener to report the latency of operations, and the objects written, to.
+     */
+    private final GitDBMetrics metrics;
+
+    /**
+     * How the repository's pack files are read and cached.
+     *
+     * <p>Options other than the defaults apply to every repository within the JVM, see {@link StorageOptions}.</p>
+     */
+    private final StorageOptions storageOptions;
+
+    /**
+     * The Bloom filters that let lookups of absent keys return without reading the trees they would be in.
+     */
+    private final BloomFilterOptions bloomFilterOptions;
+
+    /**
+     * How values are compressed, unless a branch is given other compression with
+     * {@link GitDBBranch#withCompression(Compression)}.
+     */
+    private final Compression compression;
+
+    /**
+     * How large values are split into chunks.
+     */
+    private final ChunkingOptions chunkingOptions;
+
+    /**
+     * The default options.
+     *
+     * @return the default options
+     */
+    public static GitDBOptions defaults() {
+        return new GitDBOptions(DEFAULT_VALUE_CACHE_BYTES, DEFAULT_STREAM_THRESHOLD_BYTES, DEFAULT_TREE_CACHE_ENTRIES,
+                false, DEFAULT_COMMIT_RETRIES, GitDBMetrics.NONE, StorageOptions.defaults(), BloomFilterOptions.defaults(),
+                Compression.defaults(), ChunkingOptions.defaults());
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A pinned, read-only snapshot of a branch, for serving many reads from the same state.
+ *
+ * <p>The root tree of the branch is resolved once, when the snapshot is opened, and one reader is held open for the
+ * trees and values not already cached, so each read avoids resolving the commit and opening a reader of its own.
+ * Every read sees the same state, however the branch is written to meanwhile.</p>
+ *
+ * <p>A snapshot may be shared between threads. It should be closed when no longer needed, after which reads are an
+ * error.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public interface GitDBSnapshot extends AutoCloseable {
+
+    /**
+     * The id of the commit the snapshot is of.
+     *
+     * @return the commit id
+     */
+    Result<String> commitId();
+
+    /**
+     * Lookup a value for the key.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the value, if it exists, or empty if not
+     */
+    Result<Maybe<String>> get(String key);
+
+    /**
+     * Lookup the values for many keys, reading those not already cached together.
+     *
+     * @param keys the keys to lookup
+     * @return the value of each key that exists, by its key
+     */
+    Result<Map<String, String>> getAll(Collection<String> keys);
+
+    /**
+     * Lookup a value for the key, as bytes.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing a copy of the value, if it exists, or empty if not
+     */
+    Result<Maybe<byte[]>> getBytes(String key);
+
+    /**
+     * Opens a stream over the value for the key.
+     *
+     * @param key the key to lookup
+     * @return a Maybe containing the stream over the value, if it exists, or empty if not
+     */
+    Result<Maybe<InputStream>> getStream(String key);
+
+    /**
+     * Finds the keys that start with the prefix, and their values, in order of key.
+     *
+     * @param prefix the prefix of the keys
+     * @param limit  the most keys to find
+     * @return the keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> scan(String prefix, int limit);
+
+    /**
+     * Finds the keys from one key, inclusive, to another, exclusive, and their values, in order of key.
+     *
+     * @param fromInclusive the lowest key
+     * @param toExclusive   the key to stop before
+     * @param limit         the most keys to find
+     * @return the keys and their values
+     */
+    Result<Stream<Map.Entry<String, String>>> range(String fromInclusive, String toExclusive, int limit);
+
+    /**
+     * Releases the reader held by the snapshot.
+     */
+    @Override
+    void close();
+
+}
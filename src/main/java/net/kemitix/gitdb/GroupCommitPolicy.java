@@ -0,0 +1,67 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+
+import java.time.Duration;
+
+/**
+ * The limits for grouping concurrent updates to a branch into a single commit.
+ *
+ * <p>Start from {@link #defaults()} and override individual options with the {@code with} methods.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class GroupCommitPolicy {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1_000;
+
+    /**
+     * How long a group waits for more updates to join it, once it is ready to be committed.
+     *
+     * <p>A group is ready once the commit before it has been made, so updates requested while that commit is being
+     * made join the group even with no window. The wait does not hold any of the executor's threads.</p>
+     */
+    private final Duration window;
+
+    /**
+     * The most updates to include in a single commit.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * The default policy.
+     *
+     * @return the default policy
+     */
+    public static GroupCommitPolicy defaults() {
+        return new GroupCommitPolicy(Duration.ZERO, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that keep a latency histogram for each operation and phase, and count the objects inserted, the tree entries
+ * rewritten and the conflicts.
+ *
+ * <p>Cache hit rates are available from {@link GitDB#valueCacheStats()} and {@link GitDB#treeCacheStats()}.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public final class HistogramMetrics implements GitDBMetrics {
+
+    private final Map<Operation, LatencyHistogram> operations = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final Map<String, LongAdder> objects = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> objectBytes = new ConcurrentHashMap<>();
+    private final LongAdder trees = new LongAdder();
+    private final LongAdder treeEntries = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * Create new instance of this class.
+     */
+    public HistogramMetrics() {
+        for (final Operation operation : Operation.values()) {
+            operations.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+        for (final Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void operation(final Operation operation, final long nanos, final boolean success) {
+        operations.get(operation).record(nanos);
+        if (!success) {
+            failures.get(operation).increment();
+        }
+    }
+
+    @Override
+    public void phase(final Phase phase, final long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    @Override
+    public void objectInserted(final String type, final long bytes) {
+        objects.computeIfAbsent(type, t -> new LongAdder()).increment();
+        objectBytes.computeIfAbsent(type, t -> new LongAdder()).add(bytes);
+    }
+
+    @Override
+    public void treeRewritten(final int entries) {
+        trees.increment();
+        treeEntries.add(entries);
+    }
+
+    @Override
+    public void refUpdateConflict(final String branchName) {
+        conflicts.increment();
+    }
+
+    /**
+     * The latencies of the operation.
+     *
+     * @param operation the operation
+     * @return the histogram of latencies
+     */
+    public LatencyHistogram operation(final Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * The number of times the operation has failed.
+     *
+     * @param operation the operation
+     * @return the number of failures
+     */
+    public long failures(final Operation operation) {
+        return failures.get(operation).sum();
+    }
+
+    /**
+     * The latencies of the phase.
+     *
+     * @param phase the phase
+     * @return the histogram of latencies
+     */
+    public LatencyHistogram phase(final Phase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * The number of objects inserted of the type.
+     *
+     * @param type the type of object, i.e. "blob", "tree" or "commit"
+     * @return the number of objects
+     */
+    public long objectsInserted(final String type) {
+        return objects.getOrDefault(type, new LongAdder()).sum();
+    }
+
+    /**
+     * The bytes written for objects of the type, before compression.
+     *
+     * @param type the type of object, i.e. "blob", "tree" or "commit"
+     * @return the number of bytes
+     */
+    public long bytesInserted(final String type) {
+        return objectBytes.getOrDefault(type, new LongAdder()).sum();
+    }
+
+    /**
+     * The number of trees rewritten on the paths to updated keys.
+     *
+     * @return the number of trees
+     */
+    public long treesRewritten() {
+        return trees.sum();
+    }
+
+    /**
+     * The total number of entries within the trees rewritten on the paths to updated keys.
+     *
+     * @return the number of entries
+     */
+    public long treeEntriesRewritten() {
+        return treeEntries.sum();
+    }
+
+    /**
+     * The number of times a branch could not be updated because another writer updated it first.
+     *
+     * @return the number of conflicts
+     */
+    public long refUpdateConflicts() {
+        return conflicts.sum();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+
+import java.util.function.Function;
+
+/**
+ * A key that differs between two states of a GitDB.
+ *
+ * <p>Only the ids of the old and new values are read when the difference is found. The values themselves are read
+ * when asked for.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor
+public final class KeyChange {
+
+    /**
+     * How the key has changed.
+     */
+    public enum Type {
+        /**
+         * The key is new.
+         */
+        ADDED,
+        /**
+         * The key has a different value.
+         */
+        MODIFIED,
+        /**
+         * The key has been removed.
+         */
+        REMOVED
+    }
+
+    /**
+     * How the key has changed.
+     */
+    private final Type type;
+
+    /**
+     * The key.
+     */
+    private final String key;
+
+    /**
+     * The id of the value before the change, or empty if the key was added.
+     */
+    private final Maybe<String> oldValueId;
+
+    /**
+     * The id of the value after the change, or empty if the key was removed.
+     */
+    private final Maybe<String> newValueId;
+
+    @Getter(AccessLevel.NONE)
+    private final Function<String, Result<String>> valueReader;
+
+    /**
+     * Reads the value before the change.
+     *
+     * @return a Maybe containing the old value, or empty if the key was added
+     */
+    public Result<Maybe<String>> oldValue() {
+        return readValue(oldValueId);
+    }
+
+    /**
+     * Reads the value after the change.
+     *
+     * @return a Maybe containing the new value, or empty if the key was removed
+     */
+    public Result<Maybe<String>> newValue() {
+        return readValue(newValueId);
+    }
+
+    private Result<Maybe<String>> readValue(final Maybe<String> valueId) {
+        return Result.swap(valueId.map(valueReader));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, in buckets of powers of two nanoseconds.
+ *
+ * <p>Thread-safe and lock-free. Percentiles are reported as the upper bound of the bucket they fall in, so are
+ * accurate to within a factor of two.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = Long.SIZE;
+    private static final double PERCENT = 100.0;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 1L);
+        buckets.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * The number of latencies recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * The mean of the latencies recorded.
+     *
+     * @return the mean latency, in nanoseconds, or zero if none have been recorded
+     */
+    public double getMeanNanos() {
+        final long recorded = count.sum();
+        if (recorded == 0) {
+            return 0;
+        }
+        return (double) totalNanos.sum() / recorded;
+    }
+
+    /**
+     * The highest latency recorded.
+     *
+     * @return the highest latency, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * The latency that the percentage of the latencies recorded are within.
+     *
+     * @param percentile the percentage, e.g. 99.9
+     * @return the upper bound of the bucket containing the percentile, in nanoseconds, or zero if none have been
+     * recorded
+     */
+    public long percentileNanos(final double percentile) {
+        final long recorded = count.sum();
+        final long rank = (long) Math.ceil(recorded * percentile / PERCENT);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(bucket), getMaxNanos());
+            }
+        }
+        return 0;
+    }
+
+    private static long upperBound(final int bucket) {
+        if (bucket >= BUCKETS - 2) {
+            return Long.MAX_VALUE;
+        }
+        return (2L << bucket) - 1;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.Getter;
+import lombok.With;
+
+import java.time.Duration;
+
+/**
+ * The thresholds and limits for the background maintenance of a GitDB.
+ *
+ * <p>Start from {@link #defaults()} and override individual options with the {@code with} methods. Each option is
+ * checked as it is set, and an invalid value is an {@link IllegalArgumentException}.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+public final class MaintenancePolicy {
+
+    private static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(10);
+    private static final long DEFAULT_LOOSE_OBJECTS = 6_700L;
+    private static final long DEFAULT_PACK_FILES = 50L;
+    private static final long DEFAULT_LOOSE_BYTES = 64L * 1024 * 1024;
+    private static final Duration DEFAULT_PRUNE_GRACE_PERIOD = Duration.ofHours(1);
+    private static final int DEFAULT_THREADS = 1;
+
+    /**
+     * How long to wait between checking whether maintenance is needed. Greater than zero.
+     */
+    private final Duration interval;
+
+    /**
+     * Maintenance runs when there are at least this many loose objects.
+     */
+    private final long looseObjectThreshold;
+
+    /**
+     * Maintenance runs when there are at least this many pack files.
+     */
+    private final long packFileThreshold;
+
+    /**
+     * Maintenance runs when the loose objects use at least this many bytes.
+     */
+    private final long looseBytesThreshold;
+
+    /**
+     * Unreachable objects and packs are only removed once they are older than this, so objects being written by a
+     * commit in progress are never removed. Not negative.
+     */
+    private final Duration pruneGracePeriod;
+
+    /**
+     * Whether to write reachability bitmaps with the repacked objects.
+     */
+    private final boolean writeBitmaps;
+
+    /**
+     * The number of threads a repack may use, limiting its impact on foreground operations. Zero uses one for each
+     * processor.
+     */
+    private final int threads;
+
+    private MaintenancePolicy(
+            final Duration interval,
+            final long looseObjectThreshold,
+            final long packFileThreshold,
+            final long looseBytesThreshold,
+            final Duration pruneGracePeriod,
+            final boolean writeBitmaps,
+            final int threads
+    ) {
+        if (interval == null || interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException(String.format("Invalid maintenance interval [%s]", interval));
+        }
+        if (looseObjectThreshold < 0 || packFileThreshold < 0 || looseBytesThreshold < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid maintenance thresholds: loose objects [%d], pack files [%d], loose bytes [%d]",
+                    looseObjectThreshold, packFileThreshold, looseBytesThreshold));
+        }
+        if (pruneGracePeriod == null || pruneGracePeriod.isNegative()) {
+            throw new IllegalArgumentException(String.format("Invalid prune grace period [%s]", pruneGracePeriod));
+        }
+        if (threads < 0) {
+            throw new IllegalArgumentException(String.format("Invalid maintenance threads [%d]", threads));
+        }
+        this.interval = interval;
+        this.looseObjectThreshold = looseObjectThreshold;
+        this.packFileThreshold = packFileThreshold;
+        this.looseBytesThreshold = looseBytesThreshold;
+        this.pruneGracePeriod = pruneGracePeriod;
+        this.writeBitmaps = writeBitmaps;
+        this.threads = threads;
+    }
+
+    /**
+     * The default policy.
+     *
+     * @return the default policy
+     */
+    public static MaintenancePolicy defaults() {
+        return new MaintenancePolicy(
+                DEFAULT_INTERVAL,
+                DEFAULT_LOOSE_OBJECTS,
+                DEFAULT_PACK_FILES,
+                DEFAULT_LOOSE_BYTES,
+                DEFAULT_PRUNE_GRACE_PERIOD,
+                true,
+                DEFAULT_THREADS);
+    }
+
+}
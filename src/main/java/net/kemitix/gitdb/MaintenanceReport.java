@@ -0,0 +1,87 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * The outcome of a maintenance run.
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor
+public final class MaintenanceReport {
+
+    /**
+     * Whether the objects were repacked and pruned, or the thresholds were not reached.
+     */
+    private final boolean performed;
+
+    /**
+     * The number of loose objects before the run.
+     */
+    private final long looseObjectsBefore;
+
+    /**
+     * The number of loose objects after the run.
+     */
+    private final long looseObjectsAfter;
+
+    /**
+     * The number of pack files before the run.
+     */
+    private final long packFilesBefore;
+
+    /**
+     * The number of pack files after the run.
+     */
+    private final long packFilesAfter;
+
+    /**
+     * The total size in bytes of loose and packed objects before the run.
+     */
+    private final long bytesBefore;
+
+    /**
+     * The total size in bytes of loose and packed objects after the run.
+     */
+    private final long bytesAfter;
+
+    /**
+     * How long the run took.
+     */
+    private final Duration elapsed;
+
+    /**
+     * The number of bytes freed by the run.
+     *
+     * @return the bytes reclaimed, negative if the objects grew
+     */
+    public long reclaimedBytes() {
+        return bytesBefore - bytesAfter;
+    }
+
+}
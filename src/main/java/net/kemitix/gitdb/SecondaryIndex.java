@@ -0,0 +1,84 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * A secondary index of the keys of a branch, by terms extracted from their values.
+ *
+ * <p>The index is kept within the tree of the branch, and is updated in the same commit as the values it indexes, so
+ * it is always consistent with them. Every writer to the branch must declare the same indexes, with
+ * {@link GitDBBranch#withIndex(SecondaryIndex)}, as a value written without the index being declared is not indexed.
+ * </p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SecondaryIndex {
+
+    private static final String INVALID_NAME = "Invalid index name [%s]";
+
+    /**
+     * The name of the index.
+     */
+    private final String name;
+
+    /**
+     * Extracts the terms to index from a value.
+     */
+    private final Function<String, Collection<String>> extractor;
+
+    /**
+     * Creates an index of the keys by each of the terms the extractor finds in their values.
+     *
+     * @param name      the name of the index, which must not be empty or contain a '/'
+     * @param extractor extracts the terms to index from a value
+     * @return the index
+     * @throws IllegalArgumentException if the name is not valid
+     */
+    public static SecondaryIndex of(final String name, final Function<String, Collection<String>> extractor) {
+        if (name.isEmpty() || name.contains("/")) {
+            throw new IllegalArgumentException(String.format(INVALID_NAME, name));
+        }
+        return new SecondaryIndex(name, extractor);
+    }
+
+    /**
+     * Creates an index of the keys by their whole values.
+     *
+     * @param name the name of the index, which must not be empty or contain a '/'
+     * @return the index
+     * @throws IllegalArgumentException if the name is not valid
+     */
+    public static SecondaryIndex byValue(final String name) {
+        return of(name, Collections::singleton);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.With;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * How the repository's pack files are read, and how much of them is cached in memory.
+ *
+ * <p>Start from {@link #defaults()} and override individual options with the {@code with} methods.</p>
+ *
+ * <p>These options configure a cache shared by every repository opened within the JVM, not only the GitDB opened with
+ * them. Opening a GitDB with options other than the defaults replaces the cache, affecting every GitDB and any other
+ * use of JGit in the process, and the options stay in place after the GitDB is closed, until replaced by the options
+ * of the next GitDB to be opened with options other than the defaults. Opening a GitDB with the default options leaves
+ * the cache as it is. JGit does not expose the options in place, so they can't be restored when a GitDB is closed;
+ * set them once, for the whole process.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@With
+@EqualsAndHashCode
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class StorageOptions {
+
+    /**
+     * The number of bytes of a pack file to read, or map, at a time. Must be a power of two.
+     */
+    private final int packedGitWindowSize;
+
+    /**
+     * The total number of bytes of pack files to hold in memory, or mapped.
+     */
+    private final long packedGitLimit;
+
+    /**
+     * Whether pack files are memory-mapped, so they are read from the operating system's page cache rather than
+     * copied into buffers.
+     */
+    private final boolean packedGitMmap;
+
+    /**
+     * The number of pack files to keep open.
+     */
+    private final int packedGitOpenFiles;
+
+    /**
+     * The total number of bytes of inflated delta bases to cache, for reading objects stored as deltas.
+     */
+    private final int deltaBaseCacheLimit;
+
+    /**
+     * Objects larger than this many bytes are never read into memory whole by JGit, only streamed.
+     *
+     * <p>Values smaller than this, but larger than {@link GitDBOptions#getStreamThresholdBytes()}, are still streamed
+     * by {@link GitDBBranch#getStream(String)} without being cached, but may be inflated in memory by JGit first.</p>
+     */
+    private final int streamFileThreshold;
+
+    /**
+     * The default options, as used by JGit.
+     *
+     * @return the default options
+     */
+    public static StorageOptions defaults() {
+        final WindowCacheConfig config = new WindowCacheConfig();
+        return new StorageOptions(
+                config.getPackedGitWindowSize(),
+                config.getPackedGitLimit(),
+                config.isPackedGitMMAP(),
+                config.getPackedGitOpenFiles(),
+                config.getDeltaBaseCacheLimit(),
+                config.getStreamFileThreshold());
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb;
+
+import net.kemitix.mon.maybe.Maybe;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of key updates to be written to a branch as a single commit.
+ *
+ * <p>Where a key is updated more than once, the last update for the key is the one written.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+public final class WriteBatch {
+
+    private final Map<String, Maybe<String>> updates = new LinkedHashMap<>();
+
+    /**
+     * Put a value into the store for the key.
+     *
+     * @param key   the key to place the value under
+     * @param value the value
+     * @return this batch
+     */
+    public WriteBatch put(final String key, final String value) {
+        updates.put(key, Maybe.just(value));
+        return this;
+    }
+
+    /**
+     * Put all the key/value pairs into the store.
+     *
+     * @param entries the key/value pairs
+     * @return this batch
+     */
+    public WriteBatch putAll(final Map<String, String> entries) {
+        entries.forEach(this::put);
+        return this;
+    }
+
+    /**
+     * Removes a key and its value from the store.
+     *
+     * @param key the key to remove
+     * @return this batch
+     */
+    public WriteBatch remove(final String key) {
+        updates.put(key, Maybe.nothing());
+        return this;
+    }
+
+    /**
+     * The updates in this batch.
+     *
+     * @return the value for each key, or nothing where the key is to be removed
+     */
+    public Map<String, Maybe<String>> getUpdates() {
+        return Collections.unmodifiableMap(updates);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.AsyncGitDBBranch;
+import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.WriteBatch;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * An asynchronous view of a branch in the GitDB.
+ *
+ * <p>Updates are chained through the queue shared by every view of the branch, so updates are serialised with those
+ * of other views. Reads are also chained onto the queue, but are independent of each other.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class AsyncGitDBBranchImpl implements AsyncGitDBBranch {
+
+    private final UpdateQueue queue;
+    private final UnaryOperator<GitDBBranch> adopt;
+    private final Executor executor;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param queue    the updates of the branch, shared with its other views
+     * @param adopt    gives the branch, as left by the latest update, the settings of this view
+     * @param executor the executor to run operations on
+     */
+    AsyncGitDBBranchImpl(final UpdateQueue queue, final UnaryOperator<GitDBBranch> adopt, final Executor executor) {
+        this.queue = queue;
+        this.adopt = adopt;
+        this.executor = executor;
+    }
+
+    static <T> CompletableFuture<T> toFuture(final Result<T> result) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        result.match(future::complete, future::completeExceptionally);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> branch() {
+        return queue.latest().thenApply(adopt);
+    }
+
+    @Override
+    public CompletableFuture<Maybe<String>> get(final String key) {
+        return read(branch -> branch.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Maybe<byte[]>> getBytes(final String key) {
+        return read(branch -> branch.getBytes(key));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> put(final String key, final String value) {
+        return update(branch -> branch.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> put(final String key, final byte[] value) {
+        return update(branch -> branch.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> remove(final String key) {
+        return update(branch -> branch.remove(key));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> write(final WriteBatch batch) {
+        return update(branch -> branch.write(batch));
+    }
+
+    private <T> CompletableFuture<T> read(final Function<GitDBBranch, Result<T>> reader) {
+        return branch().thenComposeAsync(branch -> toFuture(reader.apply(branch)), executor);
+    }
+
+    /**
+     * Chains the update after all previously requested updates, from any view of the branch.
+     *
+     * @param updater applies the update to the branch as left by the previous update
+     * @return the updated branch
+     */
+    CompletableFuture<GitDBBranch> update(final Function<GitDBBranch, Result<GitDBBranch>> updater) {
+        return enqueue(branch -> toFuture(updater.apply(branch)));
+    }
+
+    /**
+     * Chains an update that may complete later, after all previously requested updates, from any view of the branch.
+     *
+     * <p>No later update starts until this one has completed.</p>
+     *
+     * @param updater starts the update of the branch as left by the previous update
+     * @return the updated branch
+     */
+    CompletableFuture<GitDBBranch> enqueue(final Function<GitDBBranch, CompletableFuture<GitDBBranch>> updater) {
+        return queue.update(latest -> updater.apply(adopt.apply(latest)), executor);
+    }
+
+}
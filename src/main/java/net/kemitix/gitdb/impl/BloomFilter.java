@@ -0,0 +1,173 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * A Bloom filter over a set of names.
+ *
+ * <p>A name that was added is always reported as possibly present. A name that wasn't is reported as absent, except
+ * for a proportion set by the false positive rate the filter was sized for.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class BloomFilter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX_1 = 0xff51afd7ed558ccdL;
+    private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+    private static final int MIX_SHIFT = 33;
+    private static final int HALF_SHIFT = 32;
+    private static final int WORD_SHIFT = 6;
+    private static final int BYTE_MASK = 0xff;
+    private static final double LN_2 = Math.log(2);
+
+    private final int hashCount;
+    private final long[] bits;
+
+    private BloomFilter(final int hashCount, final long[] bits) {
+        this.hashCount = hashCount;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates a filter of the names.
+     *
+     * @param names             the names
+     * @param falsePositiveRate the proportion of absent names to report as possibly present
+     * @return the filter
+     */
+    static BloomFilter of(final Collection<String> names, final double falsePositiveRate) {
+        final int count = Math.max(1, names.size());
+        final long bitCount = Math.max(Long.SIZE,
+                (long) Math.ceil(-count * Math.log(falsePositiveRate) / (LN_2 * LN_2)));
+        final int hashCount = Math.max(1, (int) Math.round((double) bitCount / count * LN_2));
+        final BloomFilter filter = new BloomFilter(hashCount, new long[(int) ((bitCount + Long.SIZE - 1) >>> WORD_SHIFT)]);
+        names.forEach(filter::add);
+        return filter;
+    }
+
+    private void add(final String name) {
+        final long hash = hash(name);
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = bitIndex(hash, i);
+            bits[(int) (bit >>> WORD_SHIFT)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Whether the name may have been added to the filter.
+     *
+     * @param name the name
+     * @return false if the name was certainly not added, otherwise true
+     */
+    boolean mightContain(final String name) {
+        final long hash = hash(name);
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = bitIndex(hash, i);
+            if ((bits[(int) (bit >>> WORD_SHIFT)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The size of the filter, in bytes.
+     *
+     * @return the size
+     */
+    long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    private long bitIndex(final long hash, final int i) {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> HALF_SHIFT);
+        return Integer.toUnsignedLong(h1 + i * h2) % ((long) bits.length * Long.SIZE);
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the UTF-8 bytes of the name, with a final mix to spread the bits.
+     *
+     * <p>The hash is the same in every JVM, so saved filters remain valid.</p>
+     *
+     * @param name the name
+     * @return the hash
+     */
+    private static long hash(final String name) {
+        long hash = FNV_OFFSET_BASIS;
+        for (final byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & BYTE_MASK;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_1;
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_2;
+        hash ^= hash >>> MIX_SHIFT;
+        return hash;
+    }
+
+    /**
+     * Writes the filter.
+     *
+     * @param out the output to write to
+     * @throws IOException if there is an error writing
+     */
+    void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (final long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in       the input to read from
+     * @param maxBytes the most bytes the filter can take, from what remains of the input
+     * @return the filter
+     * @throws IOException if there is an error reading, or the filter is not valid
+     */
+    static BloomFilter readFrom(final DataInput in, final long maxBytes) throws IOException {
+        final int hashCount = in.readInt();
+        final int words = in.readInt();
+        if (hashCount < 1 || words < 1 || (long) words * Long.BYTES > maxBytes) {
+            throw new IOException(String.format("Invalid bloom filter of [%d] hashes over [%d] words",
+                    hashCount, words));
+        }
+        final long[] bits = new long[words];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(hashCount, bits);
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.BloomFilterOptions;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Bloom filters of the names within trees, keyed by the id of the tree.
+ *
+ * <p>Trees are immutable, so a filter never needs to be invalidated, and remains valid when saved and loaded again
+ * later. Filters are evicted once they have been the least recently used, keeping their total size within the memory
+ * budget.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class BloomFilterCache {
+
+    private static final int MAGIC = 0x47444246;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int ENTRY_HEADER_BYTES = Constants.OBJECT_ID_LENGTH + 2 * Integer.BYTES;
+
+    private final LruCache<ObjectId, BloomFilter> filters;
+    private final double falsePositiveRate;
+    private final boolean enabled;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param options the size and accuracy of the filters
+     */
+    BloomFilterCache(final BloomFilterOptions options) {
+        filters = new LruCache<>(options.getMaxBytes(), BloomFilter::sizeInBytes);
+        falsePositiveRate = options.getFalsePositiveRate();
+        enabled = options.getMaxBytes() > 0;
+    }
+
+    /**
+     * A cache that holds no filters.
+     *
+     * @return the cache
+     */
+    static BloomFilterCache disabled() {
+        return new BloomFilterCache(BloomFilterOptions.defaults());
+    }
+
+    /**
+     * Adds a filter of the names of the entries of the tree.
+     *
+     * @param treeId the tree
+     * @param names  the names of its entries
+     */
+    void add(final ObjectId treeId, final Collection<String> names) {
+        if (enabled) {
+            filters.put(treeId.copy(), BloomFilter.of(names, falsePositiveRate));
+        }
+    }
+
+    /**
+     * Whether the tree may have an entry with the name.
+     *
+     * @param treeId the tree
+     * @param name   the name of the entry
+     * @return false if the filter of the tree excludes the name, otherwise true, including when there is no filter
+     */
+    boolean mightContain(final ObjectId treeId, final String name) {
+        if (!enabled) {
+            return true;
+        }
+        return filters.getIfPresent(treeId)
+                .map(filter -> filter.mightContain(name))
+                .orElse(true);
+    }
+
+    /**
+     * Adds the filters saved in the file, least recently used first.
+     *
+     * <p>The counts and sizes within the file are checked against the size of the file, and none of the filters are
+     * added if any are not valid.</p>
+     *
+     * @param file the file written by {@link #save(Path)}
+     * @return the number of filters read
+     */
+    Result<Integer> load(final Path file) {
+        if (!enabled || !Files.exists(file)) {
+            return Result.ok(0);
+        }
+        return Result.of(() -> {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException("Unrecognised bloom filter file: " + file);
+                }
+                final int count = in.readInt();
+                long remaining = Files.size(file) - HEADER_BYTES;
+                if (count < 0 || (long) count * (ENTRY_HEADER_BYTES + Long.BYTES) > remaining) {
+                    throw new IOException(String.format("Invalid count of bloom filters [%d]: %s", count, file));
+                }
+                final List<Map.Entry<ObjectId, BloomFilter>> entries = new ArrayList<>(count);
+                final byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+                for (int i = 0; i < count; i++) {
+                    in.readFully(id);
+                    final BloomFilter filter = BloomFilter.readFrom(in, remaining - ENTRY_HEADER_BYTES);
+                    remaining -= ENTRY_HEADER_BYTES + filter.sizeInBytes();
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(ObjectId.fromRaw(id), filter));
+                }
+                entries.forEach(entry -> filters.put(entry.getKey(), entry.getValue()));
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Saves the filters to the file, replacing it.
+     *
+     * @param file the file to write
+     * @return the number of filters written
+     */
+    Result<Integer> save(final Path file) {
+        if (!enabled) {
+            return Result.ok(0);
+        }
+        final List<Map.Entry<ObjectId, BloomFilter>> entries = new ArrayList<>();
+        filters.forEach((treeId, filter) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(treeId, filter)));
+        return Result.of(() -> {
+            final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                final byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+                for (final Map.Entry<ObjectId, BloomFilter> entry : entries) {
+                    entry.getKey().copyRawTo(id, 0);
+                    out.write(id);
+                    entry.getValue().writeTo(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return entries.size();
+        });
+    }
+
+}
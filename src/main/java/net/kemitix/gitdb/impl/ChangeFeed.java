@@ -0,0 +1,166 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.BranchUpdate;
+import net.kemitix.gitdb.Subscription;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the updates of a branch to a subscriber.
+ *
+ * <p>Writes within this process are noticed when the ref is stored. Writes by other processes are noticed by
+ * polling the ref. Either way, the writer only raises a flag and is never held up by the subscriber.</p>
+ *
+ * <p>The subscriber is called on a single daemon thread. While it is busy, further writes leave at most one check
+ * pending, and that check delivers a single update from the last head delivered to the current head, so a slow
+ * subscriber receives fewer, larger updates rather than building up a queue.</p>
+ *
+ * <p>An exception thrown by the subscriber is ignored, so that it doesn't stop the polling, and later updates are still
+ * delivered.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class ChangeFeed implements Subscription {
+
+    private static final String THREAD_NAME = "gitdb-change-feed";
+
+    private final Repository repository;
+    private final ValueCache valueCache;
+    private final String branchName;
+    private final String refName;
+    private final Consumer<Result<BranchUpdate>> listener;
+    private final Consumer<ChangeFeed> onClose;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean checkPending = new AtomicBoolean();
+
+    private ListenerHandle listenerHandle;
+    private Maybe<ObjectId> lastHead;
+
+    private ChangeFeed(
+            final Repository repository,
+            final ValueCache valueCache,
+            final String branchName,
+            final Consumer<Result<BranchUpdate>> listener,
+            final Consumer<ChangeFeed> onClose
+    ) {
+        this.repository = repository;
+        this.valueCache = valueCache;
+        this.branchName = branchName;
+        this.listener = listener;
+        this.onClose = onClose;
+        refName = branchName.startsWith(Constants.R_REFS) ? branchName : Constants.R_HEADS + branchName;
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Start delivering the updates of the branch, from its current head.
+     *
+     * @param repository   the Git Repository
+     * @param valueCache   the cache of values, for reading the values of changed keys
+     * @param branchName   the branch to follow
+     * @param pollInterval how often to check for writes by other processes
+     * @param listener     receives each update, or the error if the branch can't be read
+     * @param onClose      told when the subscription is closed
+     * @return the handle to the subscription
+     */
+    static Result<ChangeFeed> start(
+            final Repository repository,
+            final ValueCache valueCache,
+            final String branchName,
+            final Duration pollInterval,
+            final Consumer<Result<BranchUpdate>> listener,
+            final Consumer<ChangeFeed> onClose
+    ) {
+        final ChangeFeed feed = new ChangeFeed(repository, valueCache, branchName, listener, onClose);
+        return feed.readHead().map(head -> {
+            feed.lastHead = head;
+            feed.listenerHandle = repository.getListenerList()
+                    .addRefsChangedListener((RefsChangedListener) event -> feed.signal());
+            final long interval = pollInterval.toMillis();
+            feed.executor.scheduleWithFixedDelay(feed::check, interval, interval, TimeUnit.MILLISECONDS);
+            return feed;
+        });
+    }
+
+    private Result<Maybe<ObjectId>> readHead() {
+        return Result.of(() -> Maybe.maybe(repository.exactRef(refName)).map(Ref::getObjectId));
+    }
+
+    private void signal() {
+        if (checkPending.compareAndSet(false, true)) {
+            executor.execute(this::check);
+        }
+    }
+
+    private void check() {
+        checkPending.set(false);
+        readHead().match(
+                head -> head.filter(this::isNewHead).peek(this::deliver),
+                error -> publish(Result.error(error)));
+    }
+
+    private boolean isNewHead(final ObjectId head) {
+        return !lastHead.filter(head::equals).isJust();
+    }
+
+    private void deliver(final ObjectId head) {
+        final Maybe<ObjectId> from = lastHead;
+        lastHead = Maybe.just(head);
+        publish(Result.ok(new BranchUpdate(branchName, from.map(ObjectId::name), head.name(),
+                () -> new GitTreeDiff(repository, valueCache).changes(from, head))));
+    }
+
+    private void publish(final Result<BranchUpdate> update) {
+        try {
+            listener.accept(update);
+        } catch (RuntimeException e) {
+            // an exception escaping a scheduled check would cancel all later polls
+        }
+    }
+
+    @Override
+    public void close() {
+        listenerHandle.remove();
+        executor.shutdown();
+        onClose.accept(this);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the commit a branch was at at a given time, using an index of the commit times along its history.
+ *
+ * <p>The history of a branch is read once, following the first parent of each commit, then only the commits added
+ * since are read. Each commit takes 24 bytes in the index: its time, in seconds, and its id. Lookups are a binary
+ * search of the times.</p>
+ *
+ * <p>Commit times are usually in order along the history, but a clock that steps back, or commits made by other
+ * tools, can break that order. Each commit is indexed at the latest time of it and of the commits before it, keeping
+ * the indexed times in order, so a commit made before its parent is treated as made at the same time as its
+ * parent.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class CommitTimeIndex {
+
+    private static final int INITIAL_CAPACITY = 1_024;
+
+    private final Repository repository;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param repository the repository to read commits from
+     */
+    CommitTimeIndex(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Finds the commit the branch was at at the given time.
+     *
+     * <p>Only the history up to the head of the given branch is searched.</p>
+     *
+     * @param branchRef the branch
+     * @param instant   the time
+     * @return the latest commit made at or before the time, or nothing if there were no commits by then
+     */
+    Result<Maybe<ObjectId>> findAsOf(final Ref branchRef, final Instant instant) {
+        final History history = histories.computeIfAbsent(branchRef.getName(), name -> new History());
+        return Result.of(() -> history.findAsOf(branchRef.getObjectId(), instant.getEpochSecond()));
+    }
+
+    /**
+     * The commit times and ids along the history of one branch, oldest first.
+     */
+    private final class History {
+
+        private int size;
+        private int[] times = new int[INITIAL_CAPACITY];
+        private byte[] ids = new byte[INITIAL_CAPACITY * Constants.OBJECT_ID_LENGTH];
+
+        synchronized Maybe<ObjectId> findAsOf(final ObjectId head, final long seconds) throws IOException {
+            int limit = positionOf(head);
+            if (limit < 0) {
+                update(head);
+                limit = size - 1;
+            }
+            return latestAtOrBefore(seconds, limit);
+        }
+
+        private int positionOf(final ObjectId commitId) throws IOException {
+            if (size == 0) {
+                return -1;
+            }
+            if (idAt(size - 1).equals(commitId)) {
+                return size - 1;
+            }
+            try (RevWalk revWalk = new RevWalk(repository)) {
+                return positionOf(revWalk, revWalk.parseCommit(commitId));
+            }
+        }
+
+        /**
+         * The position of the commit, found by its time or, where it was made before its parent, by the time of its
+         * nearest ancestor that was indexed at its own time.
+         *
+         * @param revWalk the walk to read the ancestors of the commit with
+         * @param commit  the commit
+         * @return the position, or -1 if the commit is not indexed
+         * @throws IOException if there is an error reading the commits
+         */
+        private int positionOf(final RevWalk revWalk, final RevCommit commit) throws IOException {
+            RevCommit ancestor = commit;
+            int steps = 0;
+            while (true) {
+                final int time = ancestor.getCommitTime();
+                final int position = positionAt(ancestor, time);
+                if (position >= 0) {
+                    final int candidate = position + steps;
+                    return candidate < size && idAt(candidate).equals(commit) ? candidate : -1;
+                }
+                if (time >= times[size - 1] || ancestor.getParentCount() == 0) {
+                    // a commit at or after the latest indexed time would have been indexed at its own time
+                    return -1;
+                }
+                ancestor = revWalk.parseCommit(ancestor.getParent(0));
+                steps++;
+            }
+        }
+
+        private int positionAt(final ObjectId commitId, final int time) {
+            for (int position = firstAfter(time) - 1; position >= 0 && times[position] == time; position--) {
+                if (idAt(position).equals(commitId)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the commits from the last indexed commit up to the new head.
+         *
+         * <p>If the last indexed commit is not found in the history of the new head, then the branch has been
+         * rewritten, and the index is rebuilt from the new head.</p>
+         *
+         * @param head the new head
+         * @throws IOException if there is an error reading the commits
+         */
+        private void update(final ObjectId head) throws IOException {
+            final Maybe<ObjectId> lastIndexed = size == 0 ? Maybe.nothing() : Maybe.just(idAt(size - 1));
+            final List<RevCommit> added = new ArrayList<>();
+            boolean joined = false;
+            try (RevWalk revWalk = new RevWalk(repository)) {
+                revWalk.setRetainBody(false);
+                RevCommit commit = revWalk.parseCommit(head);
+                while (true) {
+                    if (lastIndexed.filter(commit::equals).isJust()) {
+                        joined = true;
+                        break;
+                    }
+                    added.add(commit);
+                    if (commit.getParentCount() == 0) {
+                        break;
+                    }
+                    commit = revWalk.parseCommit(commit.getParent(0));
+                }
+            }
+            if (!joined) {
+                size = 0;
+            }
+            ensureCapacity(size + added.size());
+            for (int i = added.size() - 1; i >= 0; i--) {
+                final RevCommit commit = added.get(i);
+                times[size] = size == 0 ? commit.getCommitTime() : Math.max(commit.getCommitTime(), times[size - 1]);
+                commit.copyRawTo(ids, size * Constants.OBJECT_ID_LENGTH);
+                size++;
+            }
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > times.length) {
+                final int grown = Math.max(capacity, times.length * 2);
+                times = Arrays.copyOf(times, grown);
+                ids = Arrays.copyOf(ids, grown * Constants.OBJECT_ID_LENGTH);
+            }
+        }
+
+        private Maybe<ObjectId> latestAtOrBefore(final long seconds, final int limit) {
+            final int position = Math.min(firstAfter(seconds), limit + 1) - 1;
+            if (position < 0) {
+                return Maybe.nothing();
+            }
+            return Maybe.just(idAt(position));
+        }
+
+        /**
+         * The position of the first commit made after the time.
+         *
+         * @param seconds the time
+         * @return the position, or the size of the index if there are none
+         */
+        private int firstAfter(final long seconds) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (times[middle] <= seconds) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private ObjectId idAt(final int position) {
+            return ObjectId.fromRaw(ids, position * Constants.OBJECT_ID_LENGTH);
+        }
+    }
+
+}
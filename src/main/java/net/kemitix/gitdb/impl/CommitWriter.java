@@ -24,6 +24,10 @@ package net.kemitix.gitdb.impl;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.*;
 
+import static net.kemitix.conditional.Condition.where;
+
+import java.util.function.Supplier;
+
 /**
  * Commits Key/Value updates into the Git Repository.
  *
@@ -31,20 +35,22 @@ import org.eclipse.jgit.lib.*;
  */
 class CommitWriter {
 
-    private final ObjectInserter objectInserter;
+    private final Supplier<ObjectInserter> objectInserter;
 
     /**
      * Create new instance of this class.
      *
-     * @param repository the repository to write commits to
+     * @param objectInserter supplies the inserter to write commits with
      */
-    CommitWriter(final Repository repository) {
-        objectInserter = repository.getObjectDatabase().newInserter();
+    CommitWriter(final Supplier<ObjectInserter> objectInserter) {
+        this.objectInserter = objectInserter;
     }
 
     /**
      * Write a commit into the repository.
      *
+     * <p>A zero parent id writes a root commit, with no parent.</p>
+     *
      * @param treeId           the tree to commit
      * @param parentId         the id of the parent commit
      * @param message          the message
@@ -65,8 +71,9 @@ class CommitWriter {
         final PersonIdent ident = new PersonIdent(userName, userEmailAddress);
         commitBuilder.setAuthor(ident);
         commitBuilder.setCommitter(ident);
-        commitBuilder.setParentId(parentId);
-        return Result.of(() -> objectInserter.insert(commitBuilder));
+        where(!ObjectId.zeroId().equals(parentId))
+                .then(() -> commitBuilder.setParentId(parentId));
+        return Result.of(() -> objectInserter.get().insert(commitBuilder));
     }
 
     /**
@@ -24,14 +24,37 @@ package net.kemitix.gitdb.impl;
 import com.github.zafarkhaja.semver.Version;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
+import net.kemitix.gitdb.AsyncGitDBBranch;
+import net.kemitix.gitdb.Compression;
 import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GitDBMetrics.Operation;
+import net.kemitix.gitdb.GitDBSnapshot;
+import net.kemitix.gitdb.GroupCommitPolicy;
+import net.kemitix.gitdb.SecondaryIndex;
+import net.kemitix.gitdb.ValueStreamWriter;
+import net.kemitix.gitdb.WriteBatch;
 import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.Repository;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * API for interacting with a branch in a GitDB.
@@ -41,36 +64,107 @@ import java.util.function.Function;
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 class GitDBBranchImpl implements GitDBBranch {
 
-    private static final String KEY_PREFIX = "key:";
+    static final String KEY_PREFIX = "key:";
+    private static final int BUFFER_SIZE = 8192;
+    private static final Supplier<String> UNINDEXED = () -> {
+        throw new IllegalStateException("Value is not available for indexing");
+    };
+    private static final String GIT_DB_VERSION = "GitDB.Version";
     private final Ref branchRef;
     private final GitDBRepo gitDBRepo;
+    private final TreeLayout treeLayout;
     private final String userName;
     private final String userEmailAddress;
     private final String name;
+    private final boolean readOnly;
+    private final SecondaryIndexes indexes;
+    private final Compression compression;
 
     /**
      * Initialise the creation of new GitDBBranch instances.
      *
-     * @param repository       the Git Repository
+     * @param gitDBRepo        the repository, shared by all branches
      * @param userName         the user name to record against changes
      * @param userEmailAddress the user's email address to record against changes
      * @return a Function for creating a GitDBBranch when supplied with a Ref for a branch
      */
     static Function<Ref, Result<GitDBBranch>> init(
-            final Repository repository,
+            final GitDBRepo gitDBRepo,
             final String userName,
             final String userEmailAddress
     ) {
-        return ref -> select(ref, new GitDBRepo(repository), userName, userEmailAddress);
+        return ref -> readFormatVersion(gitDBRepo, ref)
+                .map(TreeLayout::forVersion)
+                .flatMap(layout -> select(ref, gitDBRepo, layout, userName, userEmailAddress));
     }
 
     private static Result<GitDBBranch> select(
             final Ref branchRef,
             final GitDBRepo gitDBRepo,
+            final TreeLayout treeLayout,
             final String userName,
             final String userEmailAddress
     ) {
-        return Result.ok(new GitDBBranchImpl(branchRef, gitDBRepo, userName, userEmailAddress, branchRef.getName()));
+        return Result.ok(new GitDBBranchImpl(branchRef, gitDBRepo, treeLayout, userName, userEmailAddress,
+                branchRef.getName(), false, SecondaryIndexes.none(treeLayout), gitDBRepo.compression()));
+    }
+
+    /**
+     * A read-only view of the branch as it was at the commit.
+     *
+     * <p>The layout of the view is read from the commit, as it may predate a migration of the branch.</p>
+     *
+     * @param commitId the commit
+     * @return the view of the branch
+     */
+    private Result<GitDBBranch> view(final ObjectId commitId) {
+        final Ref ref = new ObjectIdRef.PeeledNonTag(Ref.Storage.LOOSE, name, commitId);
+        return readFormatVersion(gitDBRepo, ref)
+                .map(TreeLayout::forVersion)
+                .map(layout -> new GitDBBranchImpl(ref, gitDBRepo, layout, userName, userEmailAddress, name, true,
+                        indexes.withLayout(layout), compression));
+    }
+
+    private <T> Result<T> checkWritable(final Supplier<Result<T>> write) {
+        if (readOnly) {
+            return Result.error(new UnsupportedOperationException(String.format(
+                    "Read-only view of branch [%s] at [%s]", name, branchRef.getObjectId().name())));
+        }
+        return gitDBRepo.writeOperation(write);
+    }
+
+    private static Result<Maybe<Version>> readFormatVersion(final GitDBRepo gitDBRepo, final Ref branchRef) {
+        return gitDBRepo.readValue(branchRef, GIT_DB_VERSION)
+                .map(version -> version.map(Version::valueOf));
+    }
+
+    private String keyPath(final String key) {
+        return treeLayout.path(KEY_PREFIX + key);
+    }
+
+    /**
+     * Performs the operation only if every key can be stored as the name of a single tree entry.
+     *
+     * <p>A key containing a '/' would be split across trees, and one containing a NUL would end its tree entry
+     * early, so either is an error.</p>
+     *
+     * @param keys      the keys the operation uses
+     * @param operation the operation
+     * @param <T>       the type of the result of the operation
+     * @return the result of the operation, or an error if any key is invalid
+     */
+    static <T> Result<T> whenValidKeys(final Collection<String> keys, final Supplier<Result<T>> operation) {
+        for (final String key : keys) {
+            if (!isValidName(key)) {
+                return Result.error(new IllegalArgumentException(String.format(
+                        "Invalid key [%s]: may not contain '/' or NUL", key)));
+            }
+        }
+        return operation.get();
+    }
+
+    private static boolean isValidName(final String name) {
+        return name.indexOf('/') < 0 && name.indexOf('\u0000') < 0;
     }
 
     @Override
@@ -80,41 +174,434 @@ class GitDBBranchImpl implements GitDBBranch {
 
     @Override
     public Result<Maybe<String>> get(final String key) {
-        return gitDBRepo.readValue(branchRef, KEY_PREFIX + key);
+        return whenValidKeys(Collections.singleton(key), () -> Metered.operation(gitDBRepo.metrics(), Operation.GET,
+                () -> gitDBRepo.readValue(branchRef, keyPath(key))));
+    }
+
+    @Override
+    public Result<Map<String, String>> getAll(final Collection<String> keys) {
+        return whenValidKeys(keys, () -> {
+            final Map<String, String> keysByPath = new HashMap<>();
+            keys.forEach(key -> keysByPath.put(keyPath(key), key));
+            return Metered.operation(gitDBRepo.metrics(), Operation.GET_ALL, () ->
+                    gitDBRepo.readValues(branchRef, keysByPath.keySet()))
+                    .map(values -> {
+                        final Map<String, String> found = new HashMap<>();
+                        values.forEach((path, value) -> found.put(keysByPath.get(path), value));
+                        return found;
+                    });
+        });
+    }
+
+    @Override
+    public Result<Maybe<byte[]>> getBytes(final String key) {
+        return whenValidKeys(Collections.singleton(key), () -> Metered.operation(gitDBRepo.metrics(), Operation.GET,
+                () -> gitDBRepo.readBytes(branchRef, keyPath(key))));
+    }
+
+    @Override
+    public Result<Maybe<ByteBuffer>> getByteBuffer(final String key) {
+        return getBytes(key)
+                .map(value -> value.map(bytes -> ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+    }
+
+    @Override
+    public Result<Maybe<InputStream>> getStream(final String key) {
+        return whenValidKeys(Collections.singleton(key), () -> Metered.operation(gitDBRepo.metrics(), Operation.GET,
+                () -> gitDBRepo.readStream(branchRef, keyPath(key))));
+    }
+
+    @Override
+    public Result<String> commitId() {
+        return Result.ok(branchRef.getObjectId().name());
+    }
+
+    @Override
+    public Result<GitDBBranch> at(final String commitId) {
+        return Result.of(() -> ObjectId.fromString(commitId))
+                .flatMap(this::view);
+    }
+
+    @Override
+    public Result<Maybe<GitDBBranch>> asOf(final Instant instant) {
+        return Result.flatMapMaybe(gitDBRepo.findCommitAsOf(branchRef, instant),
+                commitId -> Result.swap(commitId.map(this::view)));
+    }
+
+    @Override
+    public Result<Maybe<String>> getAt(final String key, final String commitId) {
+        return at(commitId).flatMap(view -> view.get(key));
+    }
+
+    @Override
+    public Result<Maybe<String>> getAsOf(final String key, final Instant instant) {
+        return Result.flatMapMaybe(asOf(instant), view -> view.matchValue(
+                branch -> branch.get(key),
+                () -> Result.ok(Maybe.nothing())));
+    }
+
+    @Override
+    public Result<GitDBSnapshot> snapshot() {
+        return gitDBRepo.openSnapshot(branchRef, this::keyPath);
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> entries() {
+        return gitDBRepo.entries(branchRef)
+                .map(blobs -> blobs
+                        .filter(blob -> blob.getName().startsWith(KEY_PREFIX))
+                        .map(blob -> new AbstractMap.SimpleImmutableEntry<>(
+                                blob.getName().substring(KEY_PREFIX.length()),
+                                blob.blobAsString().orElseThrowUnchecked())));
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> scan(final String prefix) {
+        return scan(prefix, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> scan(final String prefix, final int limit) {
+        return findEntries(NameRange.prefix(KEY_PREFIX + prefix), limit);
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> range(final String fromInclusive, final String toExclusive) {
+        return range(fromInclusive, toExclusive, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> range(
+            final String fromInclusive,
+            final String toExclusive,
+            final int limit
+    ) {
+        return findEntries(NameRange.between(KEY_PREFIX + fromInclusive, KEY_PREFIX + toExclusive), limit);
+    }
+
+    private Result<Stream<Map.Entry<String, String>>> findEntries(final NameRange names, final int limit) {
+        return Metered.operation(gitDBRepo.metrics(), Operation.SCAN, () ->
+                gitDBRepo.findValues(branchRef, names, limit))
+                .map(values -> values.entrySet().stream()
+                        .<Map.Entry<String, String>>map(value -> new AbstractMap.SimpleImmutableEntry<>(
+                                value.getKey().substring(KEY_PREFIX.length()),
+                                gitDBRepo.readValue(value.getKey(), value.getValue()).orElseThrowUnchecked())));
+    }
+
+    @Override
+    public GitDBBranch withCompression(final Compression valueCompression) {
+        return new GitDBBranchImpl(branchRef, gitDBRepo, treeLayout, userName, userEmailAddress, name, readOnly,
+                indexes, valueCompression);
+    }
+
+    @Override
+    public Result<GitDBBranch> withIndex(final SecondaryIndex index) {
+        if (!isValidName(index.getName())) {
+            return Result.error(new IllegalArgumentException(String.format(
+                    "Invalid index name [%s]: may not contain '/' or NUL", index.getName())));
+        }
+        final GitDBBranchImpl indexed = new GitDBBranchImpl(branchRef, gitDBRepo, treeLayout, userName,
+                userEmailAddress, name, readOnly, indexes.with(index), compression);
+        if (readOnly) {
+            return Result.ok(indexed);
+        }
+        final String markerPath = SecondaryIndexes.markerPath(index.getName());
+        return gitDBRepo.readValue(branchRef, markerPath)
+                .flatMap(marker -> {
+                    if (marker.isJust()) {
+                        return Result.ok(indexed);
+                    }
+                    final String message = String.format("Build index [%s]", index.getName());
+                    return gitDBRepo.writeOperation(() ->
+                            indexed.commitUpdate(message, ref -> indexed.buildIndex(ref, index.getName(), markerPath)));
+                });
+    }
+
+    /**
+     * Creates the tree with the index built from every value in the branch.
+     *
+     * @param ref        the branch to build the index on
+     * @param indexName  the name of the index
+     * @param markerPath the path of the blob marking the index as built
+     * @return the id of the updated tree
+     */
+    private Result<Maybe<ObjectId>> buildIndex(final Ref ref, final String indexName, final String markerPath) {
+        return gitDBRepo.writeBlob(indexName.getBytes(StandardCharsets.UTF_8))
+                .flatMap(markerId -> gitDBRepo.entries(ref).flatMap(blobs -> Result.of(() -> {
+                    final Map<String, Maybe<ValueId>> updates = new HashMap<>();
+                    updates.put(markerPath, Maybe.just(markerId));
+                    try (Stream<NamedRevBlob> keys = blobs.filter(blob -> blob.getName().startsWith(KEY_PREFIX))) {
+                        for (final NamedRevBlob blob : (Iterable<NamedRevBlob>) keys::iterator) {
+                            indexes.addEntries(updates, indexName, blob.getName().substring(KEY_PREFIX.length()),
+                                    blob.getValueId(), blob.blobAsString().orElseThrow());
+                        }
+                    }
+                    return updates;
+                })))
+                .flatMap(updates -> gitDBRepo.writeKeys(ref, updates));
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> findByIndex(final String indexName, final String term) {
+        final String prefix = SecondaryIndexes.ENTRY_PREFIX;
+        return isIndexBuilt(indexName)
+                .flatMap(built -> {
+                    if (!built) {
+                        return Result.error(new IllegalArgumentException(
+                                String.format("Unknown index [%s]", indexName)));
+                    }
+                    return Metered.operation(gitDBRepo.metrics(), Operation.SCAN, () ->
+                            gitDBRepo.findValues(branchRef, indexes.termPath(indexName, term),
+                                    NameRange.prefix(prefix), Integer.MAX_VALUE));
+                })
+                .map(values -> values.entrySet().stream()
+                        .<Map.Entry<String, String>>map(value -> new AbstractMap.SimpleImmutableEntry<>(
+                                value.getKey().substring(prefix.length()),
+                                gitDBRepo.readValue(value.getKey(), value.getValue()).orElseThrowUnchecked())));
     }
 
     @Override
     public Result<GitDBBranch> put(final String key, final String value) {
         final String message = String.format("Add key [%s] = [%s]", key, value);
-        return gitDBRepo.writeValue(branchRef, KEY_PREFIX + key, value)
-                .flatMap(nt -> gitDBRepo.writeCommit(branchRef, nt, message, userName, userEmailAddress))
-                .flatMap(nb -> select(nb, gitDBRepo, userName, userEmailAddress));
+        return putBlob(key, message, () -> gitDBRepo.writeBlob(value.getBytes(StandardCharsets.UTF_8), compression),
+                () -> value);
+    }
+
+    @Override
+    public Result<GitDBBranch> put(final String key, final byte[] value) {
+        final String message = String.format("Add key [%s] = [%d bytes]", key, value.length);
+        return putBlob(key, message, () -> gitDBRepo.writeBlob(value, compression),
+                () -> new String(value, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Result<GitDBBranch> put(final String key, final ByteBuffer value) {
+        final byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return put(key, bytes);
+    }
+
+    @Override
+    public Result<GitDBBranch> put(final String key, final InputStream value, final long length) {
+        if (!indexes.isEmpty()) {
+            // the whole value is needed to extract its terms
+            return Result.of(() -> readFully(value, length))
+                    .flatMap(bytes -> put(key, bytes));
+        }
+        final String message = String.format("Add key [%s] = [%d bytes]", key, length);
+        return putBlob(key, message, () -> gitDBRepo.writeBlob(value, length, compression), UNINDEXED);
+    }
+
+    @Override
+    public Result<GitDBBranch> put(final String key, final ValueStreamWriter writer) {
+        if (!indexes.isEmpty()) {
+            // the whole value is needed to extract its terms
+            return Result.of(() -> {
+                final ByteArrayOutputStream value = new ByteArrayOutputStream();
+                writer.write(value);
+                return value.toByteArray();
+            }).flatMap(bytes -> put(key, bytes));
+        }
+        final String message = String.format("Add key [%s] = [stream]", key);
+        return putBlob(key, message, () -> gitDBRepo.writeBlob(writer, compression), UNINDEXED);
+    }
+
+    private Result<GitDBBranch> putBlob(
+            final String key,
+            final String message,
+            final Supplier<Result<ValueId>> blobWriter,
+            final Supplier<String> value
+    ) {
+        return whenValidKeys(Collections.singleton(key), () -> checkWritable(() ->
+                Metered.operation(gitDBRepo.metrics(), Operation.PUT, () ->
+                        blobWriter.get().flatMap(valueId -> commitUpdate(message, indexes.isEmpty()
+                                ? ref -> gitDBRepo.writeKey(ref, keyPath(key), valueId)
+                                : indexedUpdate(Collections.singletonMap(key, Maybe.just(valueId)),
+                                Collections.singletonMap(key, value.get())))))));
+    }
+
+    private static byte[] readFully(final InputStream value, final long length) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE));
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = value.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException(String.format("Value ended after [%d] of [%d] bytes",
+                        length - remaining, length));
+            }
+            bytes.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates the tree for the updates to the keys, with the entries of the indexes updated to match.
+     *
+     * <p>The previous values of the keys are read from the branch the update is applied to, so the indexes remain
+     * consistent when the update is reapplied to a newer head of the branch.</p>
+     *
+     * @param valueIds the id of the new value for each key, or nothing where the key is to be removed
+     * @param values   the new value for each key not being removed
+     * @return creates the tree for the update, starting from the given branch
+     */
+    private Function<Ref, Result<Maybe<ObjectId>>> indexedUpdate(
+            final Map<String, Maybe<ValueId>> valueIds,
+            final Map<String, String> values
+    ) {
+        final Map<String, String> keysByPath = new HashMap<>();
+        valueIds.keySet().forEach(key -> keysByPath.put(keyPath(key), key));
+        return ref -> gitDBRepo.readValues(ref, keysByPath.keySet())
+                .map(oldValues -> {
+                    final Map<String, Maybe<ValueId>> updates = new HashMap<>();
+                    keysByPath.forEach((path, key) -> {
+                        updates.put(path, valueIds.get(key));
+                        indexes.addUpdates(updates, key, Maybe.maybe(oldValues.get(path)), valueIds.get(key),
+                                Maybe.maybe(values.get(key)));
+                    });
+                    return updates;
+                })
+                .flatMap(updates -> gitDBRepo.writeKeys(ref, updates));
     }
 
     @Override
     public Result<GitDBBranch> remove(final String key) {
-        return gitDBRepo.removeKey(branchRef, KEY_PREFIX + key).flatMap(treeId ->
-                writeRemoveKeyCommit(key, treeId)
-                        .map(selectUpdatedBranch())
-                        .orElse(Result.ok(this)));
+        final String message = String.format("Remove Key [%s]", key);
+        return whenValidKeys(Collections.singleton(key), () -> checkWritable(() ->
+                Metered.operation(gitDBRepo.metrics(), Operation.REMOVE, () ->
+                        commitUpdate(message, indexes.isEmpty()
+                                ? ref -> gitDBRepo.removeKey(ref, keyPath(key))
+                                : indexedUpdate(Collections.singletonMap(key, Maybe.nothing()),
+                                Collections.emptyMap())))));
     }
 
-    private Maybe<Result<Ref>> writeRemoveKeyCommit(final String key, final Maybe<ObjectId> idMaybe) {
-        return idMaybe.map(objectId -> {
-            final String message = String.format("Remove Key [%s]", key);
-            return gitDBRepo.writeCommit(branchRef, objectId, message, userName, userEmailAddress);
+    @Override
+    public Result<GitDBBranch> putAll(final Map<String, String> entries) {
+        return write(new WriteBatch().putAll(entries));
+    }
+
+    @Override
+    public Result<GitDBBranch> write(final WriteBatch batch) {
+        return whenValidKeys(batch.getUpdates().keySet(), () -> {
+            final Map<String, Maybe<String>> updates = new HashMap<>();
+            batch.getUpdates().forEach((key, value) -> updates.put(keyPath(key), value));
+            final String message = String.format("Update [%d] keys", updates.size());
+            return checkWritable(() -> Metered.operation(gitDBRepo.metrics(), Operation.WRITE, () ->
+                    gitDBRepo.writeBlobs(updates, compression)
+                            .flatMap(valueIds -> commitUpdate(message, indexes.isEmpty()
+                                    ? ref -> gitDBRepo.writeKeys(ref, valueIds)
+                                    : indexedUpdate(byKey(batch, valueIds), presentValues(batch))))));
         });
     }
 
-    private Function<Result<Ref>, Result<GitDBBranch>> selectUpdatedBranch() {
-        return refResult -> refResult.flatMap(ref ->
-                select(ref, gitDBRepo, userName, userEmailAddress));
+    private Map<String, Maybe<ValueId>> byKey(final WriteBatch batch, final Map<String, Maybe<ValueId>> byPath) {
+        final Map<String, Maybe<ValueId>> valueIds = new HashMap<>();
+        batch.getUpdates().keySet().forEach(key -> valueIds.put(key, byPath.get(keyPath(key))));
+        return valueIds;
+    }
+
+    private static Map<String, String> presentValues(final WriteBatch batch) {
+        final Map<String, String> values = new HashMap<>();
+        batch.getUpdates().forEach((key, value) -> value.peek(v -> values.put(key, v)));
+        return values;
+    }
+
+    /**
+     * Whether the index has been declared on this branch, or built on the branch by another.
+     *
+     * @param indexName the name of the index
+     * @return true if the index can be queried
+     */
+    private Result<Boolean> isIndexBuilt(final String indexName) {
+        if (indexes.contains(indexName)) {
+            return Result.ok(true);
+        }
+        return gitDBRepo.readValue(branchRef, SecondaryIndexes.markerPath(indexName))
+                .map(Maybe::isJust);
+    }
+
+    /**
+     * Checks that every index built on the branch has been declared, so will be kept up to date by a write.
+     *
+     * @param ref the branch to be written to
+     * @return the branch, or an error if an index built on it has not been declared
+     */
+    private Result<Ref> maintainsIndexes(final Ref ref) {
+        return gitDBRepo.indexNames(ref)
+                .flatMap(built -> built.stream()
+                        .filter(indexName -> !indexes.contains(indexName))
+                        .findFirst()
+                        .<Result<Ref>>map(indexName -> Result.error(new IllegalStateException(String.format(
+                                "Branch has index [%s], which must be declared with withIndex before writing",
+                                indexName))))
+                        .orElseGet(() -> Result.ok(ref)));
+    }
+
+    /**
+     * Applies the update to the branch and commits it.
+     *
+     * <p>The update may be applied more than once, to a newer head of the branch, if another writer updates the
+     * branch first. Each time, the branch is first checked for indexes this branch does not maintain.</p>
+     *
+     * @param message the commit message
+     * @param update  creates the tree for the update, starting from the given branch
+     * @return the updated branch, or this branch if there were no changes
+     */
+    private Result<GitDBBranch> commitUpdate(
+            final String message,
+            final Function<Ref, Result<Maybe<ObjectId>>> update
+    ) {
+        return gitDBRepo.updateBranch(branchRef, ref -> maintainsIndexes(ref).flatMap(update), message, userName,
+                userEmailAddress)
+                .flatMap(ref -> {
+                    if (ref.getObjectId().equals(branchRef.getObjectId())) {
+                        return Result.ok(this);
+                    }
+                    return Result.ok(new GitDBBranchImpl(ref, gitDBRepo, treeLayout, userName, userEmailAddress,
+                            name, false, indexes, compression));
+                });
     }
 
     @Override
     public Result<Maybe<Version>> getFormatVersion() {
-        return gitDBRepo.readValue(branchRef, "GitDB.Version")
-                .map(version -> version.map(Version::valueOf));
+        return readFormatVersion(gitDBRepo, branchRef);
+    }
+
+    @Override
+    public AsyncGitDBBranch async(final Executor executor) {
+        return new AsyncGitDBBranchImpl(updateQueue(), this::adopt, executor);
+    }
+
+    @Override
+    public AsyncGitDBBranch async(final Executor executor, final GroupCommitPolicy policy) {
+        return new GroupCommitBranchImpl(updateQueue(), this::adopt, executor, policy);
+    }
+
+    /**
+     * The queue of asynchronous updates to the branch, shared by all its views within the GitDB.
+     *
+     * <p>A read-only view of a past commit is given a queue of its own, so that it stays at that commit.</p>
+     *
+     * @return the queue
+     */
+    private UpdateQueue updateQueue() {
+        if (readOnly) {
+            return new UpdateQueue(this);
+        }
+        return gitDBRepo.updateQueue(name, this);
+    }
+
+    /**
+     * The branch at the head of the other, with the indexes and compression of this one.
+     *
+     * @param latest the branch as left by the latest update, from any view of the branch
+     * @return the branch
+     */
+    private GitDBBranch adopt(final GitDBBranch latest) {
+        final GitDBBranchImpl branch = (GitDBBranchImpl) latest;
+        return new GitDBBranchImpl(branch.branchRef, gitDBRepo, branch.treeLayout, userName, userEmailAddress, name,
+                readOnly, indexes.withLayout(branch.treeLayout), compression);
     }
 
 }
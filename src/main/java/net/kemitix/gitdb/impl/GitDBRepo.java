@@ -21,13 +21,35 @@
 
 package net.kemitix.gitdb.impl;
 
+import net.kemitix.gitdb.BranchConflictException;
+import net.kemitix.gitdb.Compression;
+import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.gitdb.GitDBMetrics.Phase;
+import net.kemitix.gitdb.GitDBOptions;
+import net.kemitix.gitdb.GitDBSnapshot;
+import net.kemitix.gitdb.ValueStreamWriter;
 import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.CheckedErrorResultException;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -37,27 +59,113 @@ import java.util.stream.Stream;
  */
 class GitDBRepo {
 
+    private static final int MAX_BACK_OFF_SHIFT = 6;
+
     private final Repository repository;
+    private final ObjectResources resources;
     private final ValueWriter valueWriter;
     private final KeyWriter keyWriter;
     private final CommitWriter commitWriter;
     private final KeyRemover keyRemover;
     private final HeadWriter headWriter;
+    private final Map<String, UpdateQueue> updateQueues = new ConcurrentHashMap<>();
+    private final TreeIndexCache treeIndexCache;
+    private final ValueCache valueCache;
+    private final CommitTimeIndex commitTimeIndex;
+    private final int commitRetries;
+    private final GitDBMetrics metrics;
+    private final Compression compression;
 
     /**
-     * Creates a new instance of this class.
+     * Creates a new instance of this class, with caches of its own.
      *
      * @param repository the Git Repository
+     * @param resources  the inserters and readers to use
      */
-    GitDBRepo(final Repository repository) {
+    GitDBRepo(final Repository repository, final ObjectResources resources) {
+        this(repository, resources,
+                new TreeIndexCache(resources, GitDBOptions.defaults().getTreeCacheEntries()),
+                new ValueCache(resources, GitDBOptions.defaults().getValueCacheBytes(),
+                        GitDBOptions.defaults().getStreamThresholdBytes()),
+                new CommitTimeIndex(repository),
+                GitDBOptions.defaults());
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param repository      the Git Repository
+     * @param resources       the inserters and readers, shared with other branches of the repository
+     * @param treeIndexCache  the cache of tree entries, shared with other branches of the repository
+     * @param valueCache      the cache of values, shared with other branches of the repository
+     * @param commitTimeIndex the index of commit times, shared with other branches of the repository
+     * @param options         the options the GitDB was opened with
+     */
+    GitDBRepo(
+            final Repository repository,
+            final ObjectResources resources,
+            final TreeIndexCache treeIndexCache,
+            final ValueCache valueCache,
+            final CommitTimeIndex commitTimeIndex,
+            final GitDBOptions options
+    ) {
         this.repository = repository;
-        valueWriter = new ValueWriter(repository);
-        keyWriter = new KeyWriter(repository);
-        commitWriter = new CommitWriter(repository);
-        keyRemover = new KeyRemover(repository);
+        this.resources = resources;
+        this.treeIndexCache = treeIndexCache;
+        this.valueCache = valueCache;
+        this.commitTimeIndex = commitTimeIndex;
+        commitRetries = options.getCommitRetries();
+        metrics = options.getMetrics();
+        compression = options.getCompression();
+        valueWriter = new ValueWriter(resources::inserter, new ValueChunker(options.getChunkingOptions()));
+        keyWriter = new KeyWriter(resources::inserter, metrics);
+        commitWriter = new CommitWriter(resources::inserter);
+        keyRemover = new KeyRemover(resources::inserter, metrics);
         headWriter = new HeadWriter(repository);
     }
 
+    /**
+     * Performs the write operation, with inserters of its own that are released when it ends.
+     *
+     * <p>Objects it inserts but does not commit, including any left when it fails, are discarded.</p>
+     *
+     * @param operation the write operation
+     * @param <T>       the type of the result of the operation
+     * @return the result of the operation
+     */
+    <T> Result<T> writeOperation(final Supplier<Result<T>> operation) {
+        return resources.write(operation);
+    }
+
+    /**
+     * The queue of asynchronous updates to the branch, shared by every view of it from the GitDB.
+     *
+     * @param branchName the name of the branch
+     * @param branch     the branch to start the queue from, where there isn't one already
+     * @return the queue
+     */
+    UpdateQueue updateQueue(final String branchName, final GitDBBranch branch) {
+        return updateQueues.computeIfAbsent(branchName, x -> new UpdateQueue(branch));
+    }
+
+    /**
+     * The metrics to report operations to.
+     *
+     * @return the metrics
+     */
+    GitDBMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * How values are compressed, unless a branch has been given other compression.
+     *
+     * @return the compression
+     */
+    Compression compression() {
+        return compression;
+    }
+
     /**
      * Insert a new, empty tree into the store, returning its unique id.
      *
@@ -67,52 +175,367 @@ class GitDBRepo {
      */
     Result<ObjectId> insertNewTree(
             final String key,
-            final ObjectId valueId
+            final ValueId valueId
     ) {
-        return keyWriter.writeFirst(key, valueId);
+        return Metered.phase(metrics, Phase.KEY_WRITER, () -> keyWriter.writeFirst(key, valueId));
+    }
+
+    /**
+     * Insert a blob into the store, returning its unique id.
+     *
+     * @param blob the content of the blob
+     * @return the id of the blob
+     */
+    Result<ValueId> writeBlob(final byte[] blob) {
+        return writeBlob(blob, compression);
+    }
+
+    /**
+     * Insert a blob into the store, compressed as given, returning its unique id.
+     *
+     * @param blob            the content of the blob
+     * @param blobCompression how to compress the blob
+     * @return the id of the blob
+     */
+    Result<ValueId> writeBlob(final byte[] blob, final Compression blobCompression) {
+        return Metered.phase(metrics, Phase.VALUE_WRITER, () -> valueWriter.write(blob, blobCompression));
+    }
+
+    /**
+     * Insert a blob into the store, streaming it from the input stream, returning its unique id.
+     *
+     * @param inputStream     the stream to read the content of the blob from
+     * @param length          the number of bytes to read from the stream
+     * @param blobCompression how to compress the blob
+     * @return the id of the blob
+     */
+    Result<ValueId> writeBlob(final InputStream inputStream, final long length, final Compression blobCompression) {
+        return Metered.phase(metrics, Phase.VALUE_WRITER, () ->
+                valueWriter.write(inputStream, length, blobCompression));
+    }
+
+    /**
+     * Insert a blob into the store, as written by the writer, returning its unique id.
+     *
+     * @param writer          writes the content of the blob
+     * @param blobCompression how to compress the blob
+     * @return the id of the blob
+     */
+    Result<ValueId> writeBlob(final ValueStreamWriter writer, final Compression blobCompression) {
+        return Metered.phase(metrics, Phase.VALUE_WRITER, () -> valueWriter.write(writer, blobCompression));
     }
 
     /**
      * Reads a value from the branch with the given key.
      *
+     * <p>The path is resolved through the cached entries of each tree on the path to the key, only reading those
+     * trees from the repository when they are not already cached.</p>
+     *
      * @param branchRef the branch to select from
-     * @param key       the key to get the value for
+     * @param key       the path of the key to get the value for
      * @return an Optional containing the value if found, or empty
      */
     Result<Maybe<String>> readValue(
             final Ref branchRef,
             final String key
     ) {
-        final GitTreeReader treeFilter = new GitTreeReader(repository).treeFilter(key);
-        return streamTree(branchRef, treeFilter).flatMap(s ->
-                Result.swap(s.findFirst()
-                        .map(NamedRevBlob::blobAsString)
-                        .map(Maybe::just)
-                        .orElseGet(Maybe::nothing)));
+        return readBlob(branchRef, key, valueId -> valueCache.read(valueId)
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads the values from the branch with the given keys.
+     *
+     * <p>All the keys are resolved before any values are read, then the values not already cached are read
+     * together.</p>
+     *
+     * @param branchRef the branch to select from
+     * @param keys      the paths of the keys to get the values for
+     * @return the value of each key that was found, by its path
+     */
+    Result<Map<String, String>> readValues(
+            final Ref branchRef,
+            final Collection<String> keys
+    ) {
+        return Result.of(() -> {
+            final Map<String, ObjectId> blobIds = new HashMap<>();
+            for (final String key : keys) {
+                treeIndexCache.findBlob(branchRef.getObjectId(), key).orElseThrow()
+                        .peek(blobId -> blobIds.put(key, blobId));
+            }
+            return blobIds;
+        }).flatMap(blobIds -> valueCache.readAll(new HashSet<>(blobIds.values()))
+                .map(values -> {
+                    final Map<String, String> found = new HashMap<>();
+                    blobIds.forEach((key, blobId) ->
+                            found.put(key, new String(values.get(blobId), StandardCharsets.UTF_8)));
+                    return found;
+                }));
+    }
+
+    /**
+     * Reads a value from the branch with the given key, as bytes.
+     *
+     * @param branchRef the branch to select from
+     * @param key       the path of the key to get the value for
+     * @return an Optional containing the value if found, or empty
+     */
+    Result<Maybe<byte[]>> readBytes(
+            final Ref branchRef,
+            final String key
+    ) {
+        return readBlob(branchRef, key, valueId -> valueCache.read(valueId).map(byte[]::clone));
+    }
+
+    /**
+     * Opens a stream over a value from the branch with the given key.
+     *
+     * @param branchRef the branch to select from
+     * @param key       the path of the key to get the value for
+     * @return an Optional containing the stream over the value if found, or empty
+     */
+    Result<Maybe<InputStream>> readStream(
+            final Ref branchRef,
+            final String key
+    ) {
+        return readBlob(branchRef, key, valueCache::openStream);
+    }
+
+    /**
+     * Finds the values, anywhere within the branch, whose key paths end with a name within the range.
+     *
+     * @param branchRef the branch to select from
+     * @param names     the names of the keys
+     * @param limit     the most values to find, keeping those with the lowest names
+     * @return the id of each value, by the name of its key, in order of name
+     */
+    Result<SortedMap<String, ObjectId>> findValues(
+            final Ref branchRef,
+            final NameRange names,
+            final int limit
+    ) {
+        return treeIndexCache.findBlobs(branchRef.getObjectId(), names, limit);
+    }
+
+    /**
+     * Finds the names of the secondary indexes that have been built on the branch.
+     *
+     * @param branchRef the branch to read
+     * @return the names of the indexes, in order
+     */
+    Result<List<String>> indexNames(final Ref branchRef) {
+        final String prefix = SecondaryIndexes.INDEX_PREFIX;
+        return treeIndexCache.findRootSubtrees(branchRef.getObjectId(), NameRange.prefix(prefix))
+                .map(names -> names.stream()
+                        .map(name -> name.substring(prefix.length()))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Finds the values, anywhere beneath the subtree at the path within the branch, whose names are within the range.
+     *
+     * @param branchRef the branch to read
+     * @param treePath  the path of the subtree
+     * @param names     the names of the values to find
+     * @param limit     the most values to find
+     * @return the id of each value found, by its name, in order of name
+     */
+    Result<SortedMap<String, ObjectId>> findValues(
+            final Ref branchRef,
+            final String treePath,
+            final NameRange names,
+            final int limit
+    ) {
+        return treeIndexCache.findBlobs(branchRef.getObjectId(), treePath, names, limit);
+    }
+
+    /**
+     * Reads a value that has been found in the branch.
+     *
+     * @param key     the name of the key
+     * @param valueId the id of the value
+     * @return the value
+     */
+    Result<String> readValue(final String key, final ObjectId valueId) {
+        return valueCache.read(valueId)
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the commit the branch was at at the given time.
+     *
+     * @param branchRef the branch, whose head limits the search
+     * @param instant   the time
+     * @return the latest commit made at or before the time, or nothing if there were no commits by then
+     */
+    Result<Maybe<ObjectId>> findCommitAsOf(final Ref branchRef, final Instant instant) {
+        return commitTimeIndex.findAsOf(branchRef, instant);
+    }
+
+    /**
+     * Opens a snapshot of the branch, holding a reader open for its reads.
+     *
+     * @param branchRef the branch to read
+     * @param keyPath   finds the path of a key within the tree
+     * @return the snapshot
+     */
+    Result<GitDBSnapshot> openSnapshot(final Ref branchRef, final Function<String, String> keyPath) {
+        final ObjectId commitId = branchRef.getObjectId();
+        return treeIndexCache.commitTree(commitId)
+                .map(rootTreeId -> new GitDBSnapshotImpl(repository.newObjectReader(), commitId, rootTreeId,
+                        treeIndexCache, valueCache, keyPath, metrics));
+    }
+
+    /**
+     * Opens a lazy stream of the values anywhere within the branch.
+     *
+     * <p>The stream should be closed if it is not consumed in full.</p>
+     *
+     * @param branchRef the branch to read
+     * @return the stream of values, named by their keys
+     */
+    Result<Stream<NamedRevBlob>> entries(final Ref branchRef) {
+        return new GitTreeReader(repository, valueCache).entries(branchRef);
+    }
+
+    private <T> Result<Maybe<T>> readBlob(
+            final Ref branchRef,
+            final String key,
+            final Function<ObjectId, Result<T>> reader
+    ) {
+        return treeIndexCache.findBlob(branchRef.getObjectId(), key)
+                .flatMap(blobId -> Result.swap(blobId.map(reader)));
+    }
+
+    /**
+     * Add the key, for a value already in the repo, returning the tree containing the update.
+     *
+     * <p>N.B. this creates a tree that has not been committed, the branch remains unaware of the update.</p>
+     *
+     * @param branchRef the branch to start from
+     * @param key       the path of the key to place the value under
+     * @param valueId   the id of the value
+     * @return the id of the updated tree containing the update, or empty if the key already had the value
+     */
+    Result<Maybe<ObjectId>> writeKey(final Ref branchRef, final String key, final ValueId valueId) {
+        return Metered.phase(metrics, Phase.KEY_WRITER, () -> keyWriter.write(key, valueId, branchRef));
+    }
+
+    /**
+     * Insert the values into the store, returning the id of each.
+     *
+     * @param values          the value for each key path, or nothing where the key is to be removed
+     * @param blobCompression how to compress the values
+     * @return the id of the value for each key path, or nothing where the key is to be removed
+     */
+    Result<Map<String, Maybe<ValueId>>> writeBlobs(
+            final Map<String, Maybe<String>> values,
+            final Compression blobCompression
+    ) {
+        return Metered.phase(metrics, Phase.VALUE_WRITER, () -> Result.of(() -> {
+            final Map<String, Maybe<ValueId>> valueIds = new HashMap<>();
+            for (final Map.Entry<String, Maybe<String>> value : values.entrySet()) {
+                valueIds.put(value.getKey(), writeValueBlob(value.getValue(), blobCompression));
+            }
+            return valueIds;
+        }));
     }
 
-    private Result<Stream<NamedRevBlob>> streamTree(final Ref branchRef, final GitTreeReader treeFilter) {
-        return treeFilter.entries(branchRef);
+    private Maybe<ValueId> writeValueBlob(
+            final Maybe<String> value,
+            final Compression blobCompression
+    ) throws CheckedErrorResultException {
+        if (value.isNothing()) {
+            return Maybe.nothing();
+        }
+        final byte[] bytes = value.orElse("").getBytes(StandardCharsets.UTF_8);
+        return Maybe.just(valueWriter.write(bytes, blobCompression).orElseThrow());
     }
 
     /**
-     * Add the key/value to the repo, returning the tree containing the update.
+     * Add and remove many keys, for values already in the repo, returning the single tree containing all the updates.
      *
      * <p>N.B. this creates a tree that has not been committed, the branch remains unaware of the update.</p>
      *
      * @param branchRef the branch to start from
-     * @param key       the key to place the value under
-     * @param value     the value
-     * @return the id of the updated tree containing the update
+     * @param valueIds  the id of the value for each key path, or nothing where the key is to be removed
+     * @return the id of the updated tree containing the updates, or empty if there were no changes made
+     */
+    Result<Maybe<ObjectId>> writeKeys(final Ref branchRef, final Map<String, Maybe<ValueId>> valueIds) {
+        return Metered.phase(metrics, Phase.KEY_WRITER, () -> keyWriter.write(valueIds, branchRef));
+    }
+
+    /**
+     * Applies the update to the branch and commits it, reapplying the update to the latest head of the branch if
+     * another writer updates the branch first.
+     *
+     * <p>Where the update makes no changes, no commit is made. The update is reapplied up to the number of commit
+     * retries in the options, after which the result is a {@link BranchConflictException}.</p>
+     *
+     * @param branchRef        the branch to update
+     * @param update           creates the tree for the update, starting from the given branch
+     * @param message          the commit message
+     * @param userName         the user name
+     * @param userEmailAddress the user email address
+     * @return the Ref of the branch after the update, which is the original branch if there were no changes
      */
-    Result<ObjectId> writeValue(final Ref branchRef, final String key, final String value) {
-        return valueWriter.write(value.getBytes(StandardCharsets.UTF_8))
-                .flatMap(b -> keyWriter.write(key, b, branchRef));
+    Result<Ref> updateBranch(
+            final Ref branchRef,
+            final Function<Ref, Result<Maybe<ObjectId>>> update,
+            final String message,
+            final String userName,
+            final String userEmailAddress
+    ) {
+        return updateBranch(branchRef, update, message, userName, userEmailAddress, commitRetries);
+    }
+
+    private Result<Ref> updateBranch(
+            final Ref branchRef,
+            final Function<Ref, Result<Maybe<ObjectId>>> update,
+            final String message,
+            final String userName,
+            final String userEmailAddress,
+            final int retries
+    ) {
+        return update.apply(branchRef)
+                .flatMap(treeId -> treeId
+                        .map(id -> writeCommit(branchRef, id, message, userName, userEmailAddress))
+                        .orElseGet(() -> Result.ok(branchRef)))
+                .recover(error -> {
+                    if (error instanceof BranchConflictException) {
+                        metrics.refUpdateConflict(branchRef.getName());
+                    }
+                    if (error instanceof BranchConflictException && retries > 0) {
+                        return backOff(commitRetries - retries)
+                                .flatMap(x -> headWriter.read(branchRef.getName()))
+                                .flatMap(head -> updateBranch(
+                                        head, update, message, userName, userEmailAddress, retries - 1));
+                    }
+                    return Result.error(error);
+                });
+    }
+
+    /**
+     * Waits a random time, of up to twice as long for each previous attempt, to let competing writers finish.
+     *
+     * @param attempt the number of the previous attempt, from zero
+     * @return ok once the wait is over
+     */
+    private static Result<Integer> backOff(final int attempt) {
+        final int maxMillis = 1 << Math.min(attempt, MAX_BACK_OFF_SHIFT);
+        return Result.of(() -> {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(maxMillis + 1));
+            return attempt;
+        });
     }
 
     /**
      * Updates the branch to point to the new commit.
      *
+     * <p>All objects inserted by the current write operation are flushed to the repository before the branch is
+     * updated. Where the branch is no longer at the commit of the given Ref, the result is a
+     * {@link BranchConflictException}.</p>
+     *
      * @param branchRef        the branch to update
      * @param tree             the tree to commit onto the branch
      * @param message          the commit message
@@ -128,9 +551,11 @@ class GitDBRepo {
             final String userEmailAddress
     ) {
         return insertCommit(tree, message, userName, userEmailAddress, branchRef)
-                .flatMap(cid -> headWriter.write(branchRef.getName(), cid));
+                .flatMap(cid -> Metered.phase(metrics, Phase.FLUSH, () -> Result.ok(cid)
+                        .thenWith(x -> resources::flush)))
+                .flatMap(cid -> Metered.phase(metrics, Phase.HEAD_WRITER, () ->
+                        headWriter.write(branchRef.getName(), branchRef.getObjectId(), cid)));
     }
-
     /**
      * Insert a commit into the store, returning its unique id.
      *
@@ -148,7 +573,8 @@ class GitDBRepo {
             final String userEmailAddress,
             final Ref branchRef
     ) {
-        return commitWriter.write(treeId, branchRef, message, userName, userEmailAddress);
+        return Metered.phase(metrics, Phase.COMMIT_WRITER, () ->
+                commitWriter.write(treeId, branchRef, message, userName, userEmailAddress));
     }
 
     /**
@@ -166,7 +592,8 @@ class GitDBRepo {
             final String initUser,
             final String initEmail
     ) {
-        return commitWriter.write(treeId, ObjectId.zeroId(), initMessage, initUser, initEmail);
+        return commitWriter.write(treeId, ObjectId.zeroId(), initMessage, initUser, initEmail)
+                .thenWith(cid -> resources::flush);
     }
 
     /**
@@ -175,12 +602,12 @@ class GitDBRepo {
      * <p>N.B. this creates a tree that has not been committed, the branch remains unaware of the update.</p>
      *
      * @param branchRef the branch to start from
-     * @param key       the key to place the value under
+     * @param key       the path of the key to remove
      * @return an Optional containing the id of the updated tree containing the update, if the key was found, or an
      * empty Optional if there key was not found, the there was no changes made
      */
     Result<Maybe<ObjectId>> removeKey(final Ref branchRef, final String key) {
-        return keyRemover.remove(branchRef, key);
+        return Metered.phase(metrics, Phase.KEY_WRITER, () -> keyRemover.remove(branchRef, key));
     }
 
 }
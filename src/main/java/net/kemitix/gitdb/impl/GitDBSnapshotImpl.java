@@ -0,0 +1,260 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.gitdb.GitDBMetrics.Operation;
+import net.kemitix.gitdb.GitDBSnapshot;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Reads from the tree of a single commit, through a single reader.
+ *
+ * <p>The caches are shared with the rest of the GitDB. The reader is only used for the trees and values not already
+ * cached, and only by one thread at a time.</p>
+ *
+ * <p>Every use of the reader, including by the streams returned, holds a read lock, and closing the snapshot takes the
+ * write lock, so the reader is never used once it has been closed. Reads after the snapshot is closed, including from
+ * streams that were returned before, fail with an {@link IllegalStateException}, or an {@link IOException} for an
+ * {@link InputStream}.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class GitDBSnapshotImpl implements GitDBSnapshot {
+
+    private final ObjectReader reader;
+    private final ObjectId commitId;
+    private final ObjectId rootTreeId;
+    private final TreeIndexCache treeIndexCache;
+    private final ValueCache valueCache;
+    private final Function<String, String> keyPath;
+    private final GitDBMetrics metrics;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param reader         the reader to hold open, and close with the snapshot
+     * @param commitId       the commit the snapshot is of
+     * @param rootTreeId     the root tree of the commit
+     * @param treeIndexCache the cache of tree entries
+     * @param valueCache     the cache of values
+     * @param keyPath        finds the path of a key within the tree
+     * @param metrics        the metrics to report reads to
+     */
+    GitDBSnapshotImpl(
+            final ObjectReader reader,
+            final ObjectId commitId,
+            final ObjectId rootTreeId,
+            final TreeIndexCache treeIndexCache,
+            final ValueCache valueCache,
+            final Function<String, String> keyPath,
+            final GitDBMetrics metrics
+    ) {
+        this.reader = reader;
+        this.commitId = commitId;
+        this.rootTreeId = rootTreeId;
+        this.treeIndexCache = treeIndexCache;
+        this.valueCache = valueCache;
+        this.keyPath = keyPath;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Result<String> commitId() {
+        return Result.ok(commitId.name());
+    }
+
+    @Override
+    public Result<Maybe<String>> get(final String key) {
+        return readBlob(Operation.GET, key, blobId -> valueCache.read(reader, blobId)
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public Result<Map<String, String>> getAll(final Collection<String> keys) {
+        return GitDBBranchImpl.whenValidKeys(keys, () ->
+                whenOpen(() -> Metered.operation(metrics, Operation.GET_ALL, () -> Result.of(() -> {
+                    final Map<String, ObjectId> blobIds = new HashMap<>();
+                    for (final String key : keys) {
+                        treeIndexCache.findBlob(reader, rootTreeId, keyPath.apply(key)).orElseThrow()
+                                .peek(blobId -> blobIds.put(key, blobId));
+                    }
+                    return blobIds;
+                }).flatMap(blobIds -> valueCache.readAll(reader, new HashSet<>(blobIds.values()))
+                        .map(values -> {
+                            final Map<String, String> found = new HashMap<>();
+                            blobIds.forEach((key, blobId) ->
+                                    found.put(key, new String(values.get(blobId), StandardCharsets.UTF_8)));
+                            return found;
+                        })))));
+    }
+
+    @Override
+    public Result<Maybe<byte[]>> getBytes(final String key) {
+        return readBlob(Operation.GET, key, blobId -> valueCache.read(reader, blobId).map(byte[]::clone));
+    }
+
+    @Override
+    public Result<Maybe<InputStream>> getStream(final String key) {
+        return readBlob(Operation.GET, key, blobId -> valueCache.openStream(reader, blobId)
+                .map(GuardedInputStream::new));
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> scan(final String prefix, final int limit) {
+        return findEntries(NameRange.prefix(GitDBBranchImpl.KEY_PREFIX + prefix), limit);
+    }
+
+    @Override
+    public Result<Stream<Map.Entry<String, String>>> range(
+            final String fromInclusive,
+            final String toExclusive,
+            final int limit
+    ) {
+        return findEntries(NameRange.between(
+                GitDBBranchImpl.KEY_PREFIX + fromInclusive,
+                GitDBBranchImpl.KEY_PREFIX + toExclusive), limit);
+    }
+
+    private Result<Stream<Map.Entry<String, String>>> findEntries(final NameRange names, final int limit) {
+        return whenOpen(() -> Metered.operation(metrics, Operation.SCAN, () ->
+                treeIndexCache.findBlobs(reader, rootTreeId, names, limit))
+                .map(values -> values.entrySet().stream()
+                        .<Map.Entry<String, String>>map(value -> new AbstractMap.SimpleImmutableEntry<>(
+                                value.getKey().substring(GitDBBranchImpl.KEY_PREFIX.length()),
+                                whenOpen(() -> valueCache.read(reader, value.getValue()))
+                                        .map(bytes -> new String(bytes, StandardCharsets.UTF_8))
+                                        .orElseThrowUnchecked()))));
+    }
+
+    private <T> Result<Maybe<T>> readBlob(
+            final Operation operation,
+            final String key,
+            final Function<ObjectId, Result<T>> blobReader
+    ) {
+        return GitDBBranchImpl.whenValidKeys(Collections.singleton(key), () ->
+                whenOpen(() -> Metered.operation(metrics, operation, () ->
+                        treeIndexCache.findBlob(reader, rootTreeId, keyPath.apply(key))
+                                .flatMap(blobId -> Result.swap(blobId.map(blobReader))))));
+    }
+
+    private <T> Result<T> whenOpen(final Supplier<Result<T>> read) {
+        final Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            if (closed) {
+                return Result.error(new IllegalStateException(closedMessage()));
+            }
+            return read.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private String closedMessage() {
+        return String.format("Snapshot at [%s] is closed", commitId.name());
+    }
+
+    @Override
+    public void close() {
+        final Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            closed = true;
+            reader.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * A stream over a value that is only read while the snapshot is open.
+     */
+    private final class GuardedInputStream extends FilterInputStream {
+
+        GuardedInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return guarded(super::read);
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) throws IOException {
+            return guarded(() -> super.read(bytes, off, len));
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            return guarded(() -> super.skip(count));
+        }
+
+        private <T> T guarded(final StreamRead<T> streamRead) throws IOException {
+            final Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                if (closed) {
+                    throw new IOException(closedMessage());
+                }
+                return streamRead.read();
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A read from a stream.
+     *
+     * @param <T> the type of the result of the read
+     */
+    @FunctionalInterface
+    private interface StreamRead<T> {
+        T read() throws IOException;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import net.kemitix.gitdb.KeyChange;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.NameConflictTreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds the keys that differ between the trees of two commits.
+ *
+ * <p>The trees are walked side by side, and subtrees with the same id in both are skipped without being read, so
+ * the work done grows with the size of the difference rather than the number of keys.</p>
+ *
+ * <p>A value split into chunks is a tree, which is not entered. The walk matches it by name with a blob for the
+ * same key in the other commit, so a value that becomes chunked, or stops being so, is a single change.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+class GitTreeDiff {
+
+    private static final String KEY_PREFIX = "key:";
+    private static final int FROM = 0;
+    private static final int TO = 1;
+
+    private final Repository repository;
+    private final ValueCache valueCache;
+
+    /**
+     * Opens a stream of the keys that differ between the two commits.
+     *
+     * <p>The stream is lazy, and is released when exhausted or closed. A stream that isn't exhausted should be
+     * closed.</p>
+     *
+     * @param fromCommitId the earlier commit, or empty to treat every key as added
+     * @param toCommitId   the later commit
+     * @return the changes to the keys
+     */
+    Result<Stream<KeyChange>> changes(final Maybe<ObjectId> fromCommitId, final ObjectId toCommitId) {
+        final ObjectReader reader = repository.newObjectReader();
+        return Result.of(() -> openWalk(reader, fromCommitId, toCommitId))
+                .map(treeWalk -> {
+                    final Changes changes = new Changes(treeWalk);
+                    return StreamSupport.stream(
+                            Spliterators.spliteratorUnknownSize(changes, Spliterator.ORDERED | Spliterator.NONNULL),
+                            false)
+                            .onClose(changes::release);
+                })
+                .recover(error -> {
+                    reader.close();
+                    return Result.error(error);
+                });
+    }
+
+    private TreeWalk openWalk(
+            final ObjectReader reader,
+            final Maybe<ObjectId> fromCommitId,
+            final ObjectId toCommitId
+    ) throws IOException {
+        final TreeWalk treeWalk = new NameConflictTreeWalk(repository, reader);
+        try (RevWalk revWalk = new RevWalk(reader)) {
+            final Optional<ObjectId> from = fromCommitId.toOptional();
+            if (from.isPresent()) {
+                treeWalk.addTree(revWalk.parseCommit(from.get()).getTree());
+            } else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(revWalk.parseCommit(toCommitId).getTree());
+        }
+        treeWalk.setFilter(TreeFilter.ANY_DIFF);
+        return treeWalk;
+    }
+
+    private Result<String> readValue(final String valueId) {
+        return valueCache.read(ObjectId.fromString(valueId))
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Pulls the changed keys from the walk on demand.
+     */
+    private final class Changes implements Iterator<KeyChange> {
+
+        private final TreeWalk treeWalk;
+        private KeyChange next;
+        private boolean released;
+
+        Changes(final TreeWalk treeWalk) {
+            this.treeWalk = treeWalk;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !released) {
+                advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public KeyChange next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final KeyChange change = next;
+            next = null;
+            return change;
+        }
+
+        private void advance() {
+            try {
+                while (next == null && treeWalk.next()) {
+                    final String name = treeWalk.getNameString();
+                    if (name.startsWith(KEY_PREFIX)) {
+                        next = change(name.substring(KEY_PREFIX.length()));
+                    } else if (treeWalk.isSubtree() && !ValueChunker.isValueName(name)) {
+                        treeWalk.enterSubtree();
+                    }
+                }
+                if (next == null) {
+                    release();
+                }
+            } catch (IOException e) {
+                release();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private KeyChange change(final String key) {
+            final Maybe<String> oldValueId = valueId(FROM);
+            final Maybe<String> newValueId = valueId(TO);
+            return new KeyChange(type(oldValueId, newValueId), key, oldValueId, newValueId,
+                    GitTreeDiff.this::readValue);
+        }
+
+        private Maybe<String> valueId(final int tree) {
+            if (treeWalk.getFileMode(tree) == FileMode.MISSING) {
+                return Maybe.nothing();
+            }
+            return Maybe.just(treeWalk.getObjectId(tree).name());
+        }
+
+        private KeyChange.Type type(final Maybe<String> oldValueId, final Maybe<String> newValueId) {
+            if (oldValueId.isNothing()) {
+                return KeyChange.Type.ADDED;
+            }
+            if (newValueId.isNothing()) {
+                return KeyChange.Type.REMOVED;
+            }
+            return KeyChange.Type.MODIFIED;
+        }
+
+        void release() {
+            if (!released) {
+                released = true;
+                treeWalk.close();
+                treeWalk.getObjectReader().close();
+            }
+        }
+    }
+
+}
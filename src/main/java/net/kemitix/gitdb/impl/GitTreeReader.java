@@ -24,18 +24,20 @@ package net.kemitix.gitdb.impl;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
-import java.util.Optional;
-import java.util.concurrent.Callable;
-import java.util.function.Function;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Reads the entries in a Git Tree object.
@@ -46,63 +48,104 @@ import java.util.stream.Stream;
 class GitTreeReader {
 
     private final Repository repository;
-
-    private TreeFilter treeFilter;
+    private final ValueCache valueCache;
 
     /**
-     * Opens a stream of entries found on the branch.
+     * Opens a stream of the blobs found anywhere on the branch.
+     *
+     * <p>The stream is lazy, reading each tree only as the stream reaches it, so its memory use does not grow with
+     * the size of the branch. The walk is released when the stream is exhausted or closed. A stream that isn't
+     * exhausted should be closed.</p>
+     *
+     * <p>A value split into chunks is a single entry, with the id of its tree of chunks. The subtrees of secondary
+     * indexes are not entered.</p>
      *
      * @param branchRef the branch to read
      * @return a stream of key/value pairs as NamedRevBlobs
      */
     Result<Stream<NamedRevBlob>> entries(final Ref branchRef) {
-        final RevWalk revWalk = new RevWalk(repository);
-        return Result.of(parseTree(branchRef, revWalk))
-                .andThen(configureFilter())
-                .andThen(buildStream(revWalk));
+        final ObjectReader reader = repository.newObjectReader();
+        return Result.of(() -> openWalk(reader, branchRef))
+                .map(treeWalk -> {
+                    final Entries entries = new Entries(treeWalk);
+                    return StreamSupport.stream(
+                            Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL),
+                            false)
+                            .onClose(entries::release);
+                })
+                .recover(error -> {
+                    reader.close();
+                    return Result.error(error);
+                });
     }
 
-    private Callable<RevTree> parseTree(final Ref branchRef, final RevWalk revWalk) {
-        return () -> revWalk.parseCommit(branchRef.getObjectId()).getTree();
+    private TreeWalk openWalk(final ObjectReader reader, final Ref branchRef) throws IOException {
+        final TreeWalk treeWalk = new TreeWalk(repository, reader);
+        try (RevWalk revWalk = new RevWalk(reader)) {
+            treeWalk.addTree(revWalk.parseCommit(branchRef.getObjectId()).getTree());
+        }
+        return treeWalk;
     }
 
-    private Function<RevTree, Callable<TreeWalk>> configureFilter() {
-        return tree -> () -> {
-            final TreeWalk treeWalk = new TreeWalk(repository);
-            treeWalk.addTree(tree);
-            treeWalk.setRecursive(false);
-            Optional.ofNullable(treeFilter)
-                    .ifPresent(treeWalk::setFilter);
-            return treeWalk;
-        };
-    }
+    /**
+     * Pulls the blobs from the walk on demand.
+     */
+    private final class Entries implements Iterator<NamedRevBlob> {
+
+        private final TreeWalk treeWalk;
+        private NamedRevBlob next;
+        private boolean released;
+
+        Entries(final TreeWalk treeWalk) {
+            this.treeWalk = treeWalk;
+        }
 
-    private Function<TreeWalk, Callable<Stream<NamedRevBlob>>> buildStream(final RevWalk revWalk) {
-        return treeWalk -> () -> {
-            final Stream.Builder<NamedRevBlob> builder = Stream.builder();
-            while (treeWalk.next()) {
-                builder.add(namedRevBlob(treeWalk, revWalk));
+        @Override
+        public boolean hasNext() {
+            if (next == null && !released) {
+                advance();
             }
-            return builder.build();
-        };
-    }
+            return next != null;
+        }
 
-    private NamedRevBlob namedRevBlob(final TreeWalk treeWalk, final RevWalk revWalk) {
-        return new NamedRevBlob(
-                treeWalk.getNameString(),
-                revWalk.lookupBlob(treeWalk.getObjectId(0)),
-                repository);
-    }
+        @Override
+        public NamedRevBlob next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final NamedRevBlob entry = next;
+            next = null;
+            return entry;
+        }
+
+        private void advance() {
+            try {
+                while (next == null && treeWalk.next()) {
+                    final String name = treeWalk.getNameString();
+                    if (!treeWalk.isSubtree()) {
+                        next = new NamedRevBlob(name, ValueId.blob(treeWalk.getObjectId(0)), valueCache);
+                    } else if (ValueChunker.isValueName(name)) {
+                        next = new NamedRevBlob(name, ValueId.chunks(treeWalk.getObjectId(0)), valueCache);
+                    } else if (!name.startsWith(SecondaryIndexes.INDEX_PREFIX)) {
+                        treeWalk.enterSubtree();
+                    }
+                }
+                if (next == null) {
+                    release();
+                }
+            } catch (IOException e) {
+                release();
+                throw new UncheckedIOException(e);
+            }
+        }
 
-    /**
-     * Sets a path filter to limit the stream by.
-     *
-     * @param path the path to filter by
-     * @return the GitTreeReader
-     */
-    GitTreeReader treeFilter(final String path) {
-        treeFilter = PathFilter.create(path);
-        return this;
+        void release() {
+            if (!released) {
+                released = true;
+                treeWalk.close();
+                treeWalk.getObjectReader().close();
+            }
+        }
     }
 
 }
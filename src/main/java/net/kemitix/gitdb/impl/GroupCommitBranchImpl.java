@@ -0,0 +1,148 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GroupCommitPolicy;
+import net.kemitix.gitdb.WriteBatch;
+import net.kemitix.mon.result.Result;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * An asynchronous view of a branch in the GitDB that groups concurrent updates into a single commit.
+ *
+ * <p>Puts and removes of string values join the open group, which is committed as a single batch once the commits
+ * requested before it have been made. Once a group starts to be committed, or reaches the maximum batch size, later
+ * updates start a new group. Other updates are not grouped, and close the open group so that all updates are still
+ * applied in the order they were requested.</p>
+ *
+ * <p>The window is timed without holding a thread of the executor, by a single daemon thread shared by every view.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class GroupCommitBranchImpl extends AsyncGitDBBranchImpl {
+
+    private static final ScheduledExecutorService WINDOWS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "gitdb-group-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor executor;
+    private final GroupCommitPolicy policy;
+    private Group open;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param queue    the updates of the branch, shared with its other views
+     * @param adopt    gives the branch, as left by the latest update, the settings of this view
+     * @param executor the executor to run operations on
+     * @param policy   the limits for grouping updates
+     */
+    GroupCommitBranchImpl(
+            final UpdateQueue queue,
+            final UnaryOperator<GitDBBranch> adopt,
+            final Executor executor,
+            final GroupCommitPolicy policy
+    ) {
+        super(queue, adopt, executor);
+        this.executor = executor;
+        this.policy = policy;
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> put(final String key, final String value) {
+        return join(batch -> batch.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> remove(final String key) {
+        return join(batch -> batch.remove(key));
+    }
+
+    @Override
+    public CompletableFuture<GitDBBranch> write(final WriteBatch batch) {
+        return join(group -> batch.getUpdates().forEach((key, value) -> value
+                .map(v -> group.put(key, v))
+                .orElseGet(() -> group.remove(key))));
+    }
+
+    @Override
+    synchronized CompletableFuture<GitDBBranch> update(final Function<GitDBBranch, Result<GitDBBranch>> updater) {
+        open = null;
+        return super.update(updater);
+    }
+
+    private synchronized CompletableFuture<GitDBBranch> join(final Consumer<WriteBatch> update) {
+        if (open == null || open.sealed || open.size >= policy.getMaxBatchSize()) {
+            final Group group = new Group();
+            group.committed = enqueue(branch -> windowClosed()
+                    .thenComposeAsync(x -> toFuture(commit(branch, group)), executor));
+            open = group;
+        }
+        update.accept(open.batch);
+        open.size++;
+        return open.committed.thenApply(Function.identity());
+    }
+
+    /**
+     * Completes once the window for more updates to join a group has passed.
+     *
+     * @return the future
+     */
+    private CompletableFuture<Void> windowClosed() {
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        WINDOWS.schedule(() -> closed.complete(null), policy.getWindow().toMillis(), TimeUnit.MILLISECONDS);
+        return closed;
+    }
+
+    private Result<GitDBBranch> commit(final GitDBBranch branch, final Group group) {
+        seal(group);
+        return branch.write(group.batch);
+    }
+
+    private synchronized void seal(final Group group) {
+        group.sealed = true;
+    }
+
+    /**
+     * The updates to be committed together.
+     */
+    private static final class Group {
+
+        private final WriteBatch batch = new WriteBatch();
+        private int size;
+        private boolean sealed;
+        private CompletableFuture<GitDBBranch> committed;
+
+    }
+
+}
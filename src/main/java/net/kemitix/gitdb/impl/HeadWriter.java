@@ -22,15 +22,16 @@
 package net.kemitix.gitdb.impl;
 
 import lombok.RequiredArgsConstructor;
+import net.kemitix.gitdb.BranchConflictException;
+import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 
-import java.io.File;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
 
 /**
  * Writes the head.
@@ -43,45 +44,57 @@ class HeadWriter {
     private final Repository repository;
 
     /**
-     * Writes the head for the named branch for the given commit.
+     * Writes the head for the named branch for the given commit, if the branch is still at the expected commit.
+     *
+     * <p>The branch is locked while it is compared and updated, so concurrent writers, whether in this or another
+     * process, can't overwrite each other's updates. Where the branch is locked by, or has been moved by, another
+     * writer, the result is a {@link BranchConflictException}.</p>
+     *
+     * <p>The Ref returned is for the commit written, not re-read from the branch, which another writer may already
+     * have moved on.</p>
      *
      * @param branchName the branch name
+     * @param expectedId the commit the branch is expected to be at
      * @param commitId   the commit to point the branch at
      * @return the Ref of the new branch
      */
-    Result<Ref> write(final String branchName, final ObjectId commitId) {
-        return writeRef(branchName, commitId, repository)
-                .flatMap(x -> findRef(branchName, repository));
-    }
-
-    private static Result<Path> writeRef(
-            final String branchName,
-            final ObjectId commitId,
-            final Repository repository
-    ) {
-        return Result.of(() ->
-                Files.write(
-                        branchRefPath(branchName, repository).toAbsolutePath(),
-                        commitIdBytes(commitId)));
-    }
-
-    private static Result<Ref> findRef(final String branchName, final Repository repository) {
-        return Result.of(() -> repository.findRef(branchName));
-    }
-
-    private static Path branchRefPath(final String branchName, final Repository repository) {
-        return gitDirPath(repository).resolve(branchName);
+    Result<Ref> write(final String branchName, final ObjectId expectedId, final ObjectId commitId) {
+        return Result.of(() -> {
+            final RefUpdate refUpdate = repository.updateRef(branchName);
+            refUpdate.setExpectedOldObjectId(expectedId);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.disableRefLog();
+            return refUpdate.forceUpdate();
+        }).flatMap(result -> checkResult(branchName, result))
+                .map(x -> new ObjectIdRef.PeeledNonTag(Ref.Storage.LOOSE, branchName, commitId.copy()));
     }
 
-    private static byte[] commitIdBytes(final ObjectId commitId) {
-        return commitId.name().getBytes(StandardCharsets.UTF_8);
-    }
-
-    private static Path gitDirPath(final Repository repository) {
-        return gitDir(repository).toPath();
+    /**
+     * Reads the current head for the named branch.
+     *
+     * <p>Where the branch has been deleted, such as by another writer, the result is an error.</p>
+     *
+     * @param branchName the branch name
+     * @return the Ref of the branch
+     */
+    Result<Ref> read(final String branchName) {
+        return Result.of(() -> Maybe.maybe(repository.exactRef(branchName)))
+                .flatMap(ref -> Result.fromMaybe(ref, () -> new IllegalStateException(
+                        String.format("Branch [%s] no longer exists", branchName))));
     }
 
-    private static File gitDir(final Repository repository) {
-        return repository.getDirectory();
+    private static Result<RefUpdate.Result> checkResult(final String branchName, final RefUpdate.Result result) {
+        switch (result) {
+            case NEW:
+            case FORCED:
+            case FAST_FORWARD:
+            case NO_CHANGE:
+                return Result.ok(result);
+            case LOCK_FAILURE:
+                return Result.error(new BranchConflictException(branchName));
+            default:
+                return Result.error(new IOException(
+                        String.format("Failed to update branch [%s]: %s", branchName, result)));
+        }
     }
 }
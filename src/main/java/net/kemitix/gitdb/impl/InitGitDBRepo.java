@@ -22,6 +22,7 @@
 package net.kemitix.gitdb.impl;
 
 import net.kemitix.gitdb.FormatVersion;
+import net.kemitix.gitdb.GitDBOptions;
 import net.kemitix.mon.result.Result;
 import net.kemitix.mon.result.WithResultContinuation;
 import org.eclipse.jgit.lib.ObjectId;
@@ -44,7 +45,7 @@ import static net.kemitix.conditional.Condition.where;
  */
 final class InitGitDBRepo {
 
-    private static final String INIT_MESSAGE = "Initialise GitDB v1";
+    private static final String INIT_MESSAGE = "Initialise GitDB v2";
     private static final String INIT_USER = "GitDB";
     private static final String INIT_EMAIL = "pcampbell@kemitix.net";
     private static final String MASTER = "master";
@@ -105,12 +106,13 @@ final class InitGitDBRepo {
             final Repository repository
     ) {
         return () -> {
-            final GitDBRepo repo = new GitDBRepo(repository);
-            new ValueWriter(repository)
-                    .write(new FormatVersion().toBytes())
-                    .flatMap(oid -> repo.insertNewTree(GIT_DB_VERSION, oid))
-                    .flatMap(tid -> repo.initialCommit(tid, INIT_MESSAGE, INIT_USER, INIT_EMAIL))
-                    .flatMap(cid -> createBranch(repository, cid, MASTER));
+            try (ObjectResources resources = new ObjectResources(repository, GitDBOptions.defaults())) {
+                final GitDBRepo repo = new GitDBRepo(repository, resources);
+                repo.writeOperation(() -> repo.writeBlob(new FormatVersion().toBytes())
+                        .flatMap(oid -> repo.insertNewTree(GIT_DB_VERSION, oid))
+                        .flatMap(tid -> repo.initialCommit(tid, INIT_MESSAGE, INIT_USER, INIT_EMAIL)))
+                        .flatMap(cid -> createBranch(repository, cid, MASTER));
+            }
         };
     }
 
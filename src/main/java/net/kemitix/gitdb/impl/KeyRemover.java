@@ -21,98 +21,45 @@
 
 package net.kemitix.gitdb.impl;
 
-import lombok.RequiredArgsConstructor;
+import net.kemitix.gitdb.GitDBMetrics;
 import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
-import net.kemitix.mon.result.WithResultContinuation;
-import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
-
-import static net.kemitix.conditional.Condition.where;
+import java.util.Collections;
+import java.util.function.Supplier;
 
 /**
  * Remove Key from the Git Repository.
  *
  * @author Paul Campbell (pcampbell@kemitix.net)
  */
-@RequiredArgsConstructor
 class KeyRemover {
 
-    private final Repository repository;
-
-    /**
-     * Remove a key from the repository.
-     *
-     * @param branchRef the branch to update
-     * @param key       the key to remove
-     * @return the id of the updated tree
-     */
-    Result<Maybe<ObjectId>> remove(final Ref branchRef, final String key) {
-        final TreeFormatter treeFormatter = new TreeFormatter();
-        final AtomicBoolean removed = new AtomicBoolean(false);
-        return new GitTreeReader(repository)
-                .entries(branchRef)
-                .thenWith(entries -> addOthersToTree(key, treeFormatter, removed, entries))
-                .flatMap(x -> insertTree(treeFormatter))
-                .maybe(x -> removed.get());
-    }
-
-    private static WithResultContinuation<Stream<NamedRevBlob>> addOthersToTree(
-            final String key,
-            final TreeFormatter treeFormatter,
-            final AtomicBoolean removed,
-            final Stream<NamedRevBlob> entryStream) {
-        return () -> entryStream
-                .peek(flagIfFound(key, removed))
-                .filter(isNotKey(key))
-                .forEach(addToTree(treeFormatter));
-    }
+    private final TreePathWriter treePathWriter;
 
     /**
-     * Sets the boolean to true if the key matches a NamedRevBlob's name.
+     * Create new instance of this class.
      *
-     * @param key     the key to match
-     * @param removed the boolean to update
-     * @return a Consumer
+     * @param objectInserter supplies the inserter to write trees with
+     * @param metrics        the metrics to report rewritten trees to
      */
-    private static Consumer<NamedRevBlob> flagIfFound(final String key, final AtomicBoolean removed) {
-        return nvb -> where(nvb.getName().equals(key))
-                .then(() -> removed.set(true));
+    KeyRemover(final Supplier<ObjectInserter> objectInserter, final GitDBMetrics metrics) {
+        treePathWriter = new TreePathWriter(objectInserter, metrics);
     }
 
     /**
-     * Filter to exclude named blobs where the name matches the key.
-     *
-     * @param key the key to match
-     * @return a Predicate
-     */
-    private static Predicate<NamedRevBlob> isNotKey(final String key) {
-        return item -> !item.getName().equals(key);
-    }
-
-    /**
-     * Adds the named value blob to the tree formatter.
+     * Remove a key from the repository.
      *
-     * @param treeFormatter the tree formatter to add to
-     * @return a Consumer
-     */
-    private static Consumer<NamedRevBlob> addToTree(final TreeFormatter treeFormatter) {
-        return item -> treeFormatter.append(item.getName(), item.getRevBlob());
-    }
-
-    /**
-     * Insert a tree into the repo, returning its id.
+     * <p>Only the trees on the path to the key are rewritten.</p>
      *
-     * @param treeFormatter the formatter containing the proposed tree's data.
-     * @return the name of the tree object.
+     * @param branchRef the branch to update
+     * @param key       the path of the key to remove
+     * @return the id of the updated tree, or empty if the key was not found
      */
-    private Result<ObjectId> insertTree(final TreeFormatter treeFormatter) {
-        return Result.ok(repository.getObjectDatabase())
-                .map(ObjectDatabase::newInserter)
-                .andThen(inserter -> () -> inserter.insert(treeFormatter));
+    Result<Maybe<ObjectId>> remove(final Ref branchRef, final String key) {
+        return treePathWriter.update(branchRef, Collections.singletonMap(key, Maybe.nothing()));
     }
 }
@@ -21,9 +21,15 @@
 
 package net.kemitix.gitdb.impl;
 
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.*;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
 /**
  * Writes Keys into the Git Repository.
  *
@@ -31,17 +37,18 @@ import org.eclipse.jgit.lib.*;
  */
 class KeyWriter {
 
-    private final Repository repository;
-    private final ObjectInserter objectInserter;
+    private final Supplier<ObjectInserter> objectInserter;
+    private final TreePathWriter treePathWriter;
 
     /**
      * Create new instance of this class.
      *
-     * @param repository the repository to write keys to
+     * @param objectInserter supplies the inserter to write trees with
+     * @param metrics        the metrics to report rewritten trees to
      */
-    KeyWriter(final Repository repository) {
-        this.repository = repository;
-        objectInserter = repository.getObjectDatabase().newInserter();
+    KeyWriter(final Supplier<ObjectInserter> objectInserter, final GitDBMetrics metrics) {
+        this.objectInserter = objectInserter;
+        treePathWriter = new TreePathWriter(objectInserter, metrics);
     }
 
     /**
@@ -51,37 +58,43 @@ class KeyWriter {
      * @param valueId the id of the value
      * @return the id of the new tree
      */
-    Result<ObjectId> writeFirst(final String key, final ObjectId valueId) {
+    Result<ObjectId> writeFirst(final String key, final ValueId valueId) {
         return writeTree(key, valueId, new TreeFormatter());
     }
 
     /**
      * Write the key into a tree.
      *
-     * @param key       the key
+     * <p>Only the trees on the path to the key are rewritten, replacing any existing value for the key.</p>
+     *
+     * @param key       the path of the key within the tree
      * @param valueId   the id of the value
      * @param branchRef the branch whose tree should be updated
-     * @return the id of the updated tree
+     * @return the id of the updated tree, or empty if the key already had the value
      */
-    Result<ObjectId> write(final String key, final ObjectId valueId, final Ref branchRef) {
-        return getTreeFormatter(branchRef)
-                .flatMap(f -> writeTree(key, valueId, f));
+    Result<Maybe<ObjectId>> write(final String key, final ValueId valueId, final Ref branchRef) {
+        return write(Collections.singletonMap(key, Maybe.just(valueId)), branchRef);
     }
 
-    private Result<TreeFormatter> getTreeFormatter(final Ref branchRef) {
-        final TreeFormatter treeFormatter = new TreeFormatter();
-        final GitTreeReader gitTreeReader = new GitTreeReader(repository);
-        return gitTreeReader.entries(branchRef)
-                .peek(s -> s.forEach(item -> treeFormatter.append(item.getName(), item.getRevBlob())))
-                .map(x -> treeFormatter);
+    /**
+     * Write many keys into a tree, removing those without a value.
+     *
+     * <p>The tree is read once and each tree on the paths to the keys is rewritten once.</p>
+     *
+     * @param valueIds  the id of the value for each key path, or nothing to remove the key
+     * @param branchRef the branch whose tree should be updated
+     * @return the id of the updated tree, or empty if the tree was unchanged
+     */
+    Result<Maybe<ObjectId>> write(final Map<String, Maybe<ValueId>> valueIds, final Ref branchRef) {
+        return treePathWriter.update(branchRef, valueIds);
     }
 
     private Result<ObjectId> writeTree(
             final String key,
-            final ObjectId valueId,
+            final ValueId valueId,
             final TreeFormatter treeFormatter
     ) {
-        treeFormatter.append(key, FileMode.REGULAR_FILE, valueId);
-        return Result.of(() -> objectInserter.insert(treeFormatter));
+        treeFormatter.append(key, valueId.getMode(), valueId.getObjectId());
+        return Result.of(() -> objectInserter.get().insert(treeFormatter));
     }
 }
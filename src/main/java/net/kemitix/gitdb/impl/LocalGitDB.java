@@ -22,6 +22,7 @@
 package net.kemitix.gitdb.impl;
 
 import net.kemitix.gitdb.GitDB;
+import net.kemitix.gitdb.GitDBOptions;
 import net.kemitix.mon.result.Result;
 
 import java.nio.file.Path;
@@ -42,7 +43,25 @@ public interface LocalGitDB extends GitDB {
      * @return a GitDB instance for the created local gitdb
      */
     static Result<GitDB> init(final Path dbDir, final String userName, final String userEmailAddress) {
-        return LocalGitDBImpl.init(dbDir, userName, userEmailAddress);
+        return LocalGitDBImpl.init(dbDir, userName, userEmailAddress, GitDBOptions.defaults());
+    }
+
+    /**
+     * Create a new GitDB instance, while initialising a new git repo.
+     *
+     * @param dbDir            the path to instantiate the git repo in
+     * @param userName         the user name
+     * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
+     * @return a GitDB instance for the created local gitdb
+     */
+    static Result<GitDB> init(
+            final Path dbDir,
+            final String userName,
+            final String userEmailAddress,
+            final GitDBOptions options
+    ) {
+        return LocalGitDBImpl.init(dbDir, userName, userEmailAddress, options);
     }
 
     /**
@@ -54,7 +73,25 @@ public interface LocalGitDB extends GitDB {
      * @return a GitDB instance for the created local gitdb
      */
     static Result<GitDB> open(final Path dbDir, final String userName, final String userEmailAddress) {
-        return LocalGitDBImpl.open(dbDir, userName, userEmailAddress);
+        return LocalGitDBImpl.open(dbDir, userName, userEmailAddress, GitDBOptions.defaults());
+    }
+
+    /**
+     * Create a new GitDB instance using the Git repo.
+     *
+     * @param dbDir            the path to instantiate the git repo in
+     * @param userName         the user name
+     * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
+     * @return a GitDB instance for the created local gitdb
+     */
+    static Result<GitDB> open(
+            final Path dbDir,
+            final String userName,
+            final String userEmailAddress,
+            final GitDBOptions options
+    ) {
+        return LocalGitDBImpl.open(dbDir, userName, userEmailAddress, options);
     }
 
 }
@@ -21,18 +21,37 @@
 
 package net.kemitix.gitdb.impl;
 
+import net.kemitix.gitdb.AsyncGitDBBranch;
+import net.kemitix.gitdb.BranchUpdate;
+import net.kemitix.gitdb.CacheStats;
 import net.kemitix.gitdb.GitDB;
 import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.gitdb.GitDBOptions;
 import net.kemitix.gitdb.InvalidRepositoryException;
+import net.kemitix.gitdb.KeyChange;
+import net.kemitix.gitdb.Maintenance;
+import net.kemitix.gitdb.MaintenancePolicy;
+import net.kemitix.gitdb.MaintenanceReport;
+import net.kemitix.gitdb.StorageOptions;
+import net.kemitix.gitdb.Subscription;
 import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Implementation of GitDB for working with a local Repo.
@@ -43,18 +62,41 @@ final class LocalGitDBImpl implements GitDB, LocalGitDB {
 
     private static final String NOT_A_BARE_REPO = "Not a bare repo";
     private static final String ERROR_OPENING_REPOSITORY = "Error opening repository";
+    private static final String BLOOM_FILTER_FILE = "gitdb-bloom-filters";
 
     private final Repository repository;
+    private final ObjectResources resources;
+    private final BloomFilterCache bloomFilters;
+    private final boolean bloomFiltersPersisted;
+    private final TreeIndexCache treeIndexCache;
+    private final ValueCache valueCache;
+    private final GitDBMetrics metrics;
+    private final Set<MaintenanceScheduler> maintenance = ConcurrentHashMap.newKeySet();
+    private final Set<ChangeFeed> changeFeeds = ConcurrentHashMap.newKeySet();
 
     private final Function<Ref, Result<GitDBBranch>> branchInit;
 
     private LocalGitDBImpl(
             final Repository repository,
             final String userName,
-            final String userEmailAddress
+            final String userEmailAddress,
+            final GitDBOptions options
     ) {
         this.repository = repository;
-        branchInit = GitDBBranchImpl.init(this.repository, userName, userEmailAddress);
+        resources = new ObjectResources(repository, options);
+        resources.addPackListener(this::packWritten);
+        bloomFilters = new BloomFilterCache(options.getBloomFilterOptions());
+        bloomFiltersPersisted = options.getBloomFilterOptions().isPersisted();
+        if (bloomFiltersPersisted) {
+            // the filters are only a cache, so an unreadable file is ignored and replaced on close
+            bloomFilters.load(bloomFilterFile());
+        }
+        treeIndexCache = new TreeIndexCache(resources, options.getTreeCacheEntries(), bloomFilters);
+        valueCache = new ValueCache(resources, options.getValueCacheBytes(), options.getStreamThresholdBytes());
+        metrics = options.getMetrics();
+        final GitDBRepo gitDBRepo = new GitDBRepo(repository, resources, treeIndexCache, valueCache,
+                new CommitTimeIndex(repository), options);
+        branchInit = GitDBBranchImpl.init(gitDBRepo, userName, userEmailAddress);
     }
 
     /**
@@ -63,15 +105,18 @@ final class LocalGitDBImpl implements GitDB, LocalGitDB {
      * @param dbDir            the path to instantiate the git repo in
      * @param userName         the user name
      * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
      * @return a GitDB instance for the created local gitdb
      */
     static Result<GitDB> init(
             final Path dbDir,
             final String userName,
-            final String userEmailAddress
+            final String userEmailAddress,
+            final GitDBOptions options
     ) {
         return InitGitDBRepo.create(dbDir)
-                .flatMap(c -> open(dbDir, userName, userEmailAddress));
+                .peek(Repository::close)
+                .flatMap(c -> open(dbDir, userName, userEmailAddress, options));
     }
 
     /**
@@ -80,18 +125,47 @@ final class LocalGitDBImpl implements GitDB, LocalGitDB {
      * @param dbDir            the path to instantiate the git repo in
      * @param userName         the user name
      * @param userEmailAddress the user email address
+     * @param options          the options to open the gitdb with
      * @return a GitDB instance for the created local gitdb
      */
     static Result<GitDB> open(
             final Path dbDir,
             final String userName,
-            final String userEmailAddress
+            final String userEmailAddress,
+            final GitDBOptions options
     ) {
-        return gitOpen(dbDir)
+        return installStorageOptions(options.getStorageOptions())
+                .flatMap(x -> gitOpen(dbDir))
                 .map(Git::getRepository)
                 .maybe(Repository::isBare)
                 .flatMap(asErrorIfNotBare(dbDir))
-                .map(toLocalGitDB(userName, userEmailAddress));
+                .map(toLocalGitDB(userName, userEmailAddress, options));
+    }
+
+    /**
+     * Configures how pack files are read and cached, when the options are other than the defaults.
+     *
+     * <p>The configuration is shared by all repositories within the JVM, so the defaults are never installed, leaving in
+     * place any configuration made by the process, or by another GitDB.</p>
+     *
+     * @param storageOptions the options
+     * @return the options
+     */
+    private static Result<StorageOptions> installStorageOptions(final StorageOptions storageOptions) {
+        if (storageOptions.equals(StorageOptions.defaults())) {
+            return Result.ok(storageOptions);
+        }
+        return Result.of(() -> {
+            final WindowCacheConfig config = new WindowCacheConfig();
+            config.setPackedGitWindowSize(storageOptions.getPackedGitWindowSize());
+            config.setPackedGitLimit(storageOptions.getPackedGitLimit());
+            config.setPackedGitMMAP(storageOptions.isPackedGitMmap());
+            config.setPackedGitOpenFiles(storageOptions.getPackedGitOpenFiles());
+            config.setDeltaBaseCacheLimit(storageOptions.getDeltaBaseCacheLimit());
+            config.setStreamFileThreshold(storageOptions.getStreamFileThreshold());
+            config.install();
+            return storageOptions;
+        });
     }
 
     private static Result<Git> gitOpen(final Path dbDir) {
@@ -106,15 +180,94 @@ final class LocalGitDBImpl implements GitDB, LocalGitDB {
         return maybe -> Result.fromMaybe(maybe, () -> new InvalidRepositoryException(NOT_A_BARE_REPO, dbDir));
     }
 
-    private static Function<Repository, GitDB> toLocalGitDB(final String userName, final String userEmailAddress) {
-        return repository -> new LocalGitDBImpl(repository, userName, userEmailAddress);
+    private static Function<Repository, GitDB> toLocalGitDB(
+            final String userName,
+            final String userEmailAddress,
+            final GitDBOptions options
+    ) {
+        return repository -> new LocalGitDBImpl(repository, userName, userEmailAddress, options);
     }
 
     @Override
     public Result<Maybe<GitDBBranch>> branch(final String name) {
-        return Result.flatMapMaybe(
+        return Metered.operation(metrics, GitDBMetrics.Operation.BRANCH, () -> Result.flatMapMaybe(
                 Result.of(() -> Maybe.maybe(repository.findRef(name))),
-                refMaybe -> Result.swap(refMaybe.map(branchInit)));
+                refMaybe -> Result.swap(refMaybe.map(branchInit))));
+    }
+
+    @Override
+    public Result<Maybe<AsyncGitDBBranch>> asyncBranch(final String name, final Executor executor) {
+        return branch(name)
+                .map(branch -> branch.map(selected -> selected.async(executor)));
+    }
+
+    @Override
+    public Result<Stream<KeyChange>> diff(final String fromRevision, final String toRevision) {
+        return resolve(fromRevision)
+                .flatMap(fromId -> resolve(toRevision)
+                        .flatMap(toId -> new GitTreeDiff(repository, valueCache).changes(Maybe.just(fromId), toId)));
+    }
+
+    @Override
+    public Result<Subscription> subscribe(
+            final String branchName,
+            final Duration pollInterval,
+            final Consumer<Result<BranchUpdate>> listener
+    ) {
+        return ChangeFeed.start(repository, valueCache, branchName, pollInterval, listener, changeFeeds::remove)
+                .peek(changeFeeds::add)
+                .map(Subscription.class::cast);
+    }
+
+    private Result<ObjectId> resolve(final String revision) {
+        return Result.of(() -> Maybe.maybe(repository.resolve(revision)))
+                .flatMap(id -> Result.fromMaybe(id, () -> new IllegalArgumentException(
+                        String.format("Unknown revision [%s]", revision))));
+    }
+
+    @Override
+    public CacheStats valueCacheStats() {
+        return valueCache.stats();
+    }
+
+    @Override
+    public CacheStats treeCacheStats() {
+        return treeIndexCache.stats();
+    }
+
+    @Override
+    public Result<Maintenance> scheduleMaintenance(
+            final MaintenancePolicy policy,
+            final Consumer<Result<MaintenanceReport>> listener
+    ) {
+        return MaintenanceScheduler.start(repository, policy, listener, maintenance::remove)
+                .peek(maintenance::add)
+                .map(Maintenance.class::cast);
+    }
+
+    private void packWritten() {
+        maintenance.forEach(MaintenanceScheduler::packWritten);
+    }
+
+    /**
+     * The file the Bloom filters are saved to, alongside the object database.
+     *
+     * @return the file
+     */
+    private Path bloomFilterFile() {
+        return repository.getDirectory().toPath().resolve(BLOOM_FILTER_FILE);
+    }
+
+    @Override
+    public void close() {
+        maintenance.forEach(MaintenanceScheduler::close);
+        changeFeeds.forEach(ChangeFeed::close);
+        if (bloomFiltersPersisted) {
+            // a failed save leaves the previous file, which remains valid as trees never change
+            bloomFilters.save(bloomFilterFile());
+        }
+        resources.close();
+        repository.close();
     }
 
 }
@@ -0,0 +1,143 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.CacheStats;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe, weight-bounded, least-recently-used cache.
+ *
+ * <p>Values are loaded outside of the lock, so concurrent misses for the same key may each load the value.</p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class LruCache<K, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<K, V> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long weight;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param maxWeight the total weight of values to retain before evicting the least recently used
+     * @param weigher   the weight of a value
+     */
+    LruCache(final long maxWeight, final ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value for the key, loading it if it is not in the cache.
+     *
+     * @param key    the key
+     * @param loader loads the value when it is not in the cache
+     * @return the value
+     */
+    Result<V> get(final K key, final Callable<V> loader) {
+        return getIfPresent(key)
+                .map(Result::ok)
+                .orElseGet(() -> Result.of(loader).peek(value -> put(key, value)));
+    }
+
+    /**
+     * Returns the value for the key, if it is in the cache.
+     *
+     * @param key the key
+     * @return the value, or nothing if it is not in the cache
+     */
+    Maybe<V> getIfPresent(final K key) {
+        final Maybe<V> value = find(key);
+        if (value.isNothing()) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * A snapshot of the counters for this cache.
+     *
+     * @return the cache counters
+     */
+    synchronized CacheStats stats() {
+        return new CacheStats(hits.get(), misses.get(), weight, maxWeight);
+    }
+
+    /**
+     * Passes each cached key and value to the action, from the least to the most recently used, without affecting
+     * their order.
+     *
+     * @param action the action
+     */
+    synchronized void forEach(final BiConsumer<K, V> action) {
+        entries.forEach(action);
+    }
+
+    private synchronized Maybe<V> find(final K key) {
+        return Maybe.maybe(entries.get(key));
+    }
+
+    /**
+     * Adds the value to the cache, evicting the least recently used values to stay within the maximum weight.
+     *
+     * <p>A value heavier than the maximum weight is not cached.</p>
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    synchronized void put(final K key, final V value) {
+        final long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > maxWeight) {
+            return;
+        }
+        Maybe.maybe(entries.put(key, value))
+                .peek(previous -> weight -= weigher.applyAsLong(previous));
+        weight += valueWeight;
+        final Iterator<V> eldest = entries.values().iterator();
+        while (weight > maxWeight) {
+            weight -= weigher.applyAsLong(eldest.next());
+            eldest.remove();
+        }
+    }
+
+}
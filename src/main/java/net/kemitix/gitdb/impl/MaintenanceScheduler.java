@@ -0,0 +1,196 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.Maintenance;
+import net.kemitix.gitdb.MaintenancePolicy;
+import net.kemitix.gitdb.MaintenanceReport;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static net.kemitix.conditional.Condition.where;
+
+/**
+ * Periodically repacks the object database and prunes unreachable objects.
+ *
+ * <p>Runs on a single low priority daemon thread, and only when one of the thresholds of the policy has been reached.
+ * Refs are not packed, so the branch heads written by GitDB are never touched.</p>
+ *
+ * <p>Where commits are written as packs, the thresholds are also checked as soon as enough packs have been written
+ * to reach the pack file threshold, rather than waiting for the interval.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class MaintenanceScheduler implements Maintenance {
+
+    private static final String THREAD_NAME = "gitdb-maintenance";
+    private static final String NOT_A_FILE_REPOSITORY = "Maintenance requires a file repository";
+
+    private final FileRepository repository;
+    private final MaintenancePolicy policy;
+    private final Consumer<Result<MaintenanceReport>> listener;
+    private final Consumer<MaintenanceScheduler> onClose;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong packsWritten = new AtomicLong();
+    private final Object lifecycle = new Object();
+
+    private MaintenanceScheduler(
+            final FileRepository repository,
+            final MaintenancePolicy policy,
+            final Consumer<Result<MaintenanceReport>> listener,
+            final Consumer<MaintenanceScheduler> onClose
+    ) {
+        this.repository = repository;
+        this.policy = policy;
+        this.listener = listener;
+        this.onClose = onClose;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Start scheduled maintenance of the repository.
+     *
+     * @param repository the Git Repository
+     * @param policy     the thresholds and limits for maintenance
+     * @param listener   receives the report, or the error, from each scheduled run that repacks
+     * @param onClose    told when the scheduled maintenance is closed
+     * @return the handle to the scheduled maintenance
+     */
+    static Result<MaintenanceScheduler> start(
+            final Repository repository,
+            final MaintenancePolicy policy,
+            final Consumer<Result<MaintenanceReport>> listener,
+            final Consumer<MaintenanceScheduler> onClose
+    ) {
+        if (!(repository instanceof FileRepository)) {
+            return Result.error(new UnsupportedOperationException(NOT_A_FILE_REPOSITORY));
+        }
+        final MaintenanceScheduler scheduler =
+                new MaintenanceScheduler((FileRepository) repository, policy, listener, onClose);
+        final long interval = policy.getInterval().toMillis();
+        scheduler.executor.scheduleWithFixedDelay(scheduler::scheduledRun, interval, interval, TimeUnit.MILLISECONDS);
+        return Result.ok(scheduler);
+    }
+
+    /**
+     * Notes that a pack file has been written, checking the thresholds straight away once enough packs have been
+     * written since the last check to reach the pack file threshold.
+     */
+    void packWritten() {
+        if (packsWritten.incrementAndGet() >= policy.getPackFileThreshold()) {
+            packsWritten.set(0);
+            synchronized (lifecycle) {
+                if (!executor.isShutdown()) {
+                    executor.execute(this::scheduledRun);
+                }
+            }
+        }
+    }
+
+    private void scheduledRun() {
+        final Result<MaintenanceReport> report = run(false);
+        report.match(
+                success -> where(success.isPerformed()).then(() -> listener.accept(report)),
+                error -> listener.accept(report));
+    }
+
+    @Override
+    public Result<MaintenanceReport> runNow() {
+        return run(true);
+    }
+
+    @Override
+    public void close() {
+        synchronized (lifecycle) {
+            executor.shutdown();
+        }
+        onClose.accept(this);
+    }
+
+    private synchronized Result<MaintenanceReport> run(final boolean force) {
+        final long start = System.nanoTime();
+        final GC gc = newGC();
+        return Result.of(gc::getStatistics).flatMap(before -> {
+            if (!force && !thresholdReached(before)) {
+                return Result.ok(report(false, before, before, start));
+            }
+            return Result.of(() -> {
+                gc.repack();
+                gc.prune(Collections.emptySet());
+                return gc.getStatistics();
+            }).map(after -> report(true, before, after, start));
+        });
+    }
+
+    private GC newGC() {
+        final GC gc = new GC(repository);
+        final long graceMillis = policy.getPruneGracePeriod().toMillis();
+        gc.setExpireAgeMillis(graceMillis);
+        gc.setPackExpireAgeMillis(graceMillis);
+        gc.setAuto(false);
+        final PackConfig packConfig = new PackConfig(repository);
+        packConfig.setBuildBitmaps(policy.isWriteBitmaps());
+        packConfig.setThreads(policy.getThreads());
+        gc.setPackConfig(packConfig);
+        return gc;
+    }
+
+    private boolean thresholdReached(final GC.RepoStatistics statistics) {
+        return statistics.numberOfLooseObjects >= policy.getLooseObjectThreshold()
+                || statistics.numberOfPackFiles >= policy.getPackFileThreshold()
+                || statistics.sizeOfLooseObjects >= policy.getLooseBytesThreshold();
+    }
+
+    private static MaintenanceReport report(
+            final boolean performed,
+            final GC.RepoStatistics before,
+            final GC.RepoStatistics after,
+            final long start
+    ) {
+        return new MaintenanceReport(
+                performed,
+                before.numberOfLooseObjects,
+                after.numberOfLooseObjects,
+                before.numberOfPackFiles,
+                after.numberOfPackFiles,
+                before.sizeOfLooseObjects + before.sizeOfPackedObjects,
+                after.sizeOfLooseObjects + after.sizeOfPackedObjects,
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+}
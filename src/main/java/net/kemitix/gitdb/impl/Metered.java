@@ -0,0 +1,80 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.mon.result.Result;
+
+import java.util.function.Supplier;
+
+/**
+ * Times operations and phases, reporting them to the metrics.
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class Metered {
+
+    private Metered() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Performs and times the operation.
+     *
+     * @param metrics   the metrics to report to
+     * @param operation the operation being performed
+     * @param action    performs the operation
+     * @param <T>       the type of the result of the operation
+     * @return the result of the operation
+     */
+    static <T> Result<T> operation(
+            final GitDBMetrics metrics,
+            final GitDBMetrics.Operation operation,
+            final Supplier<Result<T>> action
+    ) {
+        final long start = System.nanoTime();
+        final Result<T> result = action.get();
+        metrics.operation(operation, System.nanoTime() - start, result.isOkay());
+        return result;
+    }
+
+    /**
+     * Performs and times the phase.
+     *
+     * @param metrics the metrics to report to
+     * @param phase   the phase being performed
+     * @param action  performs the phase
+     * @param <T>     the type of the result of the phase
+     * @return the result of the phase
+     */
+    static <T> Result<T> phase(
+            final GitDBMetrics metrics,
+            final GitDBMetrics.Phase phase,
+            final Supplier<Result<T>> action
+    ) {
+        final long start = System.nanoTime();
+        final Result<T> result = action.get();
+        metrics.phase(phase, System.nanoTime() - start);
+        return result;
+    }
+
+}
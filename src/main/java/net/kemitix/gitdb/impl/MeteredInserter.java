@@ -0,0 +1,78 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBMetrics;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An inserter that reports each object it inserts to the metrics.
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class MeteredInserter extends ObjectInserter.Filter {
+
+    private final ObjectInserter delegate;
+    private final GitDBMetrics metrics;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param delegate the inserter to insert objects with
+     * @param metrics  the metrics to report to
+     */
+    MeteredInserter(final ObjectInserter delegate, final GitDBMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected ObjectInserter delegate() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectId insert(final int type, final byte[] data) throws IOException {
+        return inserted(type, data.length, super.insert(type, data));
+    }
+
+    @Override
+    public ObjectId insert(final int type, final byte[] data, final int off, final int len) throws IOException {
+        return inserted(type, len, super.insert(type, data, off, len));
+    }
+
+    @Override
+    public ObjectId insert(final int type, final long length, final InputStream in) throws IOException {
+        return inserted(type, length, super.insert(type, length, in));
+    }
+
+    private ObjectId inserted(final int type, final long length, final ObjectId objectId) {
+        metrics.objectInserted(Constants.typeString(type), length);
+        return objectId;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package net.kemitix.gitdb.impl;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+import java.util.function.Predicate;
+
+/**
+ * A run of entry names that are next to each other when sorted, such as those that share a prefix.
+ *
+ * <p>Tree entries are kept in order of name, so the names within a tree can be found by seeking to the first name of
+ * the run and stopping at the first name after it.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class NameRange {
+
+    private final String from;
+    private final Predicate<String> contains;
+
+    /**
+     * The names that start with the prefix.
+     *
+     * @param prefix the prefix of the names
+     * @return the range
+     */
+    static NameRange prefix(final String prefix) {
+        return new NameRange(prefix, name -> name.startsWith(prefix));
+    }
+
+    /**
+     * The names from the lower bound, and before the upper bound.
+     *
+     * @param fromInclusive the lowest name
+     * @param toExclusive   the name after the highest name
+     * @return the range
+     */
+    static NameRange between(final String fromInclusive, final String toExclusive) {
+        return new NameRange(fromInclusive,
+                name -> name.compareTo(fromInclusive) >= 0 && name.compareTo(toExclusive) < 0);
+    }
+
+    /**
+     * The lowest name that could be within the range.
+     *
+     * @return the name
+     */
+    String from() {
+        return from;
+    }
+
+    /**
+     * Whether the name is within the range.
+     *
+     * @param name the name
+     * @return true if the name is within the range
+     */
+    boolean contains(final String name) {
+        return contains.test(name);
+    }
+
+}
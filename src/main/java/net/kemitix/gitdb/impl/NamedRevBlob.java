@@ -25,10 +25,8 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import net.kemitix.mon.result.Result;
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.ObjectLoader;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevBlob;
+
+import java.nio.charset.StandardCharsets;
 
 /**
  * Represents the key/value pairs read from the tree.
@@ -41,18 +39,20 @@ class NamedRevBlob {
     @Getter
     private final String name;
     @Getter
-    private final RevBlob revBlob;
-    private final Repository repository;
+    private final ValueId valueId;
+    private final ValueCache valueCache;
 
     /**
-     * Converts the blob to a String.
+     * Converts the value to a String.
+     *
+     * <p>The value, whether a blob or a tree of chunks, is read through the value cache, only being read from the
+     * repository when not already cached.</p>
      *
      * @return a string
      */
     Result<String> blobAsString() {
-        return Result.of(() -> repository.open(revBlob.getId(), Constants.OBJ_BLOB))
-                .map(ObjectLoader::getBytes)
-                .map(String::new);
+        return valueCache.read(valueId)
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8));
     }
 
 }
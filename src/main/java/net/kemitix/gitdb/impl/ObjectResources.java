@@ -0,0 +1,337 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.gitdb.GitDBOptions;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * The inserters and readers of a GitDB, shared by all of its branches.
+ *
+ * <p>Each write operation is given inserters of its own, created when first needed and released when the operation
+ * ends, so all the objects written by an operation are flushed together by its commit. Where the operation fails, or
+ * ends without a commit, any objects it inserted that are still held by its inserters are discarded with them.</p>
+ *
+ * <p>Each thread is given a reader of its own, created when first needed and reused for every read on that thread
+ * after. A reader holds no files open, so is dropped along with its thread. All are released when the GitDB is closed,
+ * after which no more inserters or readers are given out.</p>
+ *
+ * <p>Values to be compressed at other than the level of the GitDB are given an inserter of that level, also one per
+ * operation, as an inserter compresses every object at the same level. These are flushed along with the operation's
+ * main inserter.</p>
+ *
+ * <p>A loose object takes its level from the configuration it is written with, so loose objects to be written at a
+ * level of their own are written through an object directory over the same files, whose configuration sets that level
+ * on top of the repository's. The configuration of the repository itself is never changed.</p>
+ *
+ * <p>Pack inserters are internal to JGit ({@code org.eclipse.jgit.internal}), with no guarantee of compatibility
+ * between JGit versions, so may need revisiting whenever JGit is upgraded. Each flush that writes through one adds a
+ * pack file, which the listeners for written packs are told about, so maintenance can consolidate them.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class ObjectResources implements AutoCloseable {
+
+    private static final String CLOSED = "GitDB is closed";
+
+    private final Repository repository;
+    private final boolean packedWrites;
+    private final GitDBMetrics metrics;
+    private final int compressionLevel;
+    private final ThreadLocal<WriteOperation> operations = new ThreadLocal<>();
+    private final Set<WriteOperation> openOperations = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<ObjectReader> readers = new ThreadLocal<>();
+    // held weakly, so the reader of a thread that has ended is forgotten along with it
+    private final Set<ObjectReader> openReaders =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final Map<Integer, ObjectDirectory> looseByLevel = new ConcurrentHashMap<>();
+    private final List<Runnable> packListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param repository the Git Repository
+     * @param options    the options the GitDB was opened with
+     */
+    ObjectResources(final Repository repository, final GitDBOptions options) {
+        this.repository = repository;
+        packedWrites = options.isPackedWrites();
+        metrics = options.getMetrics();
+        compressionLevel = options.getCompression().getLevel();
+    }
+
+    /**
+     * Performs the write operation, giving it inserters of its own that are released when it ends.
+     *
+     * <p>Objects inserted by the operation are only written to the repository once it flushes them, ahead of its
+     * commit, so where it fails before then they are discarded rather than being flushed by a later, unrelated,
+     * operation. A write operation performed within another is part of that operation.</p>
+     *
+     * @param operation the write operation
+     * @param <T>       the type of the result of the operation
+     * @return the result of the operation, or an error if the GitDB is closed
+     */
+    <T> Result<T> write(final Supplier<Result<T>> operation) {
+        if (operations.get() != null) {
+            return operation.get();
+        }
+        final WriteOperation started = new WriteOperation();
+        openOperations.add(started);
+        operations.set(started);
+        try {
+            if (closed) {
+                // checked once registered, so either close() releases it, or this sees that it has been closed
+                return Result.error(new IllegalStateException(CLOSED));
+            }
+            return operation.get();
+        } finally {
+            operations.remove();
+            openOperations.remove(started);
+            started.close();
+        }
+    }
+
+    /**
+     * The main inserter of the current write operation.
+     *
+     * @return the inserter
+     */
+    ObjectInserter inserter() {
+        final WriteOperation operation = currentOperation();
+        if (operation.inserter == null) {
+            operation.inserter = newInserter();
+        }
+        return operation.inserter;
+    }
+
+    /**
+     * The inserter of the current write operation that compresses objects at the level.
+     *
+     * <p>Where the level is that of the GitDB, or the repository is not stored in files, this is the main inserter of
+     * the operation.</p>
+     *
+     * <p>Otherwise, where the GitDB writes packs, this is a pack inserter, so each commit that writes a value at another
+     * level also writes a small pack file, until maintenance repacks them. Where it writes loose objects, this is a loose
+     * inserter for the level.</p>
+     *
+     * @param level the zlib compression level, or -1 for the level of the GitDB
+     * @return the inserter
+     */
+    ObjectInserter inserter(final int level) {
+        final ObjectDatabase objectDatabase = repository.getObjectDatabase();
+        if (level < 0 || level == compressionLevel || !(objectDatabase instanceof ObjectDirectory)) {
+            return inserter();
+        }
+        return currentOperation().byLevel.computeIfAbsent(level, x -> {
+            if (!packedWrites) {
+                return metered(looseObjectsAt(level).newInserter());
+            }
+            final PackInserter inserter = ((ObjectDirectory) objectDatabase).newPackInserter();
+            inserter.setCompressionLevel(level);
+            return metered(inserter);
+        });
+    }
+
+    /**
+     * Flushes the objects inserted by the current write operation to the repository.
+     *
+     * <p>The inserters for other compression levels are flushed before the main inserter, whose trees and commits may
+     * refer to their values.</p>
+     *
+     * @throws IOException if there is an error writing the objects
+     */
+    void flush() throws IOException {
+        final WriteOperation operation = currentOperation();
+        for (final ObjectInserter inserter : operation.byLevel.values()) {
+            inserter.flush();
+        }
+        if (operation.inserter != null) {
+            operation.inserter.flush();
+        }
+        if (packedWrites) {
+            packListeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Adds a listener to be told each time a flush writes pack files.
+     *
+     * @param listener the listener
+     */
+    void addPackListener(final Runnable listener) {
+        packListeners.add(listener);
+    }
+
+    /**
+     * The reader for the current thread.
+     *
+     * @return the reader
+     */
+    ObjectReader reader() {
+        checkOpen();
+        final ObjectReader existing = readers.get();
+        if (existing != null) {
+            return existing;
+        }
+        final ObjectReader created = repository.newObjectReader();
+        readers.set(created);
+        openReaders.add(created);
+        if (closed) {
+            // closed while this was created, so close() may have missed it
+            readers.remove();
+            openReaders.remove(created);
+            created.close();
+            throw new IllegalStateException(CLOSED);
+        }
+        return created;
+    }
+
+    private WriteOperation currentOperation() {
+        checkOpen();
+        final WriteOperation operation = operations.get();
+        if (operation == null) {
+            throw new IllegalStateException("Objects may only be inserted by a write operation");
+        }
+        return operation;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(CLOSED);
+        }
+    }
+
+    /**
+     * Creates an inserter.
+     *
+     * <p>A pack inserter holds the objects it is given until it is flushed, then writes them all as a single pack
+     * file with its index. Otherwise each object is written to its own loose object file as it is inserted. Either way,
+     * objects are compressed at the level of the GitDB, where it has one.</p>
+     *
+     * @return the inserter
+     */
+    private ObjectInserter newInserter() {
+        final ObjectDatabase objectDatabase = repository.getObjectDatabase();
+        if (packedWrites && objectDatabase instanceof ObjectDirectory) {
+            final PackInserter inserter = ((ObjectDirectory) objectDatabase).newPackInserter();
+            if (compressionLevel >= 0) {
+                inserter.setCompressionLevel(compressionLevel);
+            }
+            return metered(inserter);
+        }
+        if (compressionLevel >= 0 && objectDatabase instanceof ObjectDirectory) {
+            return metered(looseObjectsAt(compressionLevel).newInserter());
+        }
+        return metered(objectDatabase.newInserter());
+    }
+
+    /**
+     * The object directory, over the same files as the repository, that writes loose objects at the level.
+     *
+     * <p>Its configuration is a copy of the repository's with the level set, leaving the repository's unchanged.</p>
+     *
+     * @param level the zlib compression level
+     * @return the object directory
+     */
+    private ObjectDirectory looseObjectsAt(final int level) {
+        return looseByLevel.computeIfAbsent(level, x -> {
+            final Config config = new Config(repository.getConfig());
+            config.setInt(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_COMPRESSION, level);
+            try {
+                return new ObjectDirectory(config, ((ObjectDirectory) repository.getObjectDatabase()).getDirectory(),
+                        null, repository.getFS(), null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Wraps the inserter to report each object inserted to the metrics, unless there are none.
+     *
+     * @param inserter the inserter to insert objects with
+     * @return the inserter, reporting to the metrics where there are any
+     */
+    private ObjectInserter metered(final ObjectInserter inserter) {
+        if (metrics == GitDBMetrics.NONE) {
+            return inserter;
+        }
+        return new MeteredInserter(inserter, metrics);
+    }
+
+    /**
+     * Releases the inserters of every write operation and the readers of every thread.
+     *
+     * <p>Objects inserted but not yet committed are discarded.</p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        openOperations.forEach(WriteOperation::close);
+        synchronized (openReaders) {
+            openReaders.forEach(ObjectReader::close);
+            openReaders.clear();
+        }
+        readers.remove();
+        looseByLevel.values().forEach(ObjectDirectory::close);
+    }
+
+    /**
+     * The inserters of one write operation.
+     */
+    private static final class WriteOperation {
+
+        // created by the thread of the operation, but closed by whichever thread releases them
+        private final Map<Integer, ObjectInserter> byLevel = new ConcurrentHashMap<>();
+        private volatile ObjectInserter inserter;
+
+        void close() {
+            byLevel.values().forEach(ObjectInserter::close);
+            if (inserter != null) {
+                inserter.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.SecondaryIndex;
+import net.kemitix.mon.maybe.Maybe;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The secondary indexes declared on a branch, and where their entries are placed within its tree.
+ *
+ * <p>Each index is a subtree of the root tree, named after the index. Within it, each term has a subtree holding an
+ * entry for each key whose value has the term. An entry refers to the same blob as the key does, so indexing a value
+ * writes no additional blobs, and a query reads the values without reading the trees of the keys. Both the terms and
+ * the entries within each term are placed by the layout of the branch, so updating an entry only rewrites the trees
+ * on its path.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class SecondaryIndexes {
+
+    /**
+     * The prefix of the name of the subtree of each index within the root tree.
+     */
+    static final String INDEX_PREFIX = "index:";
+
+    /**
+     * The prefix of the name of each entry within the subtree of a term.
+     */
+    static final String ENTRY_PREFIX = "ref:";
+
+    private static final String TERM_PREFIX = "term:";
+    private static final String MARKER = "GitDB.Index";
+    private static final String SEPARATOR = "/";
+
+    private final Map<String, SecondaryIndex> indexes;
+    private final TreeLayout treeLayout;
+
+    private SecondaryIndexes(final Map<String, SecondaryIndex> indexes, final TreeLayout treeLayout) {
+        this.indexes = indexes;
+        this.treeLayout = treeLayout;
+    }
+
+    /**
+     * No indexes.
+     *
+     * @param treeLayout the layout of the branch
+     * @return the indexes
+     */
+    static SecondaryIndexes none(final TreeLayout treeLayout) {
+        return new SecondaryIndexes(Collections.emptyMap(), treeLayout);
+    }
+
+    /**
+     * These indexes, with the index added, replacing any of the same name.
+     *
+     * @param index the index
+     * @return the indexes
+     */
+    SecondaryIndexes with(final SecondaryIndex index) {
+        final Map<String, SecondaryIndex> added = new LinkedHashMap<>(indexes);
+        added.put(index.getName(), index);
+        return new SecondaryIndexes(Collections.unmodifiableMap(added), treeLayout);
+    }
+
+    /**
+     * These indexes, placed using the layout.
+     *
+     * @param layout the layout of the branch
+     * @return the indexes
+     */
+    SecondaryIndexes withLayout(final TreeLayout layout) {
+        return new SecondaryIndexes(indexes, layout);
+    }
+
+    /**
+     * Whether no indexes have been declared.
+     *
+     * @return true if there are no indexes
+     */
+    boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    /**
+     * Whether an index with the name has been declared.
+     *
+     * @param name the name of the index
+     * @return true if the index has been declared
+     */
+    boolean contains(final String name) {
+        return indexes.containsKey(name);
+    }
+
+    /**
+     * The path of the blob that marks the index as having been built.
+     *
+     * @param name the name of the index
+     * @return the path
+     */
+    static String markerPath(final String name) {
+        return INDEX_PREFIX + name + SEPARATOR + MARKER;
+    }
+
+    /**
+     * The path of the subtree holding the entries for the term.
+     *
+     * @param name the name of the index
+     * @param term the term
+     * @return the path
+     */
+    String termPath(final String name, final String term) {
+        return INDEX_PREFIX + name + SEPARATOR + treeLayout.path(TERM_PREFIX + encode(term));
+    }
+
+    private String entryPath(final String name, final String term, final String key) {
+        return termPath(name, term) + SEPARATOR + treeLayout.path(ENTRY_PREFIX + key);
+    }
+
+    /**
+     * Adds the updates to the entries of every index for a change to the value of a key.
+     *
+     * @param updates    the updates to add to, the value id for each path, or nothing to remove the path
+     * @param key        the key
+     * @param oldValue   the value the key had, or nothing if it had none
+     * @param newValueId the id of the new value, or nothing if the key is being removed
+     * @param newValue   the new value, or nothing if the key is being removed
+     */
+    void addUpdates(
+            final Map<String, Maybe<ValueId>> updates,
+            final String key,
+            final Maybe<String> oldValue,
+            final Maybe<ValueId> newValueId,
+            final Maybe<String> newValue
+    ) {
+        indexes.values().forEach(index -> {
+            final Set<String> newTerms = terms(index, newValue);
+            terms(index, oldValue).stream()
+                    .filter(term -> !newTerms.contains(term))
+                    .forEach(term -> updates.put(entryPath(index.getName(), term, key), Maybe.nothing()));
+            newTerms.forEach(term -> updates.put(entryPath(index.getName(), term, key), newValueId));
+        });
+    }
+
+    /**
+     * Adds the entries of the index for the value of a key, for building the index.
+     *
+     * @param updates the updates to add to
+     * @param name    the name of the index
+     * @param key     the key
+     * @param valueId the id of the value
+     * @param value   the value
+     */
+    void addEntries(
+            final Map<String, Maybe<ValueId>> updates,
+            final String name,
+            final String key,
+            final ValueId valueId,
+            final String value
+    ) {
+        terms(indexes.get(name), Maybe.just(value))
+                .forEach(term -> updates.put(entryPath(name, term, key), Maybe.just(valueId)));
+    }
+
+    private static Set<String> terms(final SecondaryIndex index, final Maybe<String> value) {
+        return value
+                .map(v -> (Set<String>) new HashSet<>(nonNull(index.getExtractor().apply(v))))
+                .orElseGet(Collections::emptySet);
+    }
+
+    private static Collection<String> nonNull(final Collection<String> terms) {
+        return terms == null ? Collections.emptySet() : terms;
+    }
+
+    /**
+     * Escapes the characters that may not appear within the name of a tree entry.
+     *
+     * @param term the term
+     * @return the escaped term
+     */
+    private static String encode(final String term) {
+        return term.replace("%", "%25")
+                .replace("/", "%2F")
+                .replace("\u0000", "%00");
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.CacheStats;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.CheckedErrorResultException;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves paths to blobs using a cache of the entries within each tree, keyed by the id of the tree.
+ *
+ * <p>Trees and commits are immutable, so a cached tree never needs to be invalidated. Trees from old versions of a
+ * branch are evicted once they have been the least recently used, keeping the total number of cached entries
+ * bounded.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class TreeIndexCache {
+
+    private static final long DEFAULT_MAX_COMMITS = 1_024;
+    private static final String SEPARATOR = "/";
+
+    private final ObjectResources resources;
+    private final LruCache<ObjectId, ObjectId> commitTrees;
+    private final LruCache<ObjectId, TreeIndex> trees;
+    private final BloomFilterCache bloomFilters;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param resources  the readers to read trees with
+     * @param maxEntries the total number of tree entries to retain
+     */
+    TreeIndexCache(final ObjectResources resources, final long maxEntries) {
+        this(resources, maxEntries, BloomFilterCache.disabled());
+    }
+
+    /**
+     * Create new instance of this class.
+     *
+     * <p>A filter is added for each tree as it is read, and consulted before reading any tree when resolving a path, so
+     * most absent paths are resolved without reading the tree they would be in.</p>
+     *
+     * @param resources    the readers to read trees with
+     * @param maxEntries   the total number of tree entries to retain
+     * @param bloomFilters the filters of the names within trees
+     */
+    TreeIndexCache(final ObjectResources resources, final long maxEntries, final BloomFilterCache bloomFilters) {
+        this.resources = resources;
+        this.bloomFilters = bloomFilters;
+        commitTrees = new LruCache<>(DEFAULT_MAX_COMMITS, treeId -> 1);
+        trees = new LruCache<>(maxEntries, TreeIndex::size);
+    }
+
+    /**
+     * Finds the blob at the path within the tree of the commit.
+     *
+     * @param commitId the commit to read
+     * @param path     the path of the blob
+     * @return the id of the blob, or nothing if there is no blob at the path
+     */
+    Result<Maybe<ObjectId>> findBlob(final ObjectId commitId, final String path) {
+        return commitTree(commitId)
+                .flatMap(rootId -> findBlob(this::tree, rootId, Arrays.asList(path.split(SEPARATOR)).iterator()));
+    }
+
+    /**
+     * Finds the blob at the path within the tree, reading any trees not already cached through the reader.
+     *
+     * @param reader     the reader for trees not already cached
+     * @param rootTreeId the root tree to read
+     * @param path       the path of the blob
+     * @return the id of the blob, or nothing if there is no blob at the path
+     */
+    Result<Maybe<ObjectId>> findBlob(final ObjectReader reader, final ObjectId rootTreeId, final String path) {
+        return findBlob(treeId -> tree(reader, treeId), rootTreeId, Arrays.asList(path.split(SEPARATOR)).iterator());
+    }
+
+    /**
+     * Finds the blobs, anywhere within the tree of the commit, whose names are within the range.
+     *
+     * <p>Only the entries of the trees are read, not the blobs. Where more blobs match than the limit, those with the
+     * lowest names are kept.</p>
+     *
+     * <p>Every subtree is visited, as the names of a sharded branch are spread across its trees by their hash. Within
+     * each tree, only the names from the start of the range are visited, stopping at the end of the range or once the
+     * names are after those already kept up to the limit.</p>
+     *
+     * @param commitId the commit to read
+     * @param names    the names of the blobs to find
+     * @param limit    the most blobs to find
+     * @return the id of each blob found, by its name, in order of name
+     */
+    Result<SortedMap<String, ObjectId>> findBlobs(
+            final ObjectId commitId,
+            final NameRange names,
+            final int limit
+    ) {
+        return commitTree(commitId).flatMap(rootId -> findBlobs(this::tree, rootId, names, limit));
+    }
+
+    /**
+     * Finds the blobs, anywhere beneath the subtree at the path within the tree of the commit, whose names match.
+     *
+     * <p>Only the trees on the path to the subtree, and those beneath it, are read.</p>
+     *
+     * @param commitId the commit to read
+     * @param treePath the path of the subtree
+     * @param names    the names of the blobs to find
+     * @param limit    the most blobs to find
+     * @return the id of each blob found, by its name, in order of name, or none if there is no subtree at the path
+     */
+    Result<SortedMap<String, ObjectId>> findBlobs(
+            final ObjectId commitId,
+            final String treePath,
+            final NameRange names,
+            final int limit
+    ) {
+        return commitTree(commitId)
+                .flatMap(rootId -> findTree(rootId, Arrays.asList(treePath.split(SEPARATOR)).iterator()))
+                .flatMap(treeId -> treeId
+                        .map(id -> findBlobs(this::tree, id, names, limit))
+                        .orElseGet(() -> Result.ok(new TreeMap<>())));
+    }
+
+    /**
+     * Finds the blobs, anywhere within the tree, whose names are within the range, reading any trees not already cached
+     * through the reader.
+     *
+     * @param reader     the reader for trees not already cached
+     * @param rootTreeId the root tree to read
+     * @param names      the names of the blobs to find
+     * @param limit      the most blobs to find
+     * @return the id of each blob found, by its name, in order of name
+     */
+    Result<SortedMap<String, ObjectId>> findBlobs(
+            final ObjectReader reader,
+            final ObjectId rootTreeId,
+            final NameRange names,
+            final int limit
+    ) {
+        return findBlobs(treeId -> tree(reader, treeId), rootTreeId, names, limit);
+    }
+
+    /**
+     * Finds the subtrees of the root tree of the commit whose names are within the range.
+     *
+     * @param commitId the commit to read
+     * @param names    the names of the subtrees to find
+     * @return the names of the subtrees, in order
+     */
+    Result<List<String>> findRootSubtrees(final ObjectId commitId, final NameRange names) {
+        return commitTree(commitId)
+                .flatMap(this::tree)
+                .map(index -> index.subtrees.keySet().stream()
+                        .filter(names::contains)
+                        .sorted()
+                        .collect(Collectors.toList()));
+    }
+
+    private Result<SortedMap<String, ObjectId>> findBlobs(
+            final Function<ObjectId, Result<TreeIndex>> treeLoader,
+            final ObjectId rootId,
+            final NameRange names,
+            final int limit
+    ) {
+        return Result.of(() -> {
+            final TreeMap<String, ObjectId> found = new TreeMap<>();
+            collectBlobs(treeLoader, rootId, names, limit, found);
+            return found;
+        });
+    }
+
+    private void collectBlobs(
+            final Function<ObjectId, Result<TreeIndex>> treeLoader,
+            final ObjectId treeId,
+            final NameRange names,
+            final int limit,
+            final TreeMap<String, ObjectId> found
+    ) throws CheckedErrorResultException {
+        final TreeIndex index = treeLoader.apply(treeId).orElseThrow();
+        for (final Map.Entry<String, ObjectId> blob : index.blobs.tailMap(names.from()).entrySet()) {
+            final String name = blob.getKey();
+            if (!names.contains(name) || isAfterLimit(limit, found, name)) {
+                break;
+            }
+            addFound(names, limit, found, name, blob.getValue());
+        }
+        for (final Map.Entry<String, ObjectId> subtree : index.subtrees.entrySet()) {
+            final String name = subtree.getKey();
+            if (ValueChunker.isValueName(name)) {
+                // a value split into chunks
+                addFound(names, limit, found, name, subtree.getValue());
+            } else if (!name.startsWith(SecondaryIndexes.INDEX_PREFIX)) {
+                collectBlobs(treeLoader, subtree.getValue(), names, limit, found);
+            }
+        }
+    }
+
+    private static boolean isAfterLimit(final int limit, final TreeMap<String, ObjectId> found, final String name) {
+        return found.size() >= limit && name.compareTo(found.lastKey()) > 0;
+    }
+
+    private static void addFound(
+            final NameRange names,
+            final int limit,
+            final TreeMap<String, ObjectId> found,
+            final String name,
+            final ObjectId valueId
+    ) {
+        if (names.contains(name)) {
+            found.put(name, valueId);
+            if (found.size() > limit) {
+                found.pollLastEntry();
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the counters for the cached trees.
+     *
+     * @return the cache counters
+     */
+    CacheStats stats() {
+        return trees.stats();
+    }
+
+    /**
+     * Finds the root tree of the commit.
+     *
+     * @param commitId the commit
+     * @return the id of the root tree
+     */
+    Result<ObjectId> commitTree(final ObjectId commitId) {
+        return commitTrees.get(commitId, () -> {
+            try (RevWalk revWalk = new RevWalk(resources.reader())) {
+                return revWalk.parseCommit(commitId).getTree().copy();
+            }
+        });
+    }
+
+    private Result<Maybe<ObjectId>> findBlob(
+            final Function<ObjectId, Result<TreeIndex>> treeLoader,
+            final ObjectId treeId,
+            final Iterator<String> names
+    ) {
+        final String name = names.next();
+        if (!bloomFilters.mightContain(treeId, name)) {
+            return Result.ok(Maybe.nothing());
+        }
+        return treeLoader.apply(treeId).flatMap(index -> {
+            if (names.hasNext()) {
+                return index.subtree(name)
+                        .map(subtreeId -> findBlob(treeLoader, subtreeId, names))
+                        .orElseGet(() -> Result.ok(Maybe.nothing()));
+            }
+            return Result.ok(index.value(name));
+        });
+    }
+
+    private Result<Maybe<ObjectId>> findTree(final ObjectId treeId, final Iterator<String> names) {
+        if (!names.hasNext()) {
+            return Result.ok(Maybe.just(treeId));
+        }
+        final String name = names.next();
+        if (!bloomFilters.mightContain(treeId, name)) {
+            return Result.ok(Maybe.nothing());
+        }
+        return tree(treeId).flatMap(index -> index.subtree(name)
+                .map(subtreeId -> findTree(subtreeId, names))
+                .orElseGet(() -> Result.ok(Maybe.nothing())));
+    }
+
+    private Result<TreeIndex> tree(final ObjectId treeId) {
+        return trees.get(treeId, () -> readTree(resources.reader(), treeId));
+    }
+
+    private Result<TreeIndex> tree(final ObjectReader reader, final ObjectId treeId) {
+        return trees.get(treeId, () -> {
+            synchronized (reader) {
+                return readTree(reader, treeId);
+            }
+        });
+    }
+
+    private TreeIndex readTree(final ObjectReader reader, final ObjectId treeId) throws IOException {
+        final TreeIndex index = TreeIndex.read(reader, treeId);
+        bloomFilters.add(treeId, index.names());
+        return index;
+    }
+
+    /**
+     * The entries of a single tree.
+     */
+    private static final class TreeIndex {
+
+        private final TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        private final Map<String, ObjectId> subtrees = new HashMap<>();
+
+        static TreeIndex read(final ObjectReader reader, final ObjectId treeId) throws IOException {
+            final TreeIndex index = new TreeIndex();
+            final CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, treeId);
+            while (!parser.eof()) {
+                final Map<String, ObjectId> entries = FileMode.TREE.equals(parser.getEntryFileMode())
+                        ? index.subtrees
+                        : index.blobs;
+                entries.put(parser.getEntryPathString(), parser.getEntryObjectId());
+                parser.next();
+            }
+            return index;
+        }
+
+        Maybe<ObjectId> blob(final String name) {
+            return Maybe.maybe(blobs.get(name));
+        }
+
+        Maybe<ObjectId> value(final String name) {
+            final Maybe<ObjectId> blob = blob(name);
+            if (blob.isJust()) {
+                return blob;
+            }
+            return subtree(name);
+        }
+
+        Maybe<ObjectId> subtree(final String name) {
+            return Maybe.maybe(subtrees.get(name));
+        }
+
+        Collection<String> names() {
+            final List<String> names = new ArrayList<>(blobs.keySet());
+            names.addAll(subtrees.keySet());
+            return names;
+        }
+
+        long size() {
+            return (long) blobs.size() + subtrees.size();
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import com.github.zafarkhaja.semver.Version;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import net.kemitix.mon.maybe.Maybe;
+import org.eclipse.jgit.lib.Constants;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps entry names onto their location within the tree of a branch.
+ *
+ * <p>Format version 1 places every entry directly in the root tree. From format version 2 entries are placed
+ * beneath subtrees named after the leading bytes of the SHA-1 of the entry name, so that an update only needs to
+ * rewrite the trees on the path from the root to the one leaf tree holding the entry.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class TreeLayout {
+
+    private static final int SHARDED_SINCE_MAJOR = 2;
+    private static final int SHARD_LEVELS = 2;
+    private static final int BYTE_MASK = 0xff;
+    private static final String SHARD_FORMAT = "%02x/";
+
+    private static final TreeLayout FLAT = new TreeLayout(0);
+    private static final TreeLayout SHARDED = new TreeLayout(SHARD_LEVELS);
+
+    private final int levels;
+
+    /**
+     * Selects the layout used by the given format version.
+     *
+     * @param version the format version of the branch, if it has one
+     * @return the layout
+     */
+    static TreeLayout forVersion(final Maybe<Version> version) {
+        return version
+                .filter(v -> v.getMajorVersion() >= SHARDED_SINCE_MAJOR)
+                .map(v -> SHARDED)
+                .orElse(FLAT);
+    }
+
+    /**
+     * The path, relative to the root tree, where the named entry is stored.
+     *
+     * @param name the name of the entry
+     * @return the path to the entry
+     */
+    String path(final String name) {
+        final StringBuilder path = new StringBuilder();
+        final byte[] hash = Constants.newMessageDigest()
+                .digest(name.getBytes(StandardCharsets.UTF_8));
+        for (int level = 0; level < levels; level++) {
+            path.append(String.format(SHARD_FORMAT, hash[level] & BYTE_MASK));
+        }
+        return path.append(name).toString();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.mon.maybe.Maybe;
+import net.kemitix.mon.result.Result;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.Paths;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Rewrites the trees along the paths from the root tree of a branch to the entries being updated.
+ *
+ * <p>Only the trees on those paths are read and inserted, every other entry keeps referring to its existing object.
+ * Each tree is read and written once, however many of the updates fall within it. Subtrees that become empty are
+ * dropped from their parent. Each tree rewritten is reported to the metrics.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@RequiredArgsConstructor
+class TreePathWriter {
+
+    private static final String SEPARATOR = "/";
+
+    private final Supplier<ObjectInserter> objectInserter;
+    private final GitDBMetrics metrics;
+
+    /**
+     * Writes the values into the tree at their paths, replacing any existing entries.
+     *
+     * <p>Paths without a value id have their entry removed.</p>
+     *
+     * @param branchRef the branch whose tree should be updated
+     * @param updates   the value id to place at each path, or nothing to remove the entry at the path
+     * @return the id of the updated root tree, or nothing if the updates left the tree unchanged
+     */
+    Result<Maybe<ObjectId>> update(final Ref branchRef, final Map<String, Maybe<ValueId>> updates) {
+        return Result.of(() -> {
+            try (ObjectReader reader = objectInserter.get().newReader();
+                 RevWalk revWalk = new RevWalk(reader)) {
+                final ObjectId rootId = revWalk.parseCommit(branchRef.getObjectId()).getTree();
+                final ObjectId updatedId = insertTree(updateEntries(reader, Maybe.just(rootId), splitPaths(updates)));
+                return Maybe.just(updatedId)
+                        .filter(id -> !id.equals(rootId));
+            }
+        });
+    }
+
+    private static Map<List<String>, Maybe<ValueId>> splitPaths(final Map<String, Maybe<ValueId>> updates) {
+        final Map<List<String>, Maybe<ValueId>> split = new HashMap<>();
+        updates.forEach((path, valueId) -> split.put(Arrays.asList(path.split(SEPARATOR)), valueId));
+        return split;
+    }
+
+    private Map<String, Entry> updateEntries(
+            final ObjectReader reader,
+            final Maybe<ObjectId> treeId,
+            final Map<List<String>, Maybe<ValueId>> updates
+    ) throws IOException {
+        final Map<String, Entry> entries = readEntries(reader, treeId);
+        final Map<String, Map<List<String>, Maybe<ValueId>>> subtreeUpdates = new HashMap<>();
+        for (final Map.Entry<List<String>, Maybe<ValueId>> update : updates.entrySet()) {
+            final List<String> names = update.getKey();
+            final String name = names.get(0);
+            if (names.size() == 1) {
+                setEntry(entries, name, update.getValue());
+            } else {
+                subtreeUpdates.computeIfAbsent(name, x -> new HashMap<>())
+                        .put(names.subList(1, names.size()), update.getValue());
+            }
+        }
+        for (final Map.Entry<String, Map<List<String>, Maybe<ValueId>>> subtree : subtreeUpdates.entrySet()) {
+            final String name = subtree.getKey();
+            final Maybe<ObjectId> subtreeId = Maybe.maybe(entries.get(name))
+                    .filter(entry -> FileMode.TREE.equals(entry.getMode()))
+                    .map(Entry::getId);
+            final Map<String, Entry> subtreeEntries = updateEntries(reader, subtreeId, subtree.getValue());
+            setEntry(entries, name, FileMode.TREE, insertSubtree(subtreeEntries));
+        }
+        return entries;
+    }
+
+    private static Map<String, Entry> readEntries(
+            final ObjectReader reader,
+            final Maybe<ObjectId> treeId
+    ) throws IOException {
+        final Map<String, Entry> entries = new HashMap<>();
+        if (treeId.isJust()) {
+            final CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, treeId.orElse(null));
+            while (!parser.eof()) {
+                final String name = parser.getEntryPathString();
+                entries.put(name, new Entry(name, parser.getEntryFileMode(), parser.getEntryObjectId()));
+                parser.next();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Sets the entry for a value, which is a tree where the value has been split into chunks.
+     *
+     * @param entries the entries of the tree
+     * @param name    the name of the entry
+     * @param valueId the id of the value, or nothing if it is being removed
+     */
+    private static void setEntry(final Map<String, Entry> entries, final String name, final Maybe<ValueId> valueId) {
+        setEntry(entries, name, valueId.map(ValueId::getMode).orElse(FileMode.REGULAR_FILE),
+                valueId.map(ValueId::getObjectId));
+    }
+
+    private static void setEntry(
+            final Map<String, Entry> entries,
+            final String name,
+            final FileMode mode,
+            final Maybe<ObjectId> id
+    ) {
+        id.match(
+                objectId -> entries.put(name, new Entry(name, mode, objectId)),
+                () -> entries.remove(name));
+    }
+
+    private Maybe<ObjectId> insertSubtree(final Map<String, Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return Maybe.nothing();
+        }
+        return Maybe.just(insertTree(entries));
+    }
+
+    private ObjectId insertTree(final Map<String, Entry> entries) throws IOException {
+        final TreeFormatter treeFormatter = new TreeFormatter(entries.size());
+        entries.values().stream()
+                .sorted(TreePathWriter::treeOrder)
+                .forEach(entry -> treeFormatter.append(entry.getName(), entry.getMode(), entry.getId()));
+        metrics.treeRewritten(entries.size());
+        return objectInserter.get().insert(treeFormatter);
+    }
+
+    /**
+     * Orders entries as git requires them to appear within a tree.
+     *
+     * @param left  the first entry
+     * @param right the second entry
+     * @return the comparison result
+     */
+    private static int treeOrder(final Entry left, final Entry right) {
+        final byte[] leftName = left.getName().getBytes(StandardCharsets.UTF_8);
+        final byte[] rightName = right.getName().getBytes(StandardCharsets.UTF_8);
+        return Paths.compare(
+                leftName, 0, leftName.length, left.getMode().getBits(),
+                rightName, 0, rightName.length, right.getMode().getBits());
+    }
+
+    /**
+     * An entry within a tree.
+     */
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class Entry {
+        private final String name;
+        private final FileMode mode;
+        private final ObjectId id;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.GitDBBranch;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * The updates requested through the asynchronous views of a branch, shared by every view of the branch within a
+ * GitDB.
+ *
+ * <p>Holds a future of the branch as left by the most recently requested update. Each update is chained onto that
+ * future, so updates from all the views of the branch are applied one at a time, in the order they were requested.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class UpdateQueue {
+
+    private CompletableFuture<GitDBBranch> latest;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param branch the branch to start from
+     */
+    UpdateQueue(final GitDBBranch branch) {
+        latest = CompletableFuture.completedFuture(branch);
+    }
+
+    /**
+     * The branch, as left by all the updates requested so far.
+     *
+     * @return the branch
+     */
+    synchronized CompletableFuture<GitDBBranch> latest() {
+        return latest;
+    }
+
+    /**
+     * Chains the update after all previously requested updates.
+     *
+     * @param updater  starts the update of the branch as left by the previous update, which may complete later
+     * @param executor the executor to start the update on
+     * @return the updated branch
+     */
+    synchronized CompletableFuture<GitDBBranch> update(
+            final Function<GitDBBranch, CompletableFuture<GitDBBranch>> updater,
+            final Executor executor
+    ) {
+        final CompletableFuture<GitDBBranch> previous = latest;
+        final CompletableFuture<GitDBBranch> updated = previous.thenComposeAsync(updater, executor);
+        latest = updated.exceptionally(error -> previous.join());
+        return updated;
+    }
+
+}
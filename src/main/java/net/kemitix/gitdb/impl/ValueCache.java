@@ -0,0 +1,295 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.CacheStats;
+import net.kemitix.mon.result.Result;
+import net.kemitix.mon.maybe.Maybe;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the content of value blobs, keyed by the id of the blob.
+ *
+ * <p>The id of a blob is the hash of its content, so a cached value never needs to be invalidated, only evicted when
+ * the total size of the cached values exceeds the limit.</p>
+ *
+ * <p>A value that has been split into chunks is identified by the tree listing its chunks, in order. Its content is
+ * the content of its chunks joined together.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+class ValueCache {
+
+    private final ObjectResources resources;
+    private final LruCache<ObjectId, byte[]> values;
+    private final long streamThresholdBytes;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param resources            the readers to read values with
+     * @param maxBytes             the total size of the values to retain
+     * @param streamThresholdBytes the size above which values opened as streams are streamed, and not cached
+     */
+    ValueCache(final ObjectResources resources, final long maxBytes, final long streamThresholdBytes) {
+        this.resources = resources;
+        values = new LruCache<>(maxBytes, bytes -> bytes.length);
+        this.streamThresholdBytes = streamThresholdBytes;
+    }
+
+    /**
+     * Reads the content of the blob.
+     *
+     * @param blobId the id of the blob
+     * @return the content of the blob
+     */
+    Result<byte[]> read(final ObjectId blobId) {
+        return values.get(blobId.copy(), () ->
+                bytes(resources.reader().open(blobId), id -> resources.reader().open(id)));
+    }
+
+    /**
+     * Reads the content of the value, joining its chunks where it has been split into chunks.
+     *
+     * @param valueId the id of the value
+     * @return the content of the value
+     */
+    Result<byte[]> read(final ValueId valueId) {
+        return read(valueId.getObjectId());
+    }
+
+    /**
+     * Reads the content of the blob, through the reader if it is not already cached.
+     *
+     * @param reader the reader for values not already cached
+     * @param blobId the id of the blob
+     * @return the content of the blob
+     */
+    Result<byte[]> read(final ObjectReader reader, final ObjectId blobId) {
+        return values.get(blobId.copy(), () -> bytes(open(reader, blobId), id -> open(reader, id)));
+    }
+
+    /**
+     * Reads the content of many blobs.
+     *
+     * <p>Blobs not already cached are loaded from the repository together, through a single reader, in the order
+     * that best suits how they are stored.</p>
+     *
+     * @param blobIds the ids of the blobs
+     * @return the content of each blob, by its id
+     */
+    Result<Map<ObjectId, byte[]>> readAll(final Collection<ObjectId> blobIds) {
+        return Result.of(resources::reader)
+                .flatMap(reader -> readAll(reader, blobIds));
+    }
+
+    /**
+     * Reads the content of many blobs, loading those not already cached together through the reader.
+     *
+     * @param reader  the reader for values not already cached
+     * @param blobIds the ids of the blobs
+     * @return the content of each blob, by its id
+     */
+    Result<Map<ObjectId, byte[]>> readAll(final ObjectReader reader, final Collection<ObjectId> blobIds) {
+        final Map<ObjectId, byte[]> found = new HashMap<>();
+        final List<ObjectId> missing = new ArrayList<>();
+        blobIds.forEach(blobId -> {
+            final Maybe<byte[]> cached = values.getIfPresent(blobId);
+            cached.peek(bytes -> found.put(blobId, bytes));
+            if (cached.isNothing()) {
+                missing.add(blobId);
+            }
+        });
+        return Result.of(() -> {
+            synchronized (reader) {
+                final AsyncObjectLoaderQueue<ObjectId> queue = reader.open(missing, true);
+                try {
+                    while (queue.next()) {
+                        final ObjectId blobId = queue.getObjectId().copy();
+                        final byte[] bytes = bytes(queue.open(), reader::open);
+                        values.put(blobId, bytes);
+                        found.put(blobId, bytes);
+                    }
+                } finally {
+                    queue.release();
+                }
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Opens a stream over the content of the blob.
+     *
+     * <p>Blobs larger than the stream threshold, or than JGit's own streaming threshold, and values split into chunks,
+     * are streamed from the repository and are not cached. Others are read into, or from, the cache.</p>
+     *
+     * @param blobId the id of the blob
+     * @return the stream over the content of the blob
+     */
+    Result<InputStream> openStream(final ObjectId blobId) {
+        return openStream(blobId, id -> resources.reader().open(id));
+    }
+
+    /**
+     * Opens a stream over the content of the blob, through the reader if it is not already cached.
+     *
+     * @param reader the reader for values not already cached
+     * @param blobId the id of the blob
+     * @return the stream over the content of the blob
+     */
+    Result<InputStream> openStream(final ObjectReader reader, final ObjectId blobId) {
+        return openStream(blobId, id -> open(reader, id));
+    }
+
+    private Result<InputStream> openStream(final ObjectId blobId, final Opener opener) {
+        return values.getIfPresent(blobId)
+                .map(bytes -> Result.<InputStream>ok(new ByteArrayInputStream(bytes)))
+                .orElseGet(() -> Result.of(() -> {
+                    final ObjectLoader loader = opener.open(blobId);
+                    if (loader.getType() == Constants.OBJ_TREE) {
+                        return chunkStream(chunkIds(loader), opener);
+                    }
+                    if (loader.isLarge() || loader.getSize() > streamThresholdBytes) {
+                        return loader.openStream();
+                    }
+                    final byte[] bytes = loader.getBytes();
+                    values.put(blobId.copy(), bytes);
+                    return new ByteArrayInputStream(bytes);
+                }));
+    }
+
+    /**
+     * Opens the blob through a reader that may be shared between threads.
+     *
+     * <p>Objects smaller than the streaming threshold are loaded in full before the reader is released.</p>
+     *
+     * @param reader the shared reader
+     * @param blobId the id of the blob
+     * @return the loader for the blob
+     * @throws IOException if there is an error reading the blob
+     */
+    private static ObjectLoader open(final ObjectReader reader, final ObjectId blobId) throws IOException {
+        synchronized (reader) {
+            return reader.open(blobId);
+        }
+    }
+
+    /**
+     * The content of the value, joining its chunks where the loader is for a tree of chunks.
+     *
+     * <p>Objects larger than JGit's streaming threshold can't be loaded whole, so are copied from a stream.</p>
+     *
+     * @param loader the loader for the blob, or tree of chunks, of the value
+     * @param opener opens the chunks
+     * @return the content of the value
+     * @throws IOException if there is an error reading the value
+     */
+    private static byte[] bytes(final ObjectLoader loader, final Opener opener) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (loader.getType() != Constants.OBJ_TREE) {
+            if (!loader.isLarge()) {
+                return loader.getBytes();
+            }
+            loader.copyTo(bytes);
+            return bytes.toByteArray();
+        }
+        for (final ObjectId chunkId : chunkIds(loader)) {
+            opener.open(chunkId).copyTo(bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<ObjectId> chunkIds(final ObjectLoader treeLoader) {
+        final List<ObjectId> chunkIds = new ArrayList<>();
+        final CanonicalTreeParser parser = new CanonicalTreeParser();
+        parser.reset(treeLoader.getCachedBytes());
+        while (!parser.eof()) {
+            chunkIds.add(parser.getEntryObjectId());
+            parser.next();
+        }
+        return chunkIds;
+    }
+
+    /**
+     * Streams the chunks one after another, only opening each chunk as the stream reaches it.
+     *
+     * @param chunkIds the ids of the chunks, in order
+     * @param opener   opens the chunks
+     * @return the stream
+     */
+    private static InputStream chunkStream(final List<ObjectId> chunkIds, final Opener opener) {
+        final Iterator<ObjectId> chunks = chunkIds.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return opener.open(chunks.next()).openStream();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens an object.
+     */
+    @FunctionalInterface
+    private interface Opener {
+        ObjectLoader open(ObjectId objectId) throws IOException;
+    }
+
+    /**
+     * A snapshot of the counters for this cache.
+     *
+     * @return the cache counters
+     */
+    CacheStats stats() {
+        return values.stats();
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.ChunkingOptions;
+
+import java.util.Random;
+
+/**
+ * Chooses where to split large values into chunks, using a gear rolling hash of their content.
+ *
+ * <p>A boundary is placed after a byte where the top bits of the hash are all zero, so boundaries depend only on the
+ * content near them, and an edit to a value only moves the boundaries close to it. No boundary is placed within the
+ * minimum chunk size, and one is always placed at the maximum.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+final class ValueChunker {
+
+    private static final long GEAR_SEED = 0x6769746462L;
+    private static final int GEAR_SIZE = 256;
+    private static final int BYTE_MASK = 0xff;
+    private static final String CHUNK_NAME = "%08d";
+    private static final long[] GEAR = gear();
+
+    private final long thresholdBytes;
+    private final int minChunkBytes;
+    private final int maxChunkBytes;
+    private final int hashShift;
+
+    /**
+     * Create new instance of this class.
+     *
+     * @param options the sizes of the values to chunk, and of their chunks
+     */
+    ValueChunker(final ChunkingOptions options) {
+        thresholdBytes = options.getThresholdBytes();
+        minChunkBytes = options.getMinChunkBytes();
+        maxChunkBytes = options.getMaxChunkBytes();
+        final int averageBits = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(options.getAverageChunkBytes());
+        hashShift = Long.SIZE - Math.max(1, averageBits);
+    }
+
+    /**
+     * The table of random values for each byte, the same in every JVM, so the same content is always split the same.
+     *
+     * @return the table
+     */
+    private static long[] gear() {
+        final Random random = new Random(GEAR_SEED);
+        final long[] gear = new long[GEAR_SIZE];
+        for (int i = 0; i < GEAR_SIZE; i++) {
+            gear[i] = random.nextLong();
+        }
+        return gear;
+    }
+
+    /**
+     * Whether a value of the length is split into chunks.
+     *
+     * @param length the length of the value
+     * @return true if the value is chunked
+     */
+    boolean isChunked(final long length) {
+        return thresholdBytes > 0 && length >= thresholdBytes;
+    }
+
+    /**
+     * The largest chunk.
+     *
+     * @return the size in bytes
+     */
+    int maxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    /**
+     * The length of the next chunk at the start of the data.
+     *
+     * @param data   the data, starting at the next chunk
+     * @param length the number of bytes of data, which is either the rest of the value, or at least the largest chunk
+     * @return the length of the chunk
+     */
+    int cut(final byte[] data, final int length) {
+        if (length <= minChunkBytes) {
+            return length;
+        }
+        final int end = Math.min(length, maxChunkBytes);
+        long hash = 0;
+        for (int i = minChunkBytes; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[i] & BYTE_MASK];
+            if (hash >>> hashShift == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Whether a tree entry with the name holds a value, so that where it is a tree, the tree is the chunks of the value
+     * rather than a subtree of the branch.
+     *
+     * @param name the name of the entry
+     * @return true if the entry holds a value
+     */
+    static boolean isValueName(final String name) {
+        return name.startsWith(GitDBBranchImpl.KEY_PREFIX) || name.startsWith(SecondaryIndexes.ENTRY_PREFIX);
+    }
+
+    /**
+     * The name of a chunk within the tree of its value, which orders the chunks as they appear in the value.
+     *
+     * @param index the position of the chunk within the value, from zero
+     * @return the name
+     */
+    static String name(final int index) {
+        return String.format(CHUNK_NAME, index);
+    }
+
+}
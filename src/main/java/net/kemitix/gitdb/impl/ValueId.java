@@ -0,0 +1,65 @@
+/*
+  The MIT License (MIT)
+
+  Copyright (c) 2018 Paul Campbell
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the "Software"), to deal in the Software without restriction,
+  including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+  and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+  subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies
+  or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+  AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.gitdb.impl;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The object holding a value, and the mode of the tree entry that refers to it.
+ *
+ * <p>A value is a single blob, or, where it has been split into chunks, a tree listing its chunks, which is placed
+ * within the branch as a tree.</p>
+ *
+ * @author Paul Campbell (pcampbell@kemitix.net)
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class ValueId {
+
+    private final ObjectId objectId;
+    private final FileMode mode;
+
+    /**
+     * A value held in a single blob.
+     *
+     * @param blobId the id of the blob
+     * @return the value id
+     */
+    static ValueId blob(final ObjectId blobId) {
+        return new ValueId(blobId, FileMode.REGULAR_FILE);
+    }
+
+    /**
+     * A value split into chunks.
+     *
+     * @param treeId the id of the tree of chunks
+     * @return the value id
+     */
+    static ValueId chunks(final ObjectId treeId) {
+        return new ValueId(treeId, FileMode.TREE);
+    }
+
+}
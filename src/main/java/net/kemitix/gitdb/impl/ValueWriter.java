@@ -21,37 +21,207 @@
 
 package net.kemitix.gitdb.impl;
 
+import net.kemitix.gitdb.Compression;
+import net.kemitix.gitdb.ValueStreamWriter;
 import net.kemitix.mon.result.Result;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
-import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
 
 /**
  * Writes Values into the Git Repository.
  *
+ * <p>Values large enough to be chunked are split into chunk blobs, which are written as the entries of a tree, in
+ * order. The id of that tree is returned in place of the id of a blob, with the tree mode, so that it is placed within
+ * the branch as a tree.</p>
+ *
+ * <p>Where incompressible values are to be detected, the first part of each value is compressed at the fastest level
+ * as a sample. A value whose sample barely shrinks is stored without compression.</p>
+ *
  * @author Paul Campbell (pcampbell@kemitix.net)
  */
 class ValueWriter {
 
-    private final ObjectInserter objectInserter;
+    private static final int IN_CORE_LIMIT = 1024 * 1024;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final int MIN_SAMPLE_SIZE = 512;
+    private static final int INCOMPRESSIBLE_PERCENT = 90;
+    private static final int PERCENT = 100;
+
+    private static final int MAIN_INSERTER = -1;
+
+    private final IntFunction<ObjectInserter> objectInserter;
+    private final ValueChunker chunker;
 
     /**
      * Create new instance of this class.
      *
-     * @param repository the repository to write values to
+     * @param objectInserter supplies the inserter to write values with, for a compression level
+     * @param chunker        chooses which values to chunk, and where
      */
-    ValueWriter(final Repository repository) {
-        objectInserter = repository.getObjectDatabase().newInserter();
+    ValueWriter(final IntFunction<ObjectInserter> objectInserter, final ValueChunker chunker) {
+        this.objectInserter = objectInserter;
+        this.chunker = chunker;
     }
 
     /**
      * Write a value into the repository.
      *
-     * @param blob the value blob
-     * @return the id of the value object
+     * @param blob        the value blob
+     * @param compression how to compress the value
+     * @return the id of the value object, and the mode of its entry
      */
-    Result<ObjectId> write(final byte[] blob) {
-        return Result.of(() -> objectInserter.insert(Constants.OBJ_BLOB, blob));
+    Result<ValueId> write(final byte[] blob, final Compression compression) {
+        if (chunker.isChunked(blob.length)) {
+            return Result.of(() -> writeChunks(new ByteArrayInputStream(blob), blob.length, compression));
+        }
+        return Result.of(() -> ValueId.blob(writeBlob(blob, blob.length, compression)));
+    }
+
+    /**
+     * Write a value into the repository, streaming it from the input stream.
+     *
+     * @param inputStream the stream to read the value from
+     * @param length      the number of bytes to read from the stream
+     * @param compression how to compress the value
+     * @return the id of the value object, and the mode of its entry
+     */
+    Result<ValueId> write(final InputStream inputStream, final long length, final Compression compression) {
+        return Result.of(() -> {
+            if (chunker.isChunked(length)) {
+                return writeChunks(inputStream, length, compression);
+            }
+            if (!compression.isDetectIncompressible()) {
+                return ValueId.blob(objectInserter.apply(compression.getLevel())
+                        .insert(Constants.OBJ_BLOB, length, inputStream));
+            }
+            final byte[] sample = new byte[(int) Math.min(length, SAMPLE_SIZE)];
+            final int sampled = IO.readFully(inputStream, sample, 0);
+            final InputStream in = new SequenceInputStream(new ByteArrayInputStream(sample, 0, sampled), inputStream);
+            return ValueId.blob(objectInserter.apply(level(compression, sample, sampled))
+                    .insert(Constants.OBJ_BLOB, length, in));
+        });
+    }
+
+    /**
+     * Write a value into the repository, as written by the writer.
+     *
+     * <p>The value is buffered in memory, spilling to a temporary file once it grows beyond a limit, so that its
+     * length is known before it is streamed into the repository.</p>
+     *
+     * @param writer      writes the value
+     * @param compression how to compress the value
+     * @return the id of the value object, and the mode of its entry
+     */
+    Result<ValueId> write(final ValueStreamWriter writer, final Compression compression) {
+        return Result.of(() -> {
+            final TemporaryBuffer buffer = new TemporaryBuffer.LocalFile(null, IN_CORE_LIMIT);
+            try {
+                try (TemporaryBuffer out = buffer) {
+                    writer.write(out);
+                }
+                if (chunker.isChunked(buffer.length())) {
+                    try (InputStream in = buffer.openInputStream()) {
+                        return writeChunks(in, buffer.length(), compression);
+                    }
+                }
+                final int level = level(compression, buffer);
+                try (InputStream in = buffer.openInputStream()) {
+                    return ValueId.blob(objectInserter.apply(level).insert(Constants.OBJ_BLOB, buffer.length(), in));
+                }
+            } finally {
+                buffer.destroy();
+            }
+        });
+    }
+
+    private ObjectId writeBlob(final byte[] data, final int length, final Compression compression) throws IOException {
+        return objectInserter.apply(level(compression, data, Math.min(length, SAMPLE_SIZE)))
+                .insert(Constants.OBJ_BLOB, data, 0, length);
+    }
+
+    /**
+     * Writes the value as chunk blobs, and the tree listing them in order.
+     *
+     * <p>Only one chunk is held in memory at a time. A chunk already in the repository, from this or any other value,
+     * is not written again.</p>
+     *
+     * @param in          the stream to read the value from
+     * @param length      the number of bytes to read from the stream
+     * @param compression how to compress the chunks
+     * @return the id of the tree of chunks
+     * @throws IOException if there is an error reading the value or writing the chunks
+     */
+    private ValueId writeChunks(final InputStream in, final long length, final Compression compression)
+            throws IOException {
+        final TreeFormatter chunks = new TreeFormatter();
+        final byte[] buffer = new byte[chunker.maxChunkBytes()];
+        long remaining = length;
+        int filled = 0;
+        int index = 0;
+        while (remaining > 0 || filled > 0) {
+            final int toRead = (int) Math.min(buffer.length - filled, remaining);
+            IO.readFully(in, buffer, filled, toRead);
+            filled += toRead;
+            remaining -= toRead;
+            final int cut = chunker.cut(buffer, filled);
+            chunks.append(ValueChunker.name(index++), FileMode.REGULAR_FILE, writeBlob(buffer, cut, compression));
+            System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+            filled -= cut;
+        }
+        return ValueId.chunks(objectInserter.apply(MAIN_INSERTER).insert(chunks));
+    }
+
+    private static int level(final Compression compression, final TemporaryBuffer buffer) throws IOException {
+        if (!compression.isDetectIncompressible()) {
+            return compression.getLevel();
+        }
+        final byte[] sample = new byte[(int) Math.min(buffer.length(), SAMPLE_SIZE)];
+        try (InputStream in = buffer.openInputStream()) {
+            return level(compression, sample, IO.readFully(in, sample, 0));
+        }
+    }
+
+    /**
+     * The level to compress a value at, given a sample from its start.
+     *
+     * @param compression how the value is to be compressed
+     * @param sample      the sample
+     * @param length      the number of bytes of the sample to use
+     * @return the level, or -1 for the level of the GitDB
+     */
+    private static int level(final Compression compression, final byte[] sample, final int length) {
+        if (compression.isDetectIncompressible() && length >= MIN_SAMPLE_SIZE && isIncompressible(sample, length)) {
+            return Deflater.NO_COMPRESSION;
+        }
+        return compression.getLevel();
+    }
+
+    private static boolean isIncompressible(final byte[] sample, final int length) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            final byte[] output = new byte[length];
+            int compressed = 0;
+            while (!deflater.finished() && compressed < length) {
+                compressed += deflater.deflate(output, compressed, length - compressed);
+            }
+            return !deflater.finished()
+                    || (long) compressed * PERCENT >= (long) length * INCOMPRESSIBLE_PERCENT;
+        } finally {
+            deflater.end();
+        }
     }
 }
@@ -0,0 +1,105 @@
+package net.kemitix.gitdb.impl;
+
+import net.kemitix.gitdb.BloomFilterOptions;
+import org.assertj.core.api.WithAssertions;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class BloomFilterCacheTest implements WithAssertions {
+
+    private static final ObjectId TREE_ID = ObjectId.fromString("4b825dc642cb6eb9a060e54bf8d69288fbe4904b");
+
+    private final BloomFilterOptions options = BloomFilterOptions.defaults().withMaxBytes(1024 * 1024);
+
+    private Path savedFile() throws IOException {
+        final Path file = Files.createTempDirectory("bloom").resolve("filters");
+        final BloomFilterCache cache = new BloomFilterCache(options);
+        cache.add(TREE_ID, Arrays.asList("present", "other"));
+        cache.save(file).orElseThrowUnchecked();
+        return file;
+    }
+
+    private static byte[] header(final int count) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0x47444246);
+            out.writeInt(1);
+            out.writeInt(count);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void whenSavedAndLoaded_thenFiltersAreRestored() throws IOException {
+        //given
+        final Path file = savedFile();
+        final BloomFilterCache cache = new BloomFilterCache(options);
+        //when
+        final int loaded = cache.load(file).orElseThrowUnchecked();
+        //then
+        assertThat(loaded).isEqualTo(1);
+        assertThat(cache.mightContain(TREE_ID, "present")).isTrue();
+        assertThat(cache.mightContain(TREE_ID, "absent")).isFalse();
+    }
+
+    @Test
+    void whenFileTruncated_thenErrorAndNoFilters() throws IOException {
+        //given
+        final Path file = savedFile();
+        final byte[] saved = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(saved, saved.length - 1));
+        final BloomFilterCache cache = new BloomFilterCache(options);
+        //when
+        final boolean loaded = cache.load(file).isOkay();
+        //then
+        assertThat(loaded).isFalse();
+        assertThat(cache.mightContain(TREE_ID, "absent")).as("no filter").isTrue();
+    }
+
+    @Test
+    void whenCountLargerThanFile_thenError() throws IOException {
+        //given
+        final Path file = Files.createTempDirectory("bloom").resolve("filters");
+        Files.write(file, header(Integer.MAX_VALUE));
+        //when
+        final boolean loaded = new BloomFilterCache(options).load(file).isOkay();
+        //then
+        assertThat(loaded).isFalse();
+    }
+
+    @Test
+    void whenFilterLargerThanFile_thenError() throws IOException {
+        //given
+        final Path file = savedFile();
+        final byte[] saved = Files.readAllBytes(file);
+        // the word count of the first filter follows the header, tree id and hash count
+        final int wordCount = 3 * Integer.BYTES + 20 + Integer.BYTES;
+        saved[wordCount] = 0x7f;
+        Files.write(file, saved);
+        //when
+        final boolean loaded = new BloomFilterCache(options).load(file).isOkay();
+        //then
+        assertThat(loaded).isFalse();
+    }
+
+    @Test
+    void whenDisabled_thenNothingSavedOrLoaded() throws IOException {
+        //given
+        final Path file = savedFile();
+        final BloomFilterCache cache = BloomFilterCache.disabled();
+        //when
+        final int loaded = cache.load(file).orElseThrowUnchecked();
+        final int saved = cache.save(file).orElseThrowUnchecked();
+        //then
+        assertThat(loaded).isZero();
+        assertThat(saved).isZero();
+    }
+
+}
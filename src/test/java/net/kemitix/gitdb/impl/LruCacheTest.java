@@ -0,0 +1,69 @@
+package net.kemitix.gitdb.impl;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LruCacheTest implements WithAssertions {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private String load(final String value) {
+        loads.incrementAndGet();
+        return value;
+    }
+
+    @Test
+    void whenCached_thenValueIsNotLoadedAgain() {
+        //given
+        final LruCache<String, String> cache = new LruCache<>(10, String::length);
+        cache.get("key", () -> load("value"));
+        //when
+        final String value = cache.get("key", () -> load("other")).orElseThrowUnchecked();
+        //then
+        assertThat(value).isEqualTo("value");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void whenOverWeight_thenLeastRecentlyUsedIsEvicted() {
+        //given
+        final LruCache<String, String> cache = new LruCache<>(6, String::length);
+        cache.get("a", () -> load("aaa"));
+        cache.get("b", () -> load("bbb"));
+        cache.get("a", () -> load("aaa"));
+        //when
+        cache.get("c", () -> load("ccc"));
+        //then
+        assertThat(loads).hasValue(3);
+        cache.get("a", () -> load("aaa"));
+        assertThat(loads).as("a was recently used so is retained").hasValue(3);
+        cache.get("b", () -> load("bbb"));
+        assertThat(loads).as("b was least recently used so was evicted").hasValue(4);
+    }
+
+    @Test
+    void whenValueHeavierThanCache_thenNotCached() {
+        //given
+        final LruCache<String, String> cache = new LruCache<>(2, String::length);
+        cache.get("key", () -> load("value"));
+        //when
+        cache.get("key", () -> load("value"));
+        //then
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void whenLoaderFails_thenErrorIsReturned() {
+        //given
+        final LruCache<String, String> cache = new LruCache<>(10, String::length);
+        //when
+        final boolean isError = cache.get("key", () -> {
+            throw new IllegalStateException("failed");
+        }).isError();
+        //then
+        assertThat(isError).isTrue();
+    }
+
+}
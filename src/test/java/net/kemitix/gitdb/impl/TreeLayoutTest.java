@@ -0,0 +1,34 @@
+package net.kemitix.gitdb.impl;
+
+import com.github.zafarkhaja.semver.Version;
+import net.kemitix.mon.maybe.Maybe;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+class TreeLayoutTest implements WithAssertions {
+
+    @Test
+    void whenNoVersion_thenEntriesAreInRootTree() {
+        assertThat(TreeLayout.forVersion(Maybe.nothing()).path("key:name"))
+                .isEqualTo("key:name");
+    }
+
+    @Test
+    void whenVersionOne_thenEntriesAreInRootTree() {
+        assertThat(TreeLayout.forVersion(Maybe.just(Version.valueOf("1.0.0"))).path("key:name"))
+                .isEqualTo("key:name");
+    }
+
+    @Test
+    void whenVersionTwo_thenEntriesAreInTwoLevelsOfSubtrees() {
+        assertThat(TreeLayout.forVersion(Maybe.just(Version.valueOf("2.0.0"))).path("key:name"))
+                .matches("[0-9a-f]{2}/[0-9a-f]{2}/key:name");
+    }
+
+    @Test
+    void whenSameName_thenSamePath() {
+        final TreeLayout layout = TreeLayout.forVersion(Maybe.just(Version.valueOf("2.0.0")));
+        assertThat(layout.path("key:name")).isEqualTo(layout.path("key:name"));
+    }
+
+}
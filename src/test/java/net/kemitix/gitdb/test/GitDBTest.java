@@ -1,32 +1,87 @@
 package net.kemitix.gitdb.test;
 
 import com.github.zafarkhaja.semver.Version;
+import net.kemitix.gitdb.AsyncGitDBBranch;
+import net.kemitix.gitdb.BloomFilterOptions;
+import net.kemitix.gitdb.BranchConflictException;
+import net.kemitix.gitdb.BranchUpdate;
+import net.kemitix.gitdb.CacheStats;
+import net.kemitix.gitdb.ChunkingOptions;
+import net.kemitix.gitdb.Compression;
 import net.kemitix.gitdb.FormatVersion;
 import net.kemitix.gitdb.GitDB;
 import net.kemitix.gitdb.GitDBBranch;
+import net.kemitix.gitdb.GitDBMetrics;
+import net.kemitix.gitdb.GitDBOptions;
+import net.kemitix.gitdb.GitDBSnapshot;
+import net.kemitix.gitdb.GroupCommitPolicy;
+import net.kemitix.gitdb.HistogramMetrics;
 import net.kemitix.gitdb.InvalidRepositoryException;
+import net.kemitix.gitdb.KeyChange;
+import net.kemitix.gitdb.Maintenance;
+import net.kemitix.gitdb.MaintenancePolicy;
+import net.kemitix.gitdb.MaintenanceReport;
+import net.kemitix.gitdb.SecondaryIndex;
+import net.kemitix.gitdb.StorageOptions;
+import net.kemitix.gitdb.Subscription;
+import net.kemitix.gitdb.WriteBatch;
 import net.kemitix.mon.maybe.Maybe;
 import net.kemitix.mon.result.Result;
 import org.assertj.core.api.WithAssertions;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class GitDBTest implements WithAssertions {
 
-    private final Supplier<String> stringSupplier = UUID.randomUUID()::toString;
+    private final Supplier<String> stringSupplier = () -> UUID.randomUUID().toString();
+    private final Supplier<String> uniqueKeySupplier = () -> UUID.randomUUID().toString();
     private final String userName = stringSupplier.get();
     private final String userEmailAddress = stringSupplier.get();
 
@@ -324,72 +379,2009 @@ class GitDBTest implements WithAssertions {
         );
     }
 
-    // When removing a key that does not exist then the GitDbBranch is returned
+    // When putting a key that already exists then the new value replaces the old
     @Test
-    void removeKey_whenNotExist_thenReturnOriginal() {
+    void putValue_whenKeyExists_thenValueIsReplaced() {
         //given
-        final GitDBBranch gitDBBranch = gitDBBranch();
+        final String key = stringSupplier.get();
+        final String value = stringSupplier.get();
+        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, stringSupplier.get());
         //when
-        final Result<GitDBBranch> result = gitDBBranch.remove("unknown");
+        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.put(key, value));
+        //then
+        updatedBranch.flatMap(b -> b.get(key))
+                .match(
+                        success -> assertThat(success.toOptional()).contains(value),
+                        failOnError()
+                );
+    }
+
+    // When putting many keys then each can be found
+    @Test
+    void putValue_whenManyKeys_thenEachCanBeFound() {
+        //given
+        final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+        Result<GitDBBranch> branch = Result.ok(gitDBBranch());
+        //when
+        for (final String key : keys) {
+            branch = branch.flatMap(b -> b.put(key, "value-" + key));
+        }
+        //then
+        final GitDBBranch updatedBranch = branch.orElseThrowUnchecked();
+        keys.forEach(key ->
+                assertThat(updatedBranch.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+    }
+
+    // When putting a key then it is stored in a subtree and not in the root tree
+    @Test
+    void putValue_thenKeyIsNotInRootTree() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDBBranch branch = gitDB(dbDir).flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null);
+        //when
+        branch.put(stringSupplier.get(), stringSupplier.get());
+        //then
+        try (Repository repository = Git.open(dbDir.toFile()).getRepository();
+             RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(revWalk.parseCommit(repository.resolve("master")).getTree());
+            final List<String> rootNames = new ArrayList<>();
+            while (treeWalk.next()) {
+                rootNames.add(treeWalk.getNameString());
+            }
+            assertThat(rootNames).contains("GitDB.Version")
+                    .noneMatch(name -> name.startsWith("key:"))
+                    .hasSize(2);
+        }
+    }
+
+    // When putting a key with the value it already has then the original GitDbBranch is returned
+    @Test
+    void putValue_whenKeyHasValue_thenReturnOriginal() {
+        //given
+        final String key = stringSupplier.get();
+        final String value = stringSupplier.get();
+        final GitDBBranch originalBranch = gitDBBranchWithKeyValue(key, value).orElseThrowUnchecked();
+        //when
+        final Result<GitDBBranch> result = originalBranch.put(key, value);
         //then
         result.match(
-                success -> assertThat(success).isSameAs(gitDBBranch),
+                success -> assertThat(success).isSameAs(originalBranch),
                 failOnError()
         );
     }
 
-    // When removing a key that does exist then a GitDbBranch is returned
+    // When putting many key/value pairs then each can be found after a single commit
     @Test
-    void removeKey_whenExists_thenReturnUpdatedBranch() {
+    void putAll_thenEachCanBeFoundAfterOneCommit() throws IOException {
         //given
-        final String key = stringSupplier.get();
-        final String value = stringSupplier.get();
-        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        final Path dbDir = dirDoesNotExist();
+        final GitDBBranch branch = gitDB(dbDir).flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null);
+        final Map<String, String> entries = new HashMap<>();
+        Stream.generate(uniqueKeySupplier).limit(20).forEach(key -> entries.put(key, "value-" + key));
         //when
-        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        final GitDBBranch updatedBranch = branch.putAll(entries).orElseThrowUnchecked();
         //then
-        updatedBranch.match(
-                success -> assertThat(success).isNotSameAs(originalBranch),
+        entries.forEach((key, value) ->
+                assertThat(updatedBranch.get(key).orElseThrowUnchecked().toOptional()).contains(value));
+        try (Repository repository = Git.open(dbDir.toFile()).getRepository();
+             RevWalk revWalk = new RevWalk(repository)) {
+            final RevCommit head = revWalk.parseCommit(repository.resolve("master"));
+            final RevCommit parent = revWalk.parseCommit(head.getParent(0));
+            assertThat(parent.getFullMessage()).as("parent is the initial commit").startsWith("Initialise GitDB");
+        }
+    }
+
+    // When writing a batch of puts and removes then all are applied
+    @Test
+    void writeBatch_thenPutsAndRemovesAreApplied() {
+        //given
+        final String removedKey = uniqueKeySupplier.get();
+        final String replacedKey = uniqueKeySupplier.get();
+        final String addedKey = uniqueKeySupplier.get();
+        final Result<GitDBBranch> originalBranch = gitDBBranch()
+                .putAll(mapOf(removedKey, "removed", replacedKey, "original"));
+        final WriteBatch batch = new WriteBatch()
+                .remove(removedKey)
+                .put(replacedKey, "replaced")
+                .put(addedKey, "added");
+        //when
+        final GitDBBranch updatedBranch = originalBranch.flatMap(b -> b.write(batch)).orElseThrowUnchecked();
+        //then
+        assertThat(updatedBranch.get(removedKey).orElseThrowUnchecked().toOptional()).isEmpty();
+        assertThat(updatedBranch.get(replacedKey).orElseThrowUnchecked().toOptional()).contains("replaced");
+        assertThat(updatedBranch.get(addedKey).orElseThrowUnchecked().toOptional()).contains("added");
+    }
+
+    private Map<String, String> mapOf(final String key1, final String value1, final String key2, final String value2) {
+        final Map<String, String> map = new HashMap<>();
+        map.put(key1, value1);
+        map.put(key2, value2);
+        return map;
+    }
+
+    // When writing a batch that changes nothing then the original GitDbBranch is returned
+    @Test
+    void writeBatch_whenNoChanges_thenReturnOriginal() {
+        //given
+        final GitDBBranch gitDBBranch = gitDBBranch();
+        //when
+        final Result<GitDBBranch> result = gitDBBranch.write(new WriteBatch().remove("unknown"));
+        //then
+        result.match(
+                success -> assertThat(success).isSameAs(gitDBBranch),
                 failOnError()
         );
     }
 
-    private Result<GitDBBranch> gitDBBranchWithKeyValue(final String key, final String value) {
-        return gitDBBranch().put(key, value);
+    // When getting a key again then the value is read from the value cache
+    @Test
+    void getKey_whenReadAgain_thenValueCacheHit() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("key", "value").orElseThrowUnchecked();
+        branch.get("key");
+        final CacheStats before = gitDB.valueCacheStats();
+        //when
+        final Maybe<String> value = branch.get("key").orElseThrowUnchecked();
+        //then
+        final CacheStats after = gitDB.valueCacheStats();
+        assertThat(value.toOptional()).contains("value");
+        assertThat(after.getHits()).isEqualTo(before.getHits() + 1);
+        assertThat(after.getMisses()).isEqualTo(before.getMisses());
+        assertThat(after.getWeight()).isPositive();
     }
 
-    // When removing a key that does exist then original GitDbBranch can still find it
+    // When the value cache has no space then values are always read from the repository
     @Test
-    void removeKey_whenExists_thenOriginalCanStillFind() {
+    void getKey_whenValueCacheDisabled_thenNoCacheHits() throws IOException {
         //given
-        final String key = stringSupplier.get();
-        final String value = stringSupplier.get();
-        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        final GitDB gitDB = GitDB.initLocal(dirDoesNotExist(), userName, userEmailAddress,
+                GitDBOptions.defaults().withValueCacheBytes(0)).orElseThrowUnchecked();
+        final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("key", "value").orElseThrowUnchecked();
         //when
-        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        branch.get("key");
+        branch.get("key");
         //then
-        originalBranch.flatMap(b -> b.get(key))
-                .match(
-                        success -> assertThat(success.toOptional()).contains(value),
-                        failOnError()
-                );
+        assertThat(gitDB.valueCacheStats().getHits()).isZero();
+        assertThat(gitDB.valueCacheStats().getWeight()).isZero();
     }
 
-    // When removing a key that does exist then the updated GitDbBranch can't find it
+    // When writing with packed writes then each commit adds a pack rather than loose objects
     @Test
-    void removeKey_whenExists_thenUpdatedCanNotFind() {
+    void putValue_whenPackedWrites_thenObjectsAreWrittenToAPack() throws IOException {
         //given
-        final String key = stringSupplier.get();
-        final String value = stringSupplier.get();
-        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress);
+        final GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withPackedWrites(true)).orElseThrowUnchecked();
+        final Path objectsDir = dbDir.resolve("objects");
+        final long looseBefore = countFiles(objectsDir, "");
         //when
-        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .putAll(mapOf("key1", "value1", "key2", "value2")).orElseThrowUnchecked();
         //then
-        updatedBranch.flatMap(b -> b.get(key))
-                .match(
-                        success -> assertThat(success.toOptional()).isEmpty(),
-                        failOnError()
-                );
+        assertThat(countFiles(objectsDir, "")).as("no new loose objects").isEqualTo(looseBefore);
+        assertThat(countFiles(objectsDir.resolve("pack"), ".pack")).isEqualTo(1);
+        assertThat(countFiles(objectsDir.resolve("pack"), ".idx")).isEqualTo(1);
+        assertThat(branch.get("key1").orElseThrowUnchecked().toOptional()).contains("value1");
+        assertThat(GitDB.openLocal(dbDir, userName, userEmailAddress)
+                .flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null)
+                .get("key2").orElseThrowUnchecked().toOptional()).contains("value2");
+    }
+
+    // When opened with storage options then packs are memory-mapped and larger values are streamed
+    @Test
+    void getStream_whenStorageOptionsMmapWithLowThreshold_thenValueIsStreamedAndNotCached() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress);
+        final StorageOptions storageOptions = StorageOptions.defaults()
+                .withPackedGitMmap(true)
+                .withPackedGitWindowSize(4096)
+                .withStreamFileThreshold(1024);
+        final byte[] value = new byte[8192];
+        new Random(1).nextBytes(value);
+        try {
+            final GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                    GitDBOptions.defaults().withPackedWrites(true).withStorageOptions(storageOptions))
+                    .orElseThrowUnchecked();
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key", value).orElseThrowUnchecked();
+            final long weightBefore = gitDB.valueCacheStats().getWeight();
+            //when
+            final Maybe<InputStream> stream = branch.getStream("key").orElseThrowUnchecked();
+            //then
+            try (InputStream inputStream = stream.orElse(null)) {
+                assertThat(inputStream).hasBinaryContent(value);
+            }
+            assertThat(gitDB.valueCacheStats().getWeight()).isEqualTo(weightBefore);
+        } finally {
+            new WindowCacheConfig().install();
+        }
+    }
+
+    // When values are larger than JGit's streaming threshold then they can still be read whole
+    @Test
+    void getAll_whenLargerThanStreamFileThreshold_thenValuesAreRead() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final GitDBOptions options = GitDBOptions.defaults()
+                .withPackedWrites(true)
+                .withStorageOptions(StorageOptions.defaults().withStreamFileThreshold(1024));
+        final String value = Stream.generate(stringSupplier).limit(256).collect(Collectors.joining());
+        try {
+            try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, options).orElseThrowUnchecked()) {
+                gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                        .put("key", value).orElseThrowUnchecked();
+            }
+            try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, options).orElseThrowUnchecked()) {
+                final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+                //when
+                final Map<String, String> values = branch.getAll(Arrays.asList("key", "other"))
+                        .orElseThrowUnchecked();
+                //then
+                assertThat(values).containsOnly(entry("key", value));
+                assertThat(branch.get("key").orElseThrowUnchecked().toOptional()).contains(value);
+            }
+        } finally {
+            new WindowCacheConfig().install();
+        }
+    }
+
+    // When bloom filters are enabled then absent keys are not found without reading their trees again
+    @Test
+    void get_whenBloomFiltersEnabled_thenAbsentKeysAvoidReadingTrees() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, bloomFilterOptions(false))
+                .orElseThrowUnchecked()) {
+            final GitDBBranch branch = branchWithKeys(gitDB, 10);
+            final List<String> absentKeys = keys("absent", 50);
+            absentKeys.forEach(key -> branch.get(key).orElseThrowUnchecked());
+            final long missesBefore = gitDB.treeCacheStats().getMisses();
+            //when
+            final List<Maybe<String>> found = absentKeys.stream()
+                    .map(key -> branch.get(key).orElseThrowUnchecked())
+                    .collect(Collectors.toList());
+            //then
+            assertThat(found).allMatch(Maybe::isNothing);
+            assertThat(gitDB.treeCacheStats().getMisses() - missesBefore).isLessThan(absentKeys.size() / 5);
+            assertThat(keys("key", 10)).allSatisfy(key ->
+                    assertThat(branch.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+        }
+    }
+
+    // When bloom filters are persisted then they are reused after the GitDB is reopened
+    @Test
+    void get_whenBloomFiltersPersisted_thenFiltersAreReusedAfterReopening() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final List<String> absentKeys = keys("absent", 50);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, bloomFilterOptions(true))
+                .orElseThrowUnchecked()) {
+            final GitDBBranch branch = branchWithKeys(gitDB, 10);
+            absentKeys.forEach(key -> branch.get(key).orElseThrowUnchecked());
+        }
+        assertThat(dbDir.resolve("gitdb-bloom-filters")).exists();
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, bloomFilterOptions(true))
+                .orElseThrowUnchecked()) {
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+            final long missesBefore = gitDB.treeCacheStats().getMisses();
+            //when
+            final List<Maybe<String>> found = absentKeys.stream()
+                    .map(key -> branch.get(key).orElseThrowUnchecked())
+                    .collect(Collectors.toList());
+            //then
+            assertThat(found).allMatch(Maybe::isNothing);
+            assertThat(gitDB.treeCacheStats().getMisses() - missesBefore).isLessThan(absentKeys.size() / 5);
+        }
+    }
+
+    // When values are put, replaced and removed then the secondary index finds the keys with each term
+    @Test
+    void findByIndex_whenValuesPutReplacedAndRemoved_thenIndexMatchesValues() {
+        //given
+        final SecondaryIndex colour = SecondaryIndex.of("colour", value -> Arrays.asList(value.split(",")));
+        final GitDBBranch branch = gitDBBranch().withIndex(colour).orElseThrowUnchecked()
+                .put("apple", "red,green").orElseThrowUnchecked()
+                .put("cherry", "red").orElseThrowUnchecked()
+                .put("lime", "green").orElseThrowUnchecked()
+                .write(new WriteBatch()
+                        .put("apple", "green")
+                        .put("plum", "red,purple")
+                        .remove("cherry")).orElseThrowUnchecked();
+        //when
+        final Map<String, String> red = toMap(branch.findByIndex("colour", "red").orElseThrowUnchecked());
+        final Map<String, String> green = toMap(branch.findByIndex("colour", "green").orElseThrowUnchecked());
+        final GitDBBranch removed = branch.remove("plum").orElseThrowUnchecked();
+        //then
+        assertThat(red).containsOnlyKeys("plum").containsEntry("plum", "red,purple");
+        assertThat(green).containsOnlyKeys("apple", "lime").containsEntry("apple", "green");
+        assertThat(toMap(removed.findByIndex("colour", "purple").orElseThrowUnchecked())).isEmpty();
+        assertThat(toMap(removed.entries().orElseThrowUnchecked())).containsOnlyKeys("apple", "lime");
+        assertThat(toMap(removed.scan("").orElseThrowUnchecked())).containsOnlyKeys("apple", "lime");
+    }
+
+    // When an index is declared on a branch with values then it is built in a single commit
+    @Test
+    void withIndex_whenBranchHasValues_thenIndexIsBuiltInOneCommit() {
+        //given
+        final GitDBBranch branch = gitDBBranch()
+                .put("a", "x").orElseThrowUnchecked()
+                .put("b", "y").orElseThrowUnchecked()
+                .put("c", "x").orElseThrowUnchecked();
+        final String before = branch.commitId().orElseThrowUnchecked();
+        //when
+        final GitDBBranch indexed = branch.withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked();
+        final GitDBBranch again = indexed.withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked();
+        //then
+        assertThat(toMap(indexed.findByIndex("value", "x").orElseThrowUnchecked())).containsOnlyKeys("a", "c");
+        assertThat(indexed.commitId().orElseThrowUnchecked()).isNotEqualTo(before);
+        assertThat(again.commitId().orElseThrowUnchecked()).isEqualTo(indexed.commitId().orElseThrowUnchecked());
+    }
+
+    // When querying an index that has not been declared then an error is returned
+    @Test
+    void findByIndex_whenIndexNotDeclared_thenError() {
+        //given
+        final GitDBBranch branch = gitDBBranch();
+        //when
+        final Result<Stream<Map.Entry<String, String>>> result = branch.findByIndex("missing", "term");
+        //then
+        result.match(
+                success -> fail("Not an error"),
+                error -> assertThat(error).isInstanceOf(IllegalArgumentException.class)
+                        .hasMessageContaining("missing"));
+    }
+
+    // When writing from a branch handle that has not declared an index built on the branch then an error
+    @Test
+    void put_whenBuiltIndexNotDeclared_thenError() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked()) {
+            gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked()
+                    .put("a", "x").orElseThrowUnchecked();
+            final GitDBBranch later = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+            //when
+            final Result<GitDBBranch> result = later.put("b", "x");
+            //then
+            result.match(
+                    success -> fail("Not an error"),
+                    error -> assertThat(error).isInstanceOf(IllegalStateException.class)
+                            .hasMessageContaining("value"));
+            assertThatThrownBy(() -> later.async(executor).put("b", "x").get(30, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(IllegalStateException.class);
+            assertThat(later.withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked()
+                    .put("b", "x").isOkay()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When a write fails after inserting its value then the value is discarded, not written by the next write
+    @Test
+    void put_whenWriteFails_thenItsValueIsNotWrittenByTheNextWrite() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final byte[] rejected = "rejected".getBytes(StandardCharsets.UTF_8);
+        final byte[] accepted = "accepted".getBytes(StandardCharsets.UTF_8);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withPackedWrites(true))
+                .orElseThrowUnchecked()) {
+            gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked();
+            final GitDBBranch undeclared = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+            //when
+            final Result<GitDBBranch> failed = undeclared.put("rejected", rejected);
+            undeclared.withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked()
+                    .put("accepted", accepted).orElseThrowUnchecked();
+            //then
+            assertThat(failed.isError()).isTrue();
+            try (Repository repository = Git.open(dbDir.toFile()).getRepository()) {
+                final ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+                assertThat(repository.getObjectDatabase().has(formatter.idFor(Constants.OBJ_BLOB, accepted)))
+                        .isTrue();
+                assertThat(repository.getObjectDatabase().has(formatter.idFor(Constants.OBJ_BLOB, rejected)))
+                        .isFalse();
+            }
+        }
+    }
+
+    // When querying an index built by another branch handle then the keys are found
+    @Test
+    void findByIndex_whenBuiltByAnotherHandle_thenKeysFound() throws IOException {
+        //given
+        try (GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked()) {
+            gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked()
+                    .put("a", "x").orElseThrowUnchecked()
+                    .put("b", "y").orElseThrowUnchecked();
+            final GitDBBranch later = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+            //when
+            final Map<String, String> found = toMap(later.findByIndex("value", "x").orElseThrowUnchecked());
+            //then
+            assertThat(found).containsOnlyKeys("a");
+        }
+    }
+
+    private static Map<String, String> toMap(final Stream<Map.Entry<String, String>> entries) {
+        try (Stream<Map.Entry<String, String>> stream = entries) {
+            return stream.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        }
+    }
+
+    // When the false positive rate of the bloom filters is out of range then an error
+    @Test
+    void bloomFilterOptions_whenFalsePositiveRateInvalid_thenError() {
+        //given
+        final BloomFilterOptions options = BloomFilterOptions.defaults();
+        //then
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withFalsePositiveRate(0));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withFalsePositiveRate(1));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withFalsePositiveRate(Double.NaN));
+        assertThat(options.withFalsePositiveRate(0.5).getFalsePositiveRate()).isEqualTo(0.5);
+    }
+
+    private GitDBOptions bloomFilterOptions(final boolean persisted) {
+        // a tree cache too small to hold any tree, so every tree that isn't filtered out is read
+        return GitDBOptions.defaults()
+                .withTreeCacheEntries(1)
+                .withBloomFilterOptions(BloomFilterOptions.defaults()
+                        .withMaxBytes(1024 * 1024)
+                        .withPersisted(persisted));
+    }
+
+    private GitDBBranch branchWithKeys(final GitDB gitDB, final int count) {
+        GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+        for (final String key : keys("key", count)) {
+            branch = branch.put(key, "value-" + key).orElseThrowUnchecked();
+        }
+        return branch;
+    }
+
+    private List<String> keys(final String prefix, final int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> prefix + i)
+                .collect(Collectors.toList());
+    }
+
+    // When opened with values stored uncompressed then packs hold the values at their full size
+    @Test
+    void put_whenCompressionStored_thenValuesAreNotCompressed() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final byte[] value = new byte[65536];
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withPackedWrites(true).withCompression(Compression.stored()))
+                .orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key", value).orElseThrowUnchecked();
+            //then
+            assertThat(packBytes(dbDir)).isGreaterThan(value.length);
+            assertThat(branch.getBytes("key").orElseThrowUnchecked().toOptional()).contains(value);
+        }
+    }
+
+    // When opened for loose writes with values stored uncompressed then loose objects hold the values at full size
+    @Test
+    void put_whenLooseWritesAndCompressionStored_thenLooseValuesAreNotCompressed() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final byte[] value = new byte[65536];
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withCompression(Compression.stored()))
+                .orElseThrowUnchecked()) {
+            //when
+            gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key", value).orElseThrowUnchecked();
+            //then
+            try (Stream<Path> files = Files.walk(dbDir.resolve("objects"))) {
+                assertThat(files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).max()
+                        .orElse(0)).isGreaterThan(value.length);
+            }
+            assertThat(packBytes(dbDir)).isZero();
+        }
+    }
+
+    // When a branch is given its own compression then only its values are written at that level
+    @Test
+    void put_whenBranchWithCompression_thenItsValuesUseThatLevel() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final byte[] value = new byte[65536];
+        final byte[] stored = new byte[65536];
+        stored[0] = 1;
+        try (GitDB gitDB = GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked()) {
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("compressed", value).orElseThrowUnchecked();
+            //when
+            final GitDBBranch updated = branch.withCompression(Compression.stored())
+                    .put("stored", stored).orElseThrowUnchecked()
+                    .put("also-stored", "value").orElseThrowUnchecked();
+            //then
+            assertThat(Files.size(looseObject(dbDir, value))).isLessThan(value.length / 10);
+            assertThat(Files.size(looseObject(dbDir, stored))).isGreaterThan(stored.length);
+            assertThat(packBytes(dbDir)).isZero();
+            assertThat(updated.getBytes("stored").orElseThrowUnchecked().toOptional()).contains(stored);
+            assertThat(updated.getBytes("compressed").orElseThrowUnchecked().toOptional()).contains(value);
+            assertThat(updated.get("also-stored").orElseThrowUnchecked().toOptional()).contains("value");
+        }
+    }
+
+    // When writing loose objects at a level then each object is compressed at the level it was written with
+    @Test
+    void put_whenLooseWritesAndCompressionLevel_thenLooseObjectsUseThatLevel() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final byte[] fastest = randomText(1, 4096).getBytes(StandardCharsets.UTF_8);
+        final byte[] best = randomText(2, 4096).getBytes(StandardCharsets.UTF_8);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withCompression(Compression.level(1)))
+                .orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("fastest", fastest).orElseThrowUnchecked()
+                    .withCompression(Compression.level(9))
+                    .put("best", best).orElseThrowUnchecked();
+            //then
+            assertThat(zlibLevel(looseObject(dbDir, fastest))).isZero();
+            assertThat(zlibLevel(looseObject(dbDir, best))).isEqualTo(3);
+            assertThat(packBytes(dbDir)).isZero();
+            assertThat(branch.getBytes("fastest").orElseThrowUnchecked().toOptional()).contains(fastest);
+            assertThat(branch.getBytes("best").orElseThrowUnchecked().toOptional()).contains(best);
+        }
+    }
+
+    private static Path looseObject(final Path dbDir, final byte[] value) {
+        final String id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, value).name();
+        return dbDir.resolve("objects").resolve(id.substring(0, 2)).resolve(id.substring(2));
+    }
+
+    // the compression level recorded in the header of a zlib stream (FLEVEL): 0 fastest to 3 best
+    private static int zlibLevel(final Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            in.read();
+            return in.read() >> 6;
+        }
+    }
+
+    // When detecting incompressible values then only those are stored without compression
+    @Test
+    void put_whenDetectIncompressible_thenOnlyIncompressibleValuesAreStored() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final byte[] random = new byte[65536];
+        new Random(1).nextBytes(random);
+        final byte[] zeros = new byte[65536];
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, GitDBOptions.defaults()
+                .withPackedWrites(true)
+                .withCompression(Compression.level(9).withDetectIncompressible(true)))
+                .orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("zeros", new ByteArrayInputStream(zeros), zeros.length).orElseThrowUnchecked();
+            final long zerosPackBytes = packBytes(dbDir);
+            final GitDBBranch updated = branch
+                    .put("random", new ByteArrayInputStream(random), random.length).orElseThrowUnchecked();
+            //then
+            assertThat(zerosPackBytes).isLessThan(zeros.length / 10);
+            assertThat(packBytes(dbDir) - zerosPackBytes).isGreaterThan(random.length);
+            assertThat(updated.getBytes("random").orElseThrowUnchecked().toOptional()).contains(random);
+            assertThat(updated.getBytes("zeros").orElseThrowUnchecked().toOptional()).contains(zeros);
+        }
+    }
+
+    // When a large value is chunked then every way of reading it returns the whole value
+    @Test
+    void put_whenValueChunked_thenReadsReturnWholeValue() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final String value = randomText(1, 300_000);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, chunkingOptions())
+                .orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("large", value).orElseThrowUnchecked()
+                    .put("small", "value").orElseThrowUnchecked();
+            //then
+            assertThat(branch.get("large").orElseThrowUnchecked().toOptional()).contains(value);
+            assertThat(branch.getBytes("large").orElseThrowUnchecked().toOptional())
+                    .contains(value.getBytes(StandardCharsets.UTF_8));
+            try (InputStream stream = branch.getStream("large").orElseThrowUnchecked().orElse(null)) {
+                assertThat(stream).hasBinaryContent(value.getBytes(StandardCharsets.UTF_8));
+            }
+            assertThat(toMap(branch.entries().orElseThrowUnchecked()))
+                    .containsOnly(entry("large", value), entry("small", "value"));
+            assertThat(toMap(branch.scan("la").orElseThrowUnchecked())).containsOnly(entry("large", value));
+            try (GitDBSnapshot snapshot = branch.snapshot().orElseThrowUnchecked()) {
+                assertThat(snapshot.get("large").orElseThrowUnchecked().toOptional()).contains(value);
+            }
+        }
+    }
+
+    // When a small part of a chunked value is changed then only the chunks around the change are written
+    @Test
+    void put_whenChunkedValueEdited_thenOnlyChangedChunksWritten() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final String value = randomText(2, 300_000);
+        final String edited = value.substring(0, 150_000) + "edit" + value.substring(150_000);
+        final Path objectsDir = dbDir.resolve("objects");
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, chunkingOptions())
+                .orElseThrowUnchecked()) {
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+            final long looseBefore = countFiles(objectsDir, "");
+            final GitDBBranch original = branch.put("key", value).orElseThrowUnchecked();
+            final long looseOriginal = countFiles(objectsDir, "");
+            //when
+            final GitDBBranch updated = original.put("key", edited).orElseThrowUnchecked();
+            //then
+            final long looseEdited = countFiles(objectsDir, "");
+            // at most two new chunks, the tree of chunks, the trees on the path to the key, and the commit
+            assertThat(looseEdited - looseOriginal).isLessThanOrEqualTo(7);
+            assertThat(looseOriginal - looseBefore).isGreaterThan(looseEdited - looseOriginal + 10);
+            assertThat(updated.get("key").orElseThrowUnchecked().toOptional()).contains(edited);
+            assertThat(original.get("key").orElseThrowUnchecked().toOptional()).contains(value);
+        }
+    }
+
+    // When the same large value is put under two keys then its chunks are stored once
+    @Test
+    void put_whenChunkedValueUnderSecondKey_thenNoChunksWritten() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final String value = randomText(3, 300_000);
+        final Path objectsDir = dbDir.resolve("objects");
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, chunkingOptions())
+                .orElseThrowUnchecked()) {
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("first", value).orElseThrowUnchecked();
+            final long looseBefore = countFiles(objectsDir, "");
+            //when
+            final GitDBBranch updated = branch.put("second", value).orElseThrowUnchecked();
+            //then
+            // only the trees on the path to the key, and the commit
+            assertThat(countFiles(objectsDir, "") - looseBefore).isLessThanOrEqualTo(4);
+            assertThat(updated.get("second").orElseThrowUnchecked().toOptional()).contains(value);
+        }
+    }
+
+    // When a value changes between chunked and unchunked then the diff has one change for each key
+    @Test
+    void diff_whenValuesBecomeChunkedOrUnchunked_thenOneChangeForEachKey() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final String large = randomText(4, 300_000);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress, chunkingOptions())
+                .orElseThrowUnchecked()) {
+            final GitDBBranch before = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .putAll(mapOf("growing", "small", "shrinking", large)).orElseThrowUnchecked();
+            //when
+            final GitDBBranch after = before.putAll(mapOf("growing", large, "shrinking", "small"))
+                    .orElseThrowUnchecked();
+            //then
+            final Map<String, KeyChange> changes;
+            try (Stream<KeyChange> stream = gitDB.diff(before.commitId().orElseThrowUnchecked(), "master")
+                    .orElseThrowUnchecked()) {
+                changes = stream.collect(Collectors.toMap(KeyChange::getKey, Function.identity()));
+            }
+            assertThat(changes).containsOnlyKeys("growing", "shrinking");
+            assertThat(changes.get("growing").getType()).isEqualTo(KeyChange.Type.MODIFIED);
+            assertThat(changes.get("growing").newValue().orElseThrowUnchecked().toOptional()).contains(large);
+            assertThat(changes.get("shrinking").getType()).isEqualTo(KeyChange.Type.MODIFIED);
+            assertThat(changes.get("shrinking").oldValue().orElseThrowUnchecked().toOptional()).contains(large);
+            assertThat(after.get("growing").orElseThrowUnchecked().toOptional()).contains(large);
+            assertThat(after.get("shrinking").orElseThrowUnchecked().toOptional()).contains("small");
+        }
+    }
+
+    // When chunking options are given invalid sizes then they are rejected
+    @Test
+    void chunkingOptions_whenSizesInvalid_thenError() {
+        //given
+        final ChunkingOptions options = ChunkingOptions.defaults();
+        //then
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withThresholdBytes(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withChunkSizes(0, 0, 0));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withChunkSizes(-1, 16, 64));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withChunkSizes(64, 64, 16));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withChunkSizes(16, 8, 64));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withChunkSizes(16, 128, 64));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withAverageChunkBytes(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> options.withMaxChunkBytes(0));
+        assertThat(options.withChunkSizes(16, 32, 64).getAverageChunkBytes()).isEqualTo(32);
+    }
+
+    private static GitDBOptions chunkingOptions() {
+        return GitDBOptions.defaults()
+                .withChunkingOptions(ChunkingOptions.defaults()
+                        .withThresholdBytes(64 * 1024)
+                        .withChunkSizes(4 * 1024, 16 * 1024, 64 * 1024));
+    }
+
+    private static String randomText(final long seed, final int length) {
+        final Random random = new Random(seed);
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static long packBytes(final Path dbDir) throws IOException {
+        final Path packDir = dbDir.resolve("objects").resolve("pack");
+        if (!Files.isDirectory(packDir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(packDir)) {
+            return files.filter(file -> file.toString().endsWith(".pack"))
+                    .mapToLong(file -> file.toFile().length())
+                    .sum();
+        }
+    }
+
+    private long countFiles(final Path dir, final String suffix) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.startsWith(dir.resolve("pack")) || !suffix.isEmpty())
+                    .filter(file -> file.toString().endsWith(suffix))
+                    .count();
+        }
+    }
+
+    // When running maintenance then loose objects are packed
+    @Test
+    void maintenance_whenRunNow_thenLooseObjectsArePacked() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("key1", "value1").flatMap(b -> b.put("key2", "value2"))
+                .orElseThrowUnchecked();
+        //when
+        final MaintenanceReport report;
+        try (Maintenance maintenance = gitDB.scheduleMaintenance(MaintenancePolicy.defaults(), r -> { })
+                .orElseThrowUnchecked()) {
+            report = maintenance.runNow().orElseThrowUnchecked();
+        }
+        //then
+        assertThat(report.isPerformed()).isTrue();
+        assertThat(report.getLooseObjectsBefore()).isPositive();
+        assertThat(report.getLooseObjectsAfter()).isZero();
+        assertThat(report.getPackFilesAfter()).isEqualTo(1);
+        assertThat(report.getElapsed()).isPositive();
+        assertThat(gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .get("key2").orElseThrowUnchecked().toOptional()).contains("value2");
+    }
+
+    // When a maintenance policy is given invalid values then they are rejected
+    @Test
+    void maintenancePolicy_whenValuesInvalid_thenError() {
+        //given
+        final MaintenancePolicy policy = MaintenancePolicy.defaults();
+        //then
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withInterval(Duration.ZERO));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withInterval(Duration.ofSeconds(-1)));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withInterval(null));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withLooseObjectThreshold(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withPackFileThreshold(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withLooseBytesThreshold(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withPruneGracePeriod(Duration.ofSeconds(-1)));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.withThreads(-1));
+        assertThat(policy.withInterval(Duration.ofSeconds(1)).getInterval()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    // When maintenance is scheduled and a threshold is reached then the listener receives a report
+    @Test
+    void maintenance_whenThresholdReached_thenListenerReceivesReport() throws Exception {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final CompletableFuture<MaintenanceReport> received = new CompletableFuture<>();
+        final MaintenancePolicy policy = MaintenancePolicy.defaults()
+                .withInterval(Duration.ofMillis(10))
+                .withLooseObjectThreshold(1);
+        //when
+        try (Maintenance maintenance = gitDB.scheduleMaintenance(policy,
+                report -> report.match(received::complete, received::completeExceptionally))
+                .orElseThrowUnchecked()) {
+            //then
+            assertThat(received.get(30, TimeUnit.SECONDS).isPerformed()).isTrue();
+        }
+    }
+
+    // When packed writes reach the pack file threshold then maintenance runs without waiting for its interval
+    @Test
+    void maintenance_whenPackedWritesReachPackThreshold_thenListenerReceivesReport() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final CompletableFuture<MaintenanceReport> received = new CompletableFuture<>();
+        final MaintenancePolicy policy = MaintenancePolicy.defaults()
+                .withInterval(Duration.ofHours(1))
+                .withPackFileThreshold(3);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withPackedWrites(true)).orElseThrowUnchecked();
+             Maintenance maintenance = gitDB.scheduleMaintenance(policy,
+                     report -> report.match(received::complete, received::completeExceptionally))
+                     .orElseThrowUnchecked()) {
+            //when
+            gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key1", "value1").flatMap(b -> b.put("key2", "value2")).flatMap(b -> b.put("key3", "value3"))
+                    .orElseThrowUnchecked();
+            //then
+            final MaintenanceReport report = received.get(30, TimeUnit.SECONDS);
+            assertThat(report.isPerformed()).isTrue();
+            assertThat(report.getPackFilesBefore()).isGreaterThanOrEqualTo(3);
+        }
+    }
+
+    // When removing a key that does not exist then the GitDbBranch is returned
+    @Test
+    void removeKey_whenNotExist_thenReturnOriginal() {
+        //given
+        final GitDBBranch gitDBBranch = gitDBBranch();
+        //when
+        final Result<GitDBBranch> result = gitDBBranch.remove("unknown");
+        //then
+        result.match(
+                success -> assertThat(success).isSameAs(gitDBBranch),
+                failOnError()
+        );
+    }
+
+    // When removing a key that does exist then a GitDbBranch is returned
+    @Test
+    void removeKey_whenExists_thenReturnUpdatedBranch() {
+        //given
+        final String key = stringSupplier.get();
+        final String value = stringSupplier.get();
+        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        //when
+        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        //then
+        updatedBranch.match(
+                success -> assertThat(success).isNotSameAs(originalBranch),
+                failOnError()
+        );
+    }
+
+    private Result<GitDBBranch> gitDBBranchWithKeyValue(final String key, final String value) {
+        return gitDBBranch().put(key, value);
+    }
+
+    // When removing a key that does exist then original GitDbBranch can still find it
+    @Test
+    void removeKey_whenExists_thenOriginalCanStillFind() {
+        //given
+        final String key = stringSupplier.get();
+        final String value = stringSupplier.get();
+        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        //when
+        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        //then
+        originalBranch.flatMap(b -> b.get(key))
+                .match(
+                        success -> assertThat(success.toOptional()).contains(value),
+                        failOnError()
+                );
+    }
+
+    // When removing a key that does exist then the updated GitDbBranch can't find it
+    @Test
+    void removeKey_whenExists_thenUpdatedCanNotFind() {
+        //given
+        final String key = stringSupplier.get();
+        final String value = stringSupplier.get();
+        final Result<GitDBBranch> originalBranch = gitDBBranchWithKeyValue(key, value);
+        //when
+        final Result<GitDBBranch> updatedBranch = originalBranch.flatMap(b -> b.remove(key));
+        //then
+        updatedBranch.flatMap(b -> b.get(key))
+                .match(
+                        success -> assertThat(success.toOptional()).isEmpty(),
+                        failOnError()
+                );
+    }
+
+    // When putting bytes then the same bytes can be read back, as bytes, a buffer and a stream
+    @Test
+    void putBytes_thenCanGetAsBytesBufferAndStream() throws IOException {
+        //given
+        final String key = stringSupplier.get();
+        final byte[] value = {0, 1, 2, (byte) 0xff, (byte) 0xfe};
+        //when
+        final GitDBBranch branch = gitDBBranch().put(key, value).orElseThrowUnchecked();
+        //then
+        assertThat(branch.getBytes(key).orElseThrowUnchecked().toOptional()).contains(value);
+        final ByteBuffer buffer = branch.getByteBuffer(key).orElseThrowUnchecked().orElse(null);
+        assertThat(buffer.isReadOnly()).isTrue();
+        final byte[] fromBuffer = new byte[buffer.remaining()];
+        buffer.get(fromBuffer);
+        assertThat(fromBuffer).isEqualTo(value);
+        try (InputStream stream = branch.getStream(key).orElseThrowUnchecked().orElse(null)) {
+            assertThat(stream).hasSameContentAs(new ByteArrayInputStream(value));
+        }
+    }
+
+    // When the bytes read back are modified then the stored value is unchanged
+    @Test
+    void getBytes_whenModified_thenStoredValueUnchanged() {
+        //given
+        final String key = stringSupplier.get();
+        final GitDBBranch branch = gitDBBranch().put(key, new byte[]{1, 2, 3}).orElseThrowUnchecked();
+        //when
+        branch.getBytes(key).orElseThrowUnchecked().peek(bytes -> bytes[0] = 9);
+        //then
+        assertThat(branch.getBytes(key).orElseThrowUnchecked().toOptional()).contains(new byte[]{1, 2, 3});
+    }
+
+    // When putting a buffer then only its remaining bytes are stored and its position is unchanged
+    @Test
+    void putByteBuffer_thenRemainingBytesStored() {
+        //given
+        final String key = stringSupplier.get();
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        buffer.position(1);
+        //when
+        final GitDBBranch branch = gitDBBranch().put(key, buffer).orElseThrowUnchecked();
+        //then
+        assertThat(branch.getBytes(key).orElseThrowUnchecked().toOptional()).contains(new byte[]{2, 3, 4});
+        assertThat(buffer.position()).isEqualTo(1);
+    }
+
+    // When putting a string then it can be read back as UTF-8 bytes
+    @Test
+    void putString_thenCanGetAsUtf8Bytes() {
+        //given
+        final String key = stringSupplier.get();
+        final String value = "caf\u00e9";
+        //when
+        final GitDBBranch branch = gitDBBranch().put(key, value).orElseThrowUnchecked();
+        //then
+        assertThat(branch.getBytes(key).orElseThrowUnchecked().toOptional())
+                .contains(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // When putting from an input stream then the value can be read back
+    @Test
+    void putInputStream_thenCanGetValue() {
+        //given
+        final String key = stringSupplier.get();
+        final byte[] value = stringSupplier.get().getBytes(StandardCharsets.UTF_8);
+        //when
+        final GitDBBranch branch = gitDBBranch()
+                .put(key, new ByteArrayInputStream(value), value.length)
+                .orElseThrowUnchecked();
+        //then
+        assertThat(branch.getBytes(key).orElseThrowUnchecked().toOptional()).contains(value);
+    }
+
+    // When putting a value larger than the stream threshold with a writer then the value is streamed back uncached
+    @Test
+    void putWriter_whenLarge_thenValueIsStreamedAndNotCached() throws IOException {
+        //given
+        final String key = stringSupplier.get();
+        final byte[] value = new byte[3 * 1024 * 1024];
+        new Random(1).nextBytes(value);
+        assertThat((long) value.length).isGreaterThan(GitDBOptions.defaults().getStreamThresholdBytes());
+        try (GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put(key, out -> out.write(value))
+                    .orElseThrowUnchecked();
+            //then
+            final long weightBefore = gitDB.valueCacheStats().getWeight();
+            try (InputStream stream = branch.getStream(key).orElseThrowUnchecked().orElse(null)) {
+                assertThat(stream).hasSameContentAs(new ByteArrayInputStream(value));
+            }
+            assertThat(gitDB.valueCacheStats().getWeight()).isEqualTo(weightBefore);
+        }
+    }
+
+    // When getting a stream for a key that does not exist then nothing
+    @Test
+    void getStream_whenKeyNotExist_thenNothing() {
+        //when
+        final Result<Maybe<InputStream>> stream = gitDBBranch().getStream(stringSupplier.get());
+        //then
+        assertThat(stream.orElseThrowUnchecked().toOptional()).isEmpty();
+    }
+
+    // When putting asynchronously then the value can be read back asynchronously
+    @Test
+    void asyncPut_thenAsyncGetFindsValue() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AsyncGitDBBranch branch = gitDBBranch().async(executor);
+            final String key = stringSupplier.get();
+            final String value = stringSupplier.get();
+            //when
+            branch.put(key, value);
+            final Maybe<String> result = branch.get(key).get(30, TimeUnit.SECONDS);
+            //then
+            assertThat(result.toOptional()).contains(value);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When many updates are requested asynchronously then each is applied on top of the previous
+    @Test
+    void asyncPut_whenMany_thenAllApplied() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final AsyncGitDBBranch branch = gitDBBranch().async(executor);
+            final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+            //when
+            final List<CompletableFuture<GitDBBranch>> updates = keys.stream()
+                    .map(key -> branch.put(key, "value-" + key))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            //then
+            final GitDBBranch latest = branch.branch().get(30, TimeUnit.SECONDS);
+            keys.forEach(key ->
+                    assertThat(latest.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When two asynchronous views of a branch update it concurrently then their updates are applied one at a time
+    @Test
+    void asyncBranch_whenTwoViewsUpdateConcurrently_thenUpdatesAreSerialised() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withCommitRetries(0)).orElseThrowUnchecked()) {
+            final AsyncGitDBBranch first = gitDB.asyncBranch("master", executor).orElseThrowUnchecked().orElse(null);
+            final AsyncGitDBBranch second = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .async(executor);
+            final List<String> keys = keys("key", 20);
+            //when
+            final List<CompletableFuture<GitDBBranch>> updates = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                final AsyncGitDBBranch view = i % 2 == 0 ? first : second;
+                updates.add(view.put(keys.get(i), "value-" + i));
+            }
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            //then
+            final GitDBBranch latest = first.branch().get(30, TimeUnit.SECONDS);
+            for (int i = 0; i < keys.size(); i++) {
+                assertThat(latest.get(keys.get(i)).orElseThrowUnchecked().toOptional()).contains("value-" + i);
+            }
+            assertThat(countCommits(dbDir)).as("initial commit plus one each").isEqualTo(21);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When selecting an asynchronous view of a branch that does not exist then nothing
+    @Test
+    void asyncBranch_whenBranchNotExist_thenNothing() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked()) {
+            //when
+            final Result<Maybe<AsyncGitDBBranch>> result = gitDB.asyncBranch("unknown", executor);
+            //then
+            assertThat(result.orElseThrowUnchecked().toOptional()).isEmpty();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When taking an asynchronous view of a past commit then it is not moved on by updates to the branch
+    @Test
+    void async_whenViewOfPastCommit_thenStaysAtThatCommit() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final GitDBBranch original = gitDBBranch();
+            final GitDBBranch updated = original.put("key", "value").orElseThrowUnchecked();
+            updated.async(executor).put("other", "value").get(30, TimeUnit.SECONDS);
+            //when
+            final AsyncGitDBBranch past = updated.at(original.commitId().orElseThrowUnchecked())
+                    .orElseThrowUnchecked().async(executor);
+            //then
+            assertThat(past.get("key").get(30, TimeUnit.SECONDS).toOptional()).isEmpty();
+            assertThat(past.get("other").get(30, TimeUnit.SECONDS).toOptional()).isEmpty();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When updating a branch that another writer has since deleted then the update fails
+    @Test
+    void put_whenBranchDeletedElsewhere_thenError() throws IOException, GitAPIException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        try (GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+             Git git = Git.open(dbDir.toFile())) {
+            git.branchCreate().setName("other").call();
+            final GitDBBranch branch = gitDB.branch("other").orElseThrowUnchecked().orElse(null);
+            git.branchDelete().setBranchNames("other").setForce(true).call();
+            //when
+            final Result<GitDBBranch> result = branch.put("key", "value");
+            //then
+            result.match(
+                    success -> fail("Not an error"),
+                    error -> assertThat(error).isInstanceOf(IllegalStateException.class)
+                            .hasMessageContaining("no longer exists"));
+        }
+    }
+
+    // When updating a branch that another writer has since updated then the update is applied on top of theirs
+    @Test
+    void put_whenBranchUpdatedElsewhere_thenBothUpdatesKept() {
+        //given
+        final GitDBBranch original = gitDBBranch();
+        final String key1 = uniqueKeySupplier.get();
+        final String key2 = uniqueKeySupplier.get();
+        original.put(key1, "value1").orElseThrowUnchecked();
+        //when
+        final GitDBBranch updated = original.put(key2, "value2").orElseThrowUnchecked();
+        //then
+        assertThat(updated.get(key1).orElseThrowUnchecked().toOptional()).contains("value1");
+        assertThat(updated.get(key2).orElseThrowUnchecked().toOptional()).contains("value2");
+    }
+
+    // When updating a branch that another writer has since updated, with no retries, then a conflict
+    @Test
+    void put_whenBranchUpdatedElsewhereAndNoRetries_thenConflict() throws IOException {
+        //given
+        final GitDBBranch original = GitDB.initLocal(dirDoesNotExist(), userName, userEmailAddress,
+                GitDBOptions.defaults().withCommitRetries(0))
+                .flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null);
+        original.put(uniqueKeySupplier.get(), "value1").orElseThrowUnchecked();
+        //when
+        final Result<GitDBBranch> updated = original.put(uniqueKeySupplier.get(), "value2");
+        //then
+        updated.match(
+                success -> fail("Expected a conflict"),
+                error -> assertThat(error).isInstanceOf(BranchConflictException.class)
+        );
+    }
+
+    // When many threads put to the same branch then no update is lost
+    @Test
+    void put_whenConcurrentWriters_thenNoUpdatesLost() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            //when
+            final List<CompletableFuture<Void>> writers = keys.stream()
+                    .map(key -> CompletableFuture.runAsync(() ->
+                            gitDB.branch("master")
+                                    .flatMap(branch -> Result.swap(branch.map(b -> b.put(key, "value-" + key))))
+                                    .orElseThrowUnchecked(), executor))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        //then
+        final GitDBBranch latest = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+        keys.forEach(key ->
+                assertThat(latest.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+    }
+
+    // When many threads put to the same branch then each is returned the head of its own commit
+    @Test
+    void put_whenConcurrentWriters_thenEachReturnsItsOwnCommit() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<GitDBBranch> heads;
+        try {
+            //when
+            final List<CompletableFuture<GitDBBranch>> writers = keys.stream()
+                    .map(key -> CompletableFuture.supplyAsync(() ->
+                            gitDB.branch("master")
+                                    .flatMap(branch -> Result.swap(branch.map(b -> b.put(key, "value-" + key))))
+                                    .orElseThrowUnchecked()
+                                    .orElse(null), executor))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+            heads = writers.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } finally {
+            executor.shutdown();
+        }
+        //then
+        final List<String> commitIds = heads.stream()
+                .map(head -> head.commitId().orElseThrowUnchecked())
+                .collect(Collectors.toList());
+        assertThat(commitIds).doesNotHaveDuplicates();
+        try (Repository repository = Git.open(dbDir.toFile()).getRepository();
+             RevWalk revWalk = new RevWalk(repository)) {
+            for (int i = 0; i < keys.size(); i++) {
+                final String key = keys.get(i);
+                final RevCommit commit = revWalk.parseCommit(ObjectId.fromString(commitIds.get(i)));
+                assertThat(commit.getFullMessage()).contains(key);
+                assertThat(heads.get(i).get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key);
+            }
+        }
+    }
+
+    // When many threads put with packed writes then each commit flushes the objects of its own thread
+    @Test
+    void put_whenConcurrentPackedWriters_thenAllValuesReadableAfterReopen() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDB.initLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked().close();
+        final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (GitDB gitDB = GitDB.openLocal(dbDir, userName, userEmailAddress,
+                GitDBOptions.defaults().withPackedWrites(true)).orElseThrowUnchecked()) {
+            //when
+            final List<CompletableFuture<Void>> writers = keys.stream()
+                    .map(key -> CompletableFuture.runAsync(() ->
+                            gitDB.branch("master")
+                                    .flatMap(branch -> Result.swap(branch.map(b -> b.put(key, "value-" + key))))
+                                    .orElseThrowUnchecked(), executor))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        //then
+        try (GitDB reopened = GitDB.openLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked()) {
+            final GitDBBranch latest = reopened.branch("master").orElseThrowUnchecked().orElse(null);
+            keys.forEach(key ->
+                    assertThat(latest.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+        }
+    }
+
+    // When a GitDB is closed then its branches can't be written to
+    @Test
+    void close_thenWritesAreErrors() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("key", "value").orElseThrowUnchecked();
+        //when
+        gitDB.close();
+        //then
+        branch.put("key", "updated").match(
+                success -> fail("Expected an error"),
+                error -> assertThat(error).isInstanceOf(IllegalStateException.class));
+        try (GitDB reopened = GitDB.openLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked()) {
+            assertThat(reopened.branch("master").orElseThrowUnchecked().orElse(null)
+                    .get("key").orElseThrowUnchecked().toOptional()).contains("value");
+        }
+    }
+
+    // When many puts are requested together with group commit then they are made in a single commit
+    @Test
+    void groupCommit_whenManyPuts_thenSingleCommit() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final AsyncGitDBBranch branch = gitDB(dbDir).flatMap(selectBranch("master"))
+                    .orElseThrowUnchecked().orElse(null)
+                    .async(gated(executor, gate), GroupCommitPolicy.defaults());
+            final List<String> keys = Stream.generate(uniqueKeySupplier).limit(20).collect(Collectors.toList());
+            //when
+            final List<CompletableFuture<GitDBBranch>> updates = keys.stream()
+                    .map(key -> branch.put(key, "value-" + key))
+                    .collect(Collectors.toList());
+            gate.countDown();
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            //then
+            final GitDBBranch latest = branch.branch().get(30, TimeUnit.SECONDS);
+            keys.forEach(key ->
+                    assertThat(latest.get(key).orElseThrowUnchecked().toOptional()).contains("value-" + key));
+            assertThat(countCommits(dbDir)).as("initial commit plus one").isEqualTo(2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When more puts are requested together than the max batch size then they are split across commits
+    @Test
+    void groupCommit_whenMorePutsThanMaxBatchSize_thenSplitIntoBatches() throws Exception {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final AsyncGitDBBranch branch = gitDB(dbDir).flatMap(selectBranch("master"))
+                    .orElseThrowUnchecked().orElse(null)
+                    .async(gated(executor, gate), GroupCommitPolicy.defaults().withMaxBatchSize(5));
+            //when
+            final List<CompletableFuture<GitDBBranch>> updates = Stream.generate(uniqueKeySupplier).limit(20)
+                    .map(key -> branch.put(key, "value-" + key))
+                    .collect(Collectors.toList());
+            gate.countDown();
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            //then
+            assertThat(countCommits(dbDir)).as("initial commit plus four").isEqualTo(5);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // When a put and remove of the same key are grouped then the later update wins
+    @Test
+    void groupCommit_whenPutThenRemove_thenKeyRemoved() throws Exception {
+        //given
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AsyncGitDBBranch branch = gitDBBranch()
+                    .async(executor, GroupCommitPolicy.defaults().withWindow(Duration.ofMillis(100)));
+            final String key = stringSupplier.get();
+            //when
+            branch.put(key, "value");
+            branch.remove(key);
+            //then
+            assertThat(branch.get(key).get(30, TimeUnit.SECONDS).toOptional()).isEmpty();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * An executor that holds back every task until the gate is opened, so that all the updates requested before then
+     * are grouped together.
+     */
+    private static Executor gated(final Executor executor, final CountDownLatch gate) {
+        return task -> executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            task.run();
+        });
+    }
+
+    private static int countCommits(final Path dbDir) throws IOException, GitAPIException {
+        try (Git git = Git.open(dbDir.toFile())) {
+            final List<RevCommit> commits = new ArrayList<>();
+            git.log().call().forEach(commits::add);
+            return commits.size();
+        }
+    }
+
+    // When getting many keys then the values of those that exist are found
+    @Test
+    void getAll_thenValuesOfExistingKeys() {
+        //given
+        final Map<String, String> expected = new HashMap<>();
+        Stream.generate(uniqueKeySupplier).limit(20).forEach(key -> expected.put(key, "value-" + key));
+        final GitDBBranch branch = gitDBBranch().putAll(expected).orElseThrowUnchecked();
+        final List<String> keys = new ArrayList<>(expected.keySet());
+        keys.add(uniqueKeySupplier.get());
+        //when
+        final Map<String, String> values = branch.getAll(keys).orElseThrowUnchecked();
+        //then
+        assertThat(values).isEqualTo(expected);
+    }
+
+    // When getting many keys with the same value then each key has the value
+    @Test
+    void getAll_whenSharedValue_thenEachKeyHasValue() {
+        //given
+        final GitDBBranch branch = gitDBBranch().putAll(mapOf("a", "same", "b", "same")).orElseThrowUnchecked();
+        //when
+        final Map<String, String> values = branch.getAll(Arrays.asList("a", "b")).orElseThrowUnchecked();
+        //then
+        assertThat(values).containsOnly(entry("a", "same"), entry("b", "same"));
+    }
+
+    // When streaming the entries then every key and value is found
+    @Test
+    void entries_thenAllKeysAndValues() {
+        //given
+        final Map<String, String> expected = new HashMap<>();
+        Stream.generate(uniqueKeySupplier).limit(20).forEach(key -> expected.put(key, "value-" + key));
+        final GitDBBranch branch = gitDBBranch().putAll(expected).orElseThrowUnchecked();
+        //when
+        final Map<String, String> entries;
+        try (Stream<Map.Entry<String, String>> stream = branch.entries().orElseThrowUnchecked()) {
+            entries = stream.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        }
+        //then
+        assertThat(entries).isEqualTo(expected);
+    }
+
+    // When streaming the entries of a branch with an index then only the keys and values are found
+    @Test
+    void entries_whenBranchHasIndex_thenOnlyKeysAndValues() {
+        //given
+        final Map<String, String> expected = new HashMap<>();
+        Stream.generate(uniqueKeySupplier).limit(20).forEach(key -> expected.put(key, "value-" + key));
+        final GitDBBranch branch = gitDBBranch().withIndex(SecondaryIndex.byValue("value")).orElseThrowUnchecked()
+                .putAll(expected).orElseThrowUnchecked();
+        //when
+        final Map<String, String> entries;
+        try (Stream<Map.Entry<String, String>> stream = branch.entries().orElseThrowUnchecked()) {
+            entries = stream.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        }
+        //then
+        assertThat(entries).isEqualTo(expected);
+    }
+
+    // When putting a key containing a '/' next to an existing key then it is an error and the existing key is kept
+    @Test
+    void put_whenKeyContainsSlash_thenErrorAndExistingKeyKept() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("a", "value-a").orElseThrowUnchecked();
+        //when
+        final List<Result<GitDBBranch>> puts = Stream.of("a/b", "a//b", "a/", "/a", "a\u0000b")
+                .map(key -> branch.put(key, "value-b"))
+                .collect(Collectors.toList());
+        final Result<GitDBBranch> batch = branch.write(new WriteBatch().put("c", "value-c").put("a/b", "value-b"));
+        //then
+        puts.forEach(put -> put.match(
+                failOnSuccess("Key may not contain '/' or NUL"),
+                error -> assertThat(error).isInstanceOf(IllegalArgumentException.class)));
+        assertThat(batch.isError()).isTrue();
+        assertThat(branch.get("a/b").isError()).isTrue();
+        assertThat(branch.remove("a/b").isError()).isTrue();
+        final GitDBBranch latest = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+        assertThat(latest.get("a").orElseThrowUnchecked().toOptional()).contains("value-a");
+        assertThat(latest.get("c").orElseThrowUnchecked().toOptional()).isEmpty();
+        assertThat(toMap(latest.entries().orElseThrowUnchecked())).containsOnlyKeys("a");
+    }
+
+    // When streaming the entries then keys with unusual characters are returned as they were put
+    @Test
+    void entries_whenKeysHaveUnusualCharacters_thenKeysRoundTrip() {
+        //given
+        final Map<String, String> expected = new HashMap<>();
+        Stream.of("a", "a b", "50%", "%2F", "key:nested", "ref:x", "back\\slash", "dot.", "..", "\u00e9t\u00e9",
+                "\u6f22\u5b57", "")
+                .forEach(key -> expected.put(key, "value-" + key));
+        final GitDBBranch branch = gitDBBranch().putAll(expected).orElseThrowUnchecked();
+        //when
+        final Map<String, String> entries = toMap(branch.entries().orElseThrowUnchecked());
+        //then
+        assertThat(entries).isEqualTo(expected);
+        expected.forEach((key, value) ->
+                assertThat(branch.get(key).orElseThrowUnchecked().toOptional()).contains(value));
+    }
+
+    // When only part of the entries stream is consumed then it can be closed
+    @Test
+    void entries_whenPartlyConsumed_thenCanBeClosed() {
+        //given
+        final GitDBBranch branch = gitDBBranch().putAll(mapOf("a", "1", "b", "2")).orElseThrowUnchecked();
+        //when
+        final Stream<Map.Entry<String, String>> stream = branch.entries().orElseThrowUnchecked();
+        final Maybe<Map.Entry<String, String>> first = Maybe.findFirst(stream);
+        //then
+        assertThat(first.toOptional()).isPresent();
+        assertThatCode(stream::close).doesNotThrowAnyException();
+    }
+
+    // When diffing two commits of a branch then the added, modified and removed keys are found
+    @Test
+    void diff_thenAddedModifiedAndRemovedKeys() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final Map<String, String> unchanged = new HashMap<>();
+        Stream.generate(uniqueKeySupplier).limit(20).forEach(key -> unchanged.put(key, "value-" + key));
+        final GitDBBranch before = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .putAll(unchanged)
+                .flatMap(b -> b.putAll(mapOf("modified", "old", "removed", "gone")))
+                .orElseThrowUnchecked();
+        before.put("modified", "new")
+                .flatMap(b -> b.remove("removed"))
+                .flatMap(b -> b.put("added", "fresh"))
+                .orElseThrowUnchecked();
+        //when
+        final Map<String, KeyChange> changes;
+        try (Stream<KeyChange> stream = gitDB.diff(before.commitId().orElseThrowUnchecked(), "master")
+                .orElseThrowUnchecked()) {
+            changes = stream.collect(Collectors.toMap(KeyChange::getKey, Function.identity()));
+        }
+        //then
+        assertThat(changes).containsOnlyKeys("added", "modified", "removed");
+        assertThat(changes.get("added").getType()).isEqualTo(KeyChange.Type.ADDED);
+        assertThat(changes.get("added").getOldValueId().toOptional()).isEmpty();
+        assertThat(changes.get("added").newValue().orElseThrowUnchecked().toOptional()).contains("fresh");
+        assertThat(changes.get("modified").getType()).isEqualTo(KeyChange.Type.MODIFIED);
+        assertThat(changes.get("modified").oldValue().orElseThrowUnchecked().toOptional()).contains("old");
+        assertThat(changes.get("modified").newValue().orElseThrowUnchecked().toOptional()).contains("new");
+        assertThat(changes.get("removed").getType()).isEqualTo(KeyChange.Type.REMOVED);
+        assertThat(changes.get("removed").oldValue().orElseThrowUnchecked().toOptional()).contains("gone");
+        assertThat(changes.get("removed").getNewValueId().toOptional()).isEmpty();
+    }
+
+    // When diffing a commit with itself then there are no changes
+    @Test
+    void diff_whenSameCommit_thenNoChanges() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .putAll(mapOf("a", "1", "b", "2")).orElseThrowUnchecked();
+        //when
+        final long count;
+        try (Stream<KeyChange> stream = gitDB.diff("master", "master").orElseThrowUnchecked()) {
+            count = stream.count();
+        }
+        //then
+        assertThat(count).isZero();
+    }
+
+    // When diffing with an unknown revision then an error
+    @Test
+    void diff_whenUnknownRevision_thenError() throws IOException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        //when
+        final Result<Stream<KeyChange>> result = gitDB.diff("no-such-branch", "master");
+        //then
+        result.match(
+                success -> fail("Expected an error"),
+                error -> assertThat(error).isInstanceOf(IllegalArgumentException.class)
+                        .hasMessageContaining("no-such-branch"));
+    }
+
+    // When subscribed to a branch then a write within the process delivers the changed keys
+    @Test
+    void subscribe_whenWritten_thenUpdateWithChangedKeys() throws IOException, InterruptedException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final GitDBBranch before = gitDB.branch("master").orElseThrowUnchecked().orElse(null);
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        try (Subscription subscription = gitDB.subscribe("master", Duration.ofMinutes(1), updates::add)
+                .orElseThrowUnchecked()) {
+            //when
+            final GitDBBranch after = before.put("key", "value").orElseThrowUnchecked();
+            //then
+            final BranchUpdate update = updates.poll(10, TimeUnit.SECONDS).orElseThrowUnchecked();
+            assertThat(update.getBranchName()).isEqualTo("master");
+            assertThat(update.getFromCommitId().toOptional()).contains(before.commitId().orElseThrowUnchecked());
+            assertThat(update.getToCommitId()).isEqualTo(after.commitId().orElseThrowUnchecked());
+            assertThat(changedKeys(update)).containsExactly("key");
+        }
+    }
+
+    // When another process writes to a subscribed branch then the update is found by polling
+    @Test
+    void subscribe_whenWrittenByAnotherProcess_thenUpdate() throws IOException, InterruptedException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final GitDB otherProcess = GitDB.openLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked();
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        try (Subscription subscription = gitDB.subscribe("master", Duration.ofMillis(20), updates::add)
+                .orElseThrowUnchecked()) {
+            //when
+            otherProcess.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key", "value").orElseThrowUnchecked();
+            //then
+            final BranchUpdate update = updates.poll(10, TimeUnit.SECONDS).orElseThrowUnchecked();
+            assertThat(changedKeys(update)).containsExactly("key");
+        }
+    }
+
+    // When a subscriber throws then later updates are still found by polling
+    @Test
+    void subscribe_whenSubscriberThrows_thenLaterUpdatesDelivered() throws IOException, InterruptedException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final GitDBBranch otherProcess = GitDB.openLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked()
+                .branch("master").orElseThrowUnchecked().orElse(null);
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        try (Subscription subscription = gitDB.subscribe("master", Duration.ofMillis(20), update -> {
+            updates.add(update);
+            throw new IllegalStateException("subscriber failed");
+        }).orElseThrowUnchecked()) {
+            final GitDBBranch first = otherProcess.put("key1", "value1").orElseThrowUnchecked();
+            assertThat(updates.poll(10, TimeUnit.SECONDS)).isNotNull();
+            //when
+            final GitDBBranch second = first.put("key2", "value2").orElseThrowUnchecked();
+            //then
+            final Result<BranchUpdate> update = updates.poll(10, TimeUnit.SECONDS);
+            assertThat(update).isNotNull();
+            assertThat(update.orElseThrowUnchecked().getToCommitId())
+                    .isEqualTo(second.commitId().orElseThrowUnchecked());
+        }
+    }
+
+    // When a subscriber is slow then the updates made meanwhile are merged into one
+    @Test
+    void subscribe_whenSubscriberIsSlow_thenUpdatesAreMerged() throws IOException, InterruptedException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        try (Subscription subscription = gitDB.subscribe("master", Duration.ofMinutes(1), update -> {
+            updates.add(update);
+            awaitQuietly(release);
+        }).orElseThrowUnchecked()) {
+            GitDBBranch branch = gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("first", "value").orElseThrowUnchecked();
+            final BranchUpdate first = updates.poll(10, TimeUnit.SECONDS).orElseThrowUnchecked();
+            //when
+            for (int i = 0; i < 5; i++) {
+                branch = branch.put("key-" + i, "value").orElseThrowUnchecked();
+            }
+            release.countDown();
+            //then
+            final BranchUpdate merged = updates.poll(10, TimeUnit.SECONDS).orElseThrowUnchecked();
+            assertThat(merged.getFromCommitId().toOptional()).contains(first.getToCommitId());
+            assertThat(merged.getToCommitId()).isEqualTo(branch.commitId().orElseThrowUnchecked());
+            assertThat(changedKeys(merged)).containsExactlyInAnyOrder("key-0", "key-1", "key-2", "key-3", "key-4");
+        }
+    }
+
+    // When a subscription is closed then no further updates are delivered
+    @Test
+    void subscribe_whenClosed_thenNoUpdates() throws IOException, InterruptedException {
+        //given
+        final GitDB gitDB = gitDB(dirDoesNotExist()).orElseThrowUnchecked();
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        final Subscription subscription = gitDB.subscribe("master", Duration.ofMillis(20), updates::add)
+                .orElseThrowUnchecked();
+        //when
+        subscription.close();
+        gitDB.branch("master").orElseThrowUnchecked().orElse(null)
+                .put("key", "value").orElseThrowUnchecked();
+        //then
+        assertThat(updates.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    // When a GitDB is closed then its subscriptions and scheduled maintenance are stopped
+    @Test
+    void close_whenSubscribedAndMaintenanceScheduled_thenBothStopped() throws IOException, InterruptedException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        final GitDB gitDB = gitDB(dbDir).orElseThrowUnchecked();
+        final BlockingQueue<Result<BranchUpdate>> updates = new LinkedBlockingQueue<>();
+        final BlockingQueue<Result<MaintenanceReport>> reports = new LinkedBlockingQueue<>();
+        gitDB.subscribe("master", Duration.ofMillis(20), updates::add).orElseThrowUnchecked();
+        // only reached by the objects written after the GitDB is closed
+        final long looseObjects = countFiles(dbDir.resolve("objects"), "");
+        gitDB.scheduleMaintenance(MaintenancePolicy.defaults()
+                .withInterval(Duration.ofMillis(20))
+                .withLooseObjectThreshold(looseObjects + 1), reports::add).orElseThrowUnchecked();
+        //when
+        gitDB.close();
+        try (GitDB otherProcess = GitDB.openLocal(dbDir, userName, userEmailAddress).orElseThrowUnchecked()) {
+            otherProcess.branch("master").orElseThrowUnchecked().orElse(null)
+                    .put("key", "value").orElseThrowUnchecked();
+            //then
+            assertThat(updates.poll(200, TimeUnit.MILLISECONDS)).isNull();
+            assertThat(reports.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        }
+    }
+
+    private List<String> changedKeys(final BranchUpdate update) {
+        try (Stream<KeyChange> changes = update.changes().orElseThrowUnchecked()) {
+            return changes.map(KeyChange::getKey).collect(Collectors.toList());
+        }
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // When reading a key at an earlier commit then the value it had then
+    @Test
+    void getAt_thenValueAtCommit() {
+        //given
+        final GitDBBranch original = gitDBBranch().put("key", "original").orElseThrowUnchecked();
+        final String commitId = original.commitId().orElseThrowUnchecked();
+        final GitDBBranch updated = original.put("key", "updated")
+                .flatMap(b -> b.put("other", "value"))
+                .orElseThrowUnchecked();
+        //then
+        assertThat(updated.getAt("key", commitId).orElseThrowUnchecked().toOptional()).contains("original");
+        assertThat(updated.getAt("other", commitId).orElseThrowUnchecked().toOptional()).isEmpty();
+        assertThat(updated.get("key").orElseThrowUnchecked().toOptional()).contains("updated");
+    }
+
+    // When reading a key as of a time then the value it had at that time
+    @Test
+    void getAsOf_thenValueAtTime() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        gitDB(dbDir).flatMap(selectBranch("master")).orElseThrowUnchecked().orElse(null)
+                .put("key", "original")
+                .flatMap(b -> b.put("key", "updated"))
+                .orElseThrowUnchecked();
+        retime(dbDir, 1_000, 2_000, 3_000);
+        //when
+        final GitDBBranch branch = GitDB.openLocal(dbDir, userName, userEmailAddress)
+                .flatMap(selectBranch("master")).orElseThrowUnchecked().orElse(null);
+        //then
+        assertThat(branch.getAsOf("key", Instant.ofEpochSecond(2_500)).orElseThrowUnchecked().toOptional())
+                .contains("original");
+        assertThat(branch.getAsOf("key", Instant.ofEpochSecond(3_000)).orElseThrowUnchecked().toOptional())
+                .contains("updated");
+        assertThat(branch.getAsOf("key", Instant.ofEpochSecond(1_500)).orElseThrowUnchecked().toOptional())
+                .isEmpty();
+        assertThat(branch.getAsOf("key", Instant.EPOCH).orElseThrowUnchecked().toOptional()).isEmpty();
+    }
+
+    // When a commit is made before its parent then it is treated as made at the time of its parent
+    @Test
+    void getAsOf_whenCommitTimesOutOfOrder_thenCommitIsAtTimeOfParent() throws IOException {
+        //given
+        final Path dbDir = dirDoesNotExist();
+        GitDBBranch writer = gitDB(dbDir).flatMap(selectBranch("master")).orElseThrowUnchecked().orElse(null);
+        for (int version = 1; version <= 5; version++) {
+            writer = writer.put("key", "v" + version).orElseThrowUnchecked();
+        }
+        final List<String> commitIds = retime(dbDir, 1_000, 1_500, 3_000, 2_000, 4_000, 5_000);
+        final GitDBBranch branch = GitDB.openLocal(dbDir, userName, userEmailAddress)
+                .flatMap(selectBranch("master")).orElseThrowUnchecked().orElse(null);
+        //when
+        final Maybe<String> value = branch.getAsOf("key", Instant.ofEpochSecond(2_500)).orElseThrowUnchecked();
+        //then
+        assertThat(value.toOptional()).contains("v1");
+        final GitDBBranch view = branch.at(commitIds.get(3)).orElseThrowUnchecked();
+        assertThat(view.asOf(Instant.ofEpochSecond(3_500)).orElseThrowUnchecked().orElse(null).commitId()
+                .orElseThrowUnchecked()).as("skewed commit is found in the index").isEqualTo(commitIds.get(3));
+    }
+
+    /**
+     * Rewrites the history of the master branch with the same trees, but committed at the given times.
+     *
+     * @param dbDir   the repository
+     * @param seconds the time of each commit, oldest first
+     * @return the ids of the rewritten commits, oldest first
+     */
+    private List<String> retime(final Path dbDir, final long... seconds) throws IOException {
+        try (Git git = Git.open(dbDir.toFile());
+             RevWalk revWalk = new RevWalk(git.getRepository());
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            final Repository repository = git.getRepository();
+            final List<RevCommit> commits = new ArrayList<>();
+            RevCommit commit = revWalk.parseCommit(repository.exactRef(Constants.R_HEADS + "master").getObjectId());
+            commits.add(0, commit);
+            while (commit.getParentCount() > 0) {
+                commit = revWalk.parseCommit(commit.getParent(0));
+                commits.add(0, commit);
+            }
+            assertThat(commits).hasSameSizeAs(seconds);
+            final List<String> commitIds = new ArrayList<>();
+            ObjectId parentId = null;
+            for (int i = 0; i < seconds.length; i++) {
+                final RevCommit original = commits.get(i);
+                final PersonIdent ident = new PersonIdent(original.getCommitterIdent(),
+                        new Date(TimeUnit.SECONDS.toMillis(seconds[i])), TimeZone.getTimeZone("UTC"));
+                final CommitBuilder builder = new CommitBuilder();
+                builder.setTreeId(original.getTree());
+                if (parentId != null) {
+                    builder.setParentId(parentId);
+                }
+                builder.setAuthor(ident);
+                builder.setCommitter(ident);
+                builder.setMessage(original.getFullMessage());
+                parentId = inserter.insert(builder);
+                commitIds.add(parentId.name());
+            }
+            inserter.flush();
+            final RefUpdate update = repository.updateRef(Constants.R_HEADS + "master");
+            update.setNewObjectId(parentId);
+            update.forceUpdate();
+            return commitIds;
+        }
+    }
+
+    // When viewing an older state of a branch as of now then the view is of that state, not the latest
+    @Test
+    void asOf_whenOlderState_thenLimitedToThatState() {
+        //given
+        final GitDBBranch original = gitDBBranch().put("key", "original").orElseThrowUnchecked();
+        original.put("key", "updated").orElseThrowUnchecked().asOf(Instant.now());
+        //when
+        final Maybe<GitDBBranch> view = original.asOf(Instant.now()).orElseThrowUnchecked();
+        //then
+        assertThat(view.toOptional()).isPresent();
+        assertThat(view.orElse(null).commitId().orElseThrowUnchecked())
+                .isEqualTo(original.commitId().orElseThrowUnchecked());
+    }
+
+    // When writing to a view of an earlier commit then an error
+    @Test
+    void at_whenWritten_thenError() {
+        //given
+        final GitDBBranch branch = gitDBBranch().put("key", "value").orElseThrowUnchecked();
+        final GitDBBranch view = branch.at(branch.commitId().orElseThrowUnchecked()).orElseThrowUnchecked();
+        //when
+        final Result<GitDBBranch> result = view.put("key", "updated");
+        //then
+        result.match(
+                success -> fail("Expected an error"),
+                error -> assertThat(error).isInstanceOf(UnsupportedOperationException.class));
+        assertThat(view.get("key").orElseThrowUnchecked().toOptional()).contains("value");
+    }
+
+    // When reading from a snapshot then the values are those when it was opened, while writers carry on
+    @Test
+    void snapshot_whenBranchWritten_thenReadsArePinned() throws IOException {
+        //given
+        final GitDBBranch branch = gitDBBranch()
+                .putAll(mapOf("tenant-a:1", "a1", "tenant-a:2", "a2"))
+                .orElseThrowUnchecked();
+        try (GitDBSnapshot snapshot = branch.snapshot().orElseThrowUnchecked()) {
+            //when
+            branch.put("tenant-a:1", "updated")
+                    .flatMap(b -> b.put("tenant-a:3", "a3"))
+                    .orElseThrowUnchecked();
+            //then
+            assertThat(snapshot.commitId().orElseThrowUnchecked()).isEqualTo(branch.commitId().orElseThrowUnchecked());
+            assertThat(snapshot.get("tenant-a:1").orElseThrowUnchecked().toOptional()).contains("a1");
+            assertThat(snapshot.get("tenant-a:3").orElseThrowUnchecked().toOptional()).isEmpty();
+            assertThat(snapshot.getAll(Arrays.asList("tenant-a:1", "tenant-a:2", "tenant-a:3"))
+                    .orElseThrowUnchecked()).containsOnly(entry("tenant-a:1", "a1"), entry("tenant-a:2", "a2"));
+            assertThat(snapshot.getBytes("tenant-a:2").orElseThrowUnchecked().toOptional())
+                    .contains("a2".getBytes(StandardCharsets.UTF_8));
+            try (InputStream stream = snapshot.getStream("tenant-a:2").orElseThrowUnchecked().orElse(null)) {
+                assertThat(stream).hasContent("a2");
+            }
+            assertThat(snapshot.scan("tenant-a:", 10).orElseThrowUnchecked().map(Map.Entry::getKey))
+                    .containsExactly("tenant-a:1", "tenant-a:2");
+            assertThat(snapshot.range("tenant-a:2", "tenant-b", 10).orElseThrowUnchecked().map(Map.Entry::getValue))
+                    .containsExactly("a2");
+        }
+    }
+
+    // When reading from a closed snapshot then an error
+    @Test
+    void snapshot_whenClosed_thenError() {
+        //given
+        final GitDBBranch branch = gitDBBranch().put("key", "value").orElseThrowUnchecked();
+        final GitDBSnapshot snapshot = branch.snapshot().orElseThrowUnchecked();
+        //when
+        snapshot.close();
+        //then
+        snapshot.get("key").match(
+                success -> fail("Expected an error"),
+                error -> assertThat(error).isInstanceOf(IllegalStateException.class));
+    }
+
+    // When the streams from a snapshot are read after it is closed then they fail cleanly
+    @Test
+    void snapshot_whenClosedBeforeStreamsRead_thenStreamsFail() throws IOException {
+        //given
+        final GitDBBranch branch = gitDBBranch().putAll(mapOf("key1", "value1", "key2", "value2"))
+                .orElseThrowUnchecked();
+        final GitDBSnapshot snapshot = branch.snapshot().orElseThrowUnchecked();
+        final Stream<Map.Entry<String, String>> entries = snapshot.scan("key", 10).orElseThrowUnchecked();
+        final InputStream stream = snapshot.getStream("key1").orElseThrowUnchecked().orElse(null);
+        //when
+        snapshot.close();
+        //then
+        assertThatThrownBy(() -> entries.collect(Collectors.toList()))
+                .hasRootCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(stream::read).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> stream.read(new byte[4], 0, 4)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> stream.skip(1)).isInstanceOf(IOException.class);
+        stream.close();
+    }
+
+    // When scanning for a prefix then only keys with the prefix are found, in order
+    @Test
+    void scan_thenKeysWithPrefixInOrder() {
+        //given
+        final GitDBBranch branch = gitDBBranch()
+                .putAll(mapOf("tenant-b:2", "b2", "tenant-a:2", "a2"))
+                .flatMap(b -> b.putAll(mapOf("tenant-a:1", "a1", "tenant-a:3", "a3")))
+                .orElseThrowUnchecked();
+        //when
+        final List<Map.Entry<String, String>> entries = branch.scan("tenant-a:")
+                .orElseThrowUnchecked().collect(Collectors.toList());
+        //then
+        assertThat(entries).extracting(Map.Entry::getKey).containsExactly("tenant-a:1", "tenant-a:2", "tenant-a:3");
+        assertThat(entries).extracting(Map.Entry::getValue).containsExactly("a1", "a2", "a3");
+    }
+
+    // When scanning for a prefix with a limit then only the first keys are found
+    @Test
+    void scan_whenLimit_thenFirstKeys() {
+        //given
+        final GitDBBranch branch = gitDBBranch()
+                .putAll(mapOf("p:3", "3", "p:1", "1"))
+                .flatMap(b -> b.putAll(mapOf("p:2", "2", "q:0", "0")))
+                .orElseThrowUnchecked();
+        //when
+        final Stream<Map.Entry<String, String>> entries = branch.scan("p:", 2).orElseThrowUnchecked();
+        //then
+        assertThat(entries).extracting(Map.Entry::getKey).containsExactly("p:1", "p:2");
+    }
+
+    // When finding a range then keys from the lower bound and before the upper bound are found, in order
+    @Test
+    void range_thenKeysWithinRangeInOrder() {
+        //given
+        final GitDBBranch branch = gitDBBranch()
+                .putAll(mapOf("a", "a", "b", "b"))
+                .flatMap(b -> b.putAll(mapOf("c", "c", "d", "d")))
+                .orElseThrowUnchecked();
+        //when
+        final Stream<Map.Entry<String, String>> entries = branch.range("b", "d").orElseThrowUnchecked();
+        //then
+        assertThat(entries).extracting(Map.Entry::getKey).containsExactly("b", "c");
+    }
+
+    // When metrics are enabled then operations, phases and inserted objects are recorded
+    @Test
+    void metrics_whenPutAndGet_thenRecorded() throws IOException {
+        //given
+        final HistogramMetrics metrics = new HistogramMetrics();
+        final GitDBBranch branch = GitDB.initLocal(dirDoesNotExist(), userName, userEmailAddress,
+                GitDBOptions.defaults().withMetrics(metrics))
+                .flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null);
+        final String key = stringSupplier.get();
+        //when
+        branch.put(key, "value").flatMap(b -> b.get(key)).orElseThrowUnchecked();
+        //then
+        assertThat(metrics.operation(GitDBMetrics.Operation.BRANCH).getCount()).isEqualTo(1);
+        assertThat(metrics.operation(GitDBMetrics.Operation.PUT).getCount()).isEqualTo(1);
+        assertThat(metrics.operation(GitDBMetrics.Operation.GET).getCount()).isEqualTo(1);
+        assertThat(metrics.failures(GitDBMetrics.Operation.PUT)).isZero();
+        assertThat(GitDBMetrics.Phase.values()).allSatisfy(phase ->
+                assertThat(metrics.phase(phase).getCount()).as(phase.name()).isEqualTo(1));
+        assertThat(metrics.objectsInserted("blob")).isEqualTo(1);
+        assertThat(metrics.bytesInserted("blob")).isEqualTo("value".length());
+        assertThat(metrics.objectsInserted("tree")).as("root and two shard trees").isEqualTo(3);
+        assertThat(metrics.treesRewritten()).as("root and two shard trees").isEqualTo(3);
+        assertThat(metrics.treeEntriesRewritten()).isGreaterThanOrEqualTo(3);
+        assertThat(metrics.objectsInserted("commit")).isEqualTo(1);
+        assertThat(metrics.refUpdateConflicts()).isZero();
+    }
+
+    // When a branch is updated by another writer first then a conflict is recorded
+    @Test
+    void metrics_whenConflict_thenRecorded() throws IOException {
+        //given
+        final HistogramMetrics metrics = new HistogramMetrics();
+        final GitDBBranch original = GitDB.initLocal(dirDoesNotExist(), userName, userEmailAddress,
+                GitDBOptions.defaults().withMetrics(metrics))
+                .flatMap(selectBranch("master"))
+                .orElseThrowUnchecked().orElse(null);
+        original.put(uniqueKeySupplier.get(), "value1").orElseThrowUnchecked();
+        //when
+        original.put(uniqueKeySupplier.get(), "value2").orElseThrowUnchecked();
+        //then
+        assertThat(metrics.refUpdateConflicts()).isEqualTo(1);
     }
 
     @Test
@@ -0,0 +1,35 @@
+package net.kemitix.gitdb.test;
+
+import net.kemitix.gitdb.LatencyHistogram;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest implements WithAssertions {
+
+    @Test
+    void whenEmpty_thenZero() {
+        //given
+        final LatencyHistogram histogram = new LatencyHistogram();
+        //then
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getMeanNanos()).isZero();
+        assertThat(histogram.percentileNanos(99)).isZero();
+    }
+
+    @Test
+    void whenRecorded_thenPercentilesWithinFactorOfTwo() {
+        //given
+        final LatencyHistogram histogram = new LatencyHistogram();
+        //when
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000L);
+        }
+        //then
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getMeanNanos()).isEqualTo(50_500.0);
+        assertThat(histogram.getMaxNanos()).isEqualTo(100_000L);
+        assertThat(histogram.percentileNanos(50)).isBetween(50_000L, 100_000L);
+        assertThat(histogram.percentileNanos(100)).isEqualTo(100_000L);
+    }
+
+}